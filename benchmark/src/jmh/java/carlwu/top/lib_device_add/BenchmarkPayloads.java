@@ -0,0 +1,110 @@
+package carlwu.top.lib_device_add;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试用的合成数据，大小与真实网关、子设备上报接近
+ */
+final class BenchmarkPayloads {
+    static final String TOPO_TOPIC = "/thing/topo/add/status";
+
+    /**
+     * 长连接上常见的其他下行topic，真实场景中 /thing/topo/add/status 只占少数
+     */
+    private static final String[] OTHER_TOPICS = {
+            "/thing/properties",
+            "/thing/events",
+            "/thing/status",
+            "/account/bind/notify",
+            "/thing/ota/progress"
+    };
+
+    static final class Device {
+        final String productKey;
+        final String deviceName;
+
+        Device(String productKey, String deviceName) {
+            this.productKey = productKey;
+            this.deviceName = deviceName;
+        }
+    }
+
+    static final class Message {
+        final String topic;
+        final String payload;
+
+        Message(String topic, String payload) {
+            this.topic = topic;
+            this.payload = payload;
+        }
+    }
+
+    private BenchmarkPayloads() {
+    }
+
+    /**
+     * @param deviceCount 附近的设备数量
+     */
+    static List<Device> devices(int deviceCount) {
+        List<Device> devices = new ArrayList<>(deviceCount);
+        for (int i = 0; i < deviceCount; i++) {
+            devices.add(new Device("a1" + String.format("%09d", i % 8), "HY" + String.format("%010d", 1000000 + i)));
+        }
+        return devices;
+    }
+
+    /**
+     * 一轮发现回调的设备列表，每轮都是从同一批附近设备中上报（发现过程中的重复上报）
+     */
+    static List<List<Device>> discoveryBatches(List<Device> devices, int batchSize, int batchCount, long seed) {
+        Random random = new Random(seed);
+        List<List<Device>> batches = new ArrayList<>(batchCount);
+        for (int i = 0; i < batchCount; i++) {
+            List<Device> batch = new ArrayList<>(batchSize);
+            for (int j = 0; j < batchSize; j++) {
+                batch.add(devices.get(random.nextInt(devices.size())));
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * 下行消息序列，topoPercent% 是子设备入网结果
+     *
+     * @param gatewayCount 正在配网的网关数量
+     */
+    static List<Message> downstreamMessages(int count, int topoPercent, int gatewayCount, long seed) {
+        Random random = new Random(seed);
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(100) < topoPercent) {
+                messages.add(new Message(TOPO_TOPIC, topoPayload("gw-iot-" + random.nextInt(gatewayCount), i)));
+            } else {
+                String topic = OTHER_TOPICS[random.nextInt(OTHER_TOPICS.length)];
+                messages.add(new Message(topic, propertyPayload(i)));
+            }
+        }
+        return messages;
+    }
+
+    static String topoPayload(String gatewayIotId, int seq) {
+        return "{\"gwIotId\":\"" + gatewayIotId + "\","
+                + "\"gwProductKey\":\"a1gwProduct01\","
+                + "\"gwDeviceName\":\"HYGW" + String.format("%08d", seq % 1000) + "\","
+                + "\"subIotId\":\"sub" + String.format("%029d", seq) + "\","
+                + "\"subProductKey\":\"a1subProduct1\","
+                + "\"subDeviceName\":\"HYSUB" + String.format("%010d", seq) + "\","
+                + "\"status\":0,"
+                + "\"identityId\":\"50e8op" + String.format("%026d", seq) + "\"}";
+    }
+
+    private static String propertyPayload(int seq) {
+        return "{\"iotId\":\"dev" + String.format("%029d", seq) + "\","
+                + "\"productKey\":\"a1product001\",\"deviceName\":\"HY" + String.format("%010d", seq) + "\","
+                + "\"items\":{\"PowerSwitch\":{\"value\":1,\"time\":1600000000000},"
+                + "\"Brightness\":{\"value\":80,\"time\":1600000000000}}}";
+    }
+}
@@ -0,0 +1,88 @@
+package carlwu.top.lib_device_add;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次发现回调（onDeviceFound）的处理成本
+ * <p>
+ * legacyMapConversion：DiscoverCallback 的 DeviceInfo → Map 转换，每次回调每个设备都新建 Map；
+ * indexOffer：DiscoveryDeltaCallback 使用的 {@link DiscoveryIndex}，重复上报只刷新时间，只对变化的部分产生增量。
+ */
+@State(Scope.Thread)
+public class DiscoveryBenchmark {
+    private static final int BATCH_COUNT = 1024;
+
+    /**
+     * 一次回调上报的设备数量
+     */
+    @Param({"1", "10", "50"})
+    public int batchSize;
+
+    /**
+     * 附近的设备数量
+     */
+    @Param({"20", "200"})
+    public int deviceCount;
+
+    private List<List<BenchmarkPayloads.Device>> batches;
+    private DiscoveryIndex index;
+    private int cursor;
+    private long now;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        batches = BenchmarkPayloads.discoveryBatches(BenchmarkPayloads.devices(deviceCount), batchSize, BATCH_COUNT, 42);
+        index = new DiscoveryIndex();
+        //预热索引，测量稳定状态（设备都已发现过）下的成本
+        for (List<BenchmarkPayloads.Device> batch : batches) {
+            for (BenchmarkPayloads.Device device : batch) {
+                index.offer(0, device.productKey, device.deviceName, now);
+            }
+        }
+        index.drain();
+    }
+
+    private List<BenchmarkPayloads.Device> nextBatch() {
+        List<BenchmarkPayloads.Device> batch = batches.get(cursor);
+        cursor = (cursor + 1) & (BATCH_COUNT - 1);
+        return batch;
+    }
+
+    @Benchmark
+    public void legacyMapConversion(Blackhole blackhole) {
+        List<BenchmarkPayloads.Device> batch = nextBatch();
+        List<Map<String, String>> data = new ArrayList<>();
+        for (BenchmarkPayloads.Device deviceInfo : batch) {
+            Map<String, String> bean = new HashMap<>();
+            bean.put("productKey", deviceInfo.productKey);
+            bean.put("deviceName", deviceInfo.deviceName);
+            data.add(bean);
+        }
+        blackhole.consume(data);
+    }
+
+    @Benchmark
+    public void indexOffer(Blackhole blackhole) {
+        List<BenchmarkPayloads.Device> batch = nextBatch();
+        now += 100;
+        boolean changed = false;
+        for (BenchmarkPayloads.Device device : batch) {
+            changed |= index.offer(0, device.productKey, device.deviceName, now);
+        }
+        if (changed) {
+            blackhole.consume(index.drain());
+        }
+        blackhole.consume(changed);
+    }
+}
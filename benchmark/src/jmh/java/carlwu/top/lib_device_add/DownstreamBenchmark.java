@@ -0,0 +1,94 @@
+package carlwu.top.lib_device_add;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一条下行消息的处理成本
+ * <p>
+ * legacyPerListener：每个 NodeHelper 各自注册 IMobileDownstreamListener，
+ * 每条消息对每个监听都拼接 shouldHandle 日志，入网结果消息每个监听都完整解析一次JSON（原实现）；
+ * parseOnceLookup：TopoStatusRouter 采用的方式的下限，只比较一次topic，用库里的 TopoStatus.parse 解析一次，
+ * 在 HashMap 中按网关iotId查找订阅者。
+ * 日志拼接的字符串交给 Blackhole，相当于 Log.d 被调用但不输出。
+ * <p>
+ * 不是 TopoStatusRouter 本身：它依赖 TextUtils、MobileChannel、SdkPorts，本模块不编译这些类，
+ * 路由器的加锁、LinkedHashSet 收集订阅者、productKey 过滤和回调不在测量内。
+ * 路由器的实际路径由 BindLoadTest（SimulatedAliyun 下行消息）覆盖。
+ */
+@State(Scope.Thread)
+public class DownstreamBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+    private static final String TAG = "NodeHelper";
+
+    /**
+     * 同时在等待入网结果的流程数量
+     */
+    @Param({"1", "10", "50"})
+    public int listeners;
+
+    /**
+     * 入网结果消息占全部下行消息的百分比
+     */
+    @Param({"10", "100"})
+    public int topoPercent;
+
+    private List<BenchmarkPayloads.Message> messages;
+    private Map<String, Object> subscribersByGateway;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        messages = BenchmarkPayloads.downstreamMessages(MESSAGE_COUNT, topoPercent, listeners, 42);
+        subscribersByGateway = new HashMap<>();
+        for (int i = 0; i < listeners; i++) {
+            subscribersByGateway.put("gw-iot-" + i, new Object());
+        }
+    }
+
+    private BenchmarkPayloads.Message nextMessage() {
+        BenchmarkPayloads.Message message = messages.get(cursor);
+        cursor = (cursor + 1) & (MESSAGE_COUNT - 1);
+        return message;
+    }
+
+    @Benchmark
+    public void legacyPerListener(Blackhole blackhole) throws JSONException {
+        BenchmarkPayloads.Message message = nextMessage();
+        for (int i = 0; i < listeners; i++) {
+            blackhole.consume(TAG + "shouldHandle: " + message.topic);
+            if (!BenchmarkPayloads.TOPO_TOPIC.equals(message.topic)) {
+                continue;
+            }
+            blackhole.consume("onCommand: " + message.topic + " " + message.payload);
+            JSONObject jsonObject = new JSONObject(message.payload);
+            int status = jsonObject.optInt("status", -1);
+            blackhole.consume(status);
+            blackhole.consume(jsonObject.getString("subProductKey"));
+            blackhole.consume(jsonObject.getString("subDeviceName"));
+            blackhole.consume(jsonObject.getString("subIotId"));
+        }
+    }
+
+    @Benchmark
+    public void parseOnceLookup(Blackhole blackhole) throws JSONException {
+        BenchmarkPayloads.Message message = nextMessage();
+        if (!BenchmarkPayloads.TOPO_TOPIC.equals(message.topic)) {
+            return;
+        }
+        TopoStatus topoStatus = TopoStatus.parse(message.payload);
+        blackhole.consume(subscribersByGateway.get(topoStatus.gatewayIotId));
+        blackhole.consume(topoStatus);
+    }
+}
@@ -0,0 +1,330 @@
+package carlwu.top.lib_device_add;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按账号分组执行绑定流程
+ * <p>
+ * LoginBusiness 与 MobileChannel 是进程级单例，不同 authCode 的流程同时执行会互相登出，
+ * 按到达顺序交替执行则几乎每个流程都要切换一次账号。这里把流程按 authCode 排队：
+ * 同一时刻只执行一个账号的流程，该账号排队的流程以 maxConcurrency 并发全部执行完（或达到 {@link #setMaxFlowsPerTurn(int)}）
+ * 后，才切换到最早排队的下一个账号。
+ * <p>
+ * 流程结束（成功、失败、取消）时必须调用一次 {@link FlowDone#onFlowFinish()}，否则该账号一直占用会话。
+ * 例如在 BindHelper 的 onBindSuccess、onFailure 和 stopBind 后调用。
+ * 调用层可能漏掉某条路径时，用 {@link #setFlowTimeoutMillis(long)} 兜底。
+ */
+public class AccountFlowScheduler {
+    private static final String TAG = "AccountFlowScheduler";
+    public static final int DEFAULT_MAX_FLOWS_PER_TURN = 64;
+
+    public interface FlowTask {
+        /**
+         * 开始流程，在调度线程中调用
+         *
+         * @param done 流程结束时调用，重复调用忽略
+         */
+        void start(FlowDone done);
+    }
+
+    public interface FlowDone {
+        void onFlowFinish();
+    }
+
+    private final Object lock = new Object();
+    private final int maxConcurrency;
+    private final BindScheduler scheduler;
+    private int maxFlowsPerTurn = DEFAULT_MAX_FLOWS_PER_TURN;
+    private volatile long flowTimeoutMillis;
+
+    private final Map<String, ArrayDeque<Ticket>> queues = new LinkedHashMap<>();//按账号首次排队的顺序
+    private String activeAuthCode;//正在执行的账号
+    private String lastAuthCode;//最近一次执行的账号，用于判断是否切换
+    private int runningCount;
+    private int turnCount;//当前账号本轮已开始的流程数量
+    private int queuedCount;
+    private int switchCount;
+    private int timeoutCount;
+    private int startedCount;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+
+    /**
+     * @param maxConcurrency 同一账号同时执行的流程数量上限
+     */
+    public AccountFlowScheduler(int maxConcurrency) {
+        this(maxConcurrency, BindScheduler.getDefault());
+    }
+
+    /**
+     * @param maxConcurrency 同一账号同时执行的流程数量上限
+     * @param scheduler      开始流程的线程
+     */
+    public AccountFlowScheduler(int maxConcurrency, BindScheduler scheduler) {
+        if (maxConcurrency < 1) {
+            throw new RuntimeException("maxConcurrency 需要 >=1");
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 设置一个账号连续执行的流程数量上限，达到后有其他账号排队时切换，避免其他账号一直等待。默认64
+     */
+    public void setMaxFlowsPerTurn(int maxFlowsPerTurn) {
+        if (maxFlowsPerTurn < 1) {
+            throw new RuntimeException("maxFlowsPerTurn 需要 >=1");
+        }
+        synchronized (lock) {
+            this.maxFlowsPerTurn = maxFlowsPerTurn;
+        }
+    }
+
+    /**
+     * 设置流程占用时长上限，开始后超过该时长仍未调用 {@link FlowDone#onFlowFinish()} 时视为结束，
+     * 释放并发名额，避免一个漏掉回调的流程让所有账号一直等待。默认不使用
+     * <p>
+     * 超时后流程本身不会被停止，仍在执行时会与下一个账号的流程重叠，需要大于流程正常的最长耗时，
+     * 例如 BindHelper 的绑定超时加上登录耗时
+     *
+     * @param flowTimeoutMillis <=0 不使用
+     */
+    public void setFlowTimeoutMillis(long flowTimeoutMillis) {
+        this.flowTimeoutMillis = flowTimeoutMillis;
+    }
+
+    /**
+     * 流程排队
+     *
+     * @return 排队句柄，开始前可以 {@link Ticket#cancel()}
+     */
+    public Ticket submit(String authCode, FlowTask task) {
+        if (authCode == null || task == null) {
+            throw new RuntimeException("authCode、task 不能为空");
+        }
+        Ticket ticket = new Ticket(authCode, task);
+        synchronized (lock) {
+            ArrayDeque<Ticket> queue = queues.get(authCode);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(authCode, queue);
+            }
+            queue.add(ticket);
+            queuedCount++;
+        }
+        dispatch();
+        return ticket;
+    }
+
+    /**
+     * 账号切换次数，即开始执行的账号与上一次不同的次数
+     */
+    public int getSwitchCount() {
+        synchronized (lock) {
+            return switchCount;
+        }
+    }
+
+    /**
+     * 因超过 {@link #setFlowTimeoutMillis(long)} 而结束的流程数量
+     */
+    public int getTimeoutCount() {
+        synchronized (lock) {
+            return timeoutCount;
+        }
+    }
+
+    /**
+     * 排队中的流程数量
+     */
+    public int getQueuedCount() {
+        synchronized (lock) {
+            return queuedCount;
+        }
+    }
+
+    public int getRunningCount() {
+        synchronized (lock) {
+            return runningCount;
+        }
+    }
+
+    /**
+     * 已开始的流程的平均排队时长
+     */
+    public long getAverageWaitMillis() {
+        synchronized (lock) {
+            return startedCount == 0 ? 0 : totalWaitMillis / startedCount;
+        }
+    }
+
+    public long getMaxWaitMillis() {
+        synchronized (lock) {
+            return maxWaitMillis;
+        }
+    }
+
+    /**
+     * 在当前账号的并发名额内开始排队的流程，当前账号没有流程执行且不再继续时切换账号
+     */
+    private void dispatch() {
+        List<Ticket> starting = new ArrayList<>();
+        synchronized (lock) {
+            if (activeAuthCode != null && runningCount == 0 && !continueTurn()) {
+                TraceLog.d(TAG, "turn finish: {} flows={}", activeAuthCode, turnCount);
+                activeAuthCode = null;
+            }
+            if (activeAuthCode == null) {
+                selectNextAccount();
+            }
+            ArrayDeque<Ticket> queue = activeAuthCode == null ? null : queues.get(activeAuthCode);
+            long now = SdkPorts.clock().elapsedRealtime();
+            while (queue != null && !queue.isEmpty() && runningCount < maxConcurrency && continueTurn()) {
+                Ticket ticket = queue.poll();
+                queuedCount--;
+                runningCount++;
+                turnCount++;
+                startedCount++;
+                long waitMillis = now - ticket.submitTime;
+                totalWaitMillis += waitMillis;
+                maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+                starting.add(ticket);
+            }
+            if (queue != null && queue.isEmpty()) {
+                queues.remove(activeAuthCode);
+            }
+        }
+        for (final Ticket ticket : starting) {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ticket.start();
+                }
+            });
+        }
+    }
+
+    /**
+     * 当前账号是否继续执行：还有排队的流程，并且没有其他账号排队或本轮未达到上限。调用方持有lock
+     */
+    private boolean continueTurn() {
+        ArrayDeque<Ticket> queue = queues.get(activeAuthCode);
+        if (queue == null || queue.isEmpty()) {
+            return false;
+        }
+        return turnCount < maxFlowsPerTurn || queues.size() == 1;
+    }
+
+    /**
+     * 切换到最早排队的账号，当前账号本轮达到上限时排到队尾。调用方持有lock
+     */
+    private void selectNextAccount() {
+        Iterator<Map.Entry<String, ArrayDeque<Ticket>>> iterator = queues.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return;
+        }
+        Map.Entry<String, ArrayDeque<Ticket>> next = iterator.next();
+        if (next.getKey().equals(lastAuthCode) && queues.size() > 1) {
+            //上一轮的账号还有排队的流程，让其他账号先执行
+            iterator.remove();
+            queues.put(next.getKey(), next.getValue());
+            next = queues.entrySet().iterator().next();
+        }
+        activeAuthCode = next.getKey();
+        turnCount = 0;
+        if (lastAuthCode != null && !lastAuthCode.equals(activeAuthCode)) {
+            switchCount++;
+        }
+        lastAuthCode = activeAuthCode;
+        TraceLog.d(TAG, "turn start: {} queued={} switches={}", activeAuthCode, next.getValue().size(), switchCount);
+    }
+
+    private void onFlowFinish() {
+        synchronized (lock) {
+            runningCount--;
+        }
+        dispatch();
+    }
+
+    /**
+     * 一个排队的流程
+     */
+    public class Ticket {
+        private final String authCode;
+        private final FlowTask task;
+        private final long submitTime = SdkPorts.clock().elapsedRealtime();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile ScheduledFuture<?> timeout;
+
+        private Ticket(String authCode, FlowTask task) {
+            this.authCode = authCode;
+            this.task = task;
+        }
+
+        /**
+         * 取消排队，已开始的流程需要调用层自行结束
+         *
+         * @return false:流程已开始或已取消
+         */
+        public boolean cancel() {
+            synchronized (lock) {
+                ArrayDeque<Ticket> queue = queues.get(authCode);
+                if (queue == null || !queue.remove(this)) {
+                    return false;
+                }
+                queuedCount--;
+                if (queue.isEmpty()) {
+                    queues.remove(authCode);
+                }
+            }
+            dispatch();
+            return true;
+        }
+
+        private void start() {
+            long timeoutMillis = flowTimeoutMillis;
+            if (timeoutMillis > 0) {
+                timeout = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (finished.compareAndSet(false, true)) {
+                            TraceLog.w(TAG, "flow timeout: {}", authCode);
+                            synchronized (lock) {
+                                timeoutCount++;
+                            }
+                            AccountFlowScheduler.this.onFlowFinish();
+                        }
+                    }
+                }, timeoutMillis);
+            }
+            try {
+                task.start(new FlowDone() {
+                    @Override
+                    public void onFlowFinish() {
+                        finish();
+                    }
+                });
+            } catch (RuntimeException e) {
+                TraceLog.e(TAG, "start failed: {}", authCode, e);
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (finished.compareAndSet(false, true)) {
+                ScheduledFuture<?> timeout = this.timeout;
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                AccountFlowScheduler.this.onFlowFinish();
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package carlwu.top.lib_device_add;
+
+import android.content.Context;
+
+import com.aliyun.alink.business.devicecenter.api.discovery.DiscoveryType;
+import com.aliyun.alink.business.devicecenter.api.discovery.GetTokenParams;
+import com.aliyun.alink.business.devicecenter.api.discovery.GetTokenResult;
+import com.aliyun.alink.business.devicecenter.api.discovery.IDeviceDiscoveryListener;
+import com.aliyun.alink.business.devicecenter.api.discovery.IOnTokenGetListerner;
+import com.aliyun.alink.business.devicecenter.api.discovery.LocalDeviceMgr;
+import com.aliyun.alink.business.devicecenter.base.DCErrorCode;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileConnectListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileDownstreamListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileRequestListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.MobileChannel;
+import com.aliyun.alink.linksdk.channel.mobile.api.MobileConnectState;
+import com.aliyun.iot.aep.sdk.apiclient.IoTAPIClient;
+import com.aliyun.iot.aep.sdk.apiclient.IoTAPIClientFactory;
+import com.aliyun.iot.aep.sdk.apiclient.callback.IoTCallback;
+import com.aliyun.iot.aep.sdk.apiclient.callback.IoTResponse;
+import com.aliyun.iot.aep.sdk.apiclient.request.IoTRequest;
+import com.aliyun.iot.aep.sdk.apiclient.request.IoTRequestBuilder;
+import com.aliyun.iot.aep.sdk.credential.IotCredentialManager.IoTCredentialManageImpl;
+import com.aliyun.iot.aep.sdk.framework.AApplication;
+import com.aliyun.iot.aep.sdk.login.ILoginCallback;
+import com.aliyun.iot.aep.sdk.login.ILogoutCallback;
+import com.aliyun.iot.aep.sdk.login.LoginBusiness;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * {@link SdkPorts} 的默认实现，转发给阿里云SDK
+ */
+class AliyunSdkPorts {
+
+    static final SdkPorts.LoginPort LOGIN = new SdkPorts.LoginPort() {
+        @Override
+        public void authCodeLogin(String authCode, ILoginCallback callback) {
+            LoginBusiness.authCodeLogin(authCode, callback);
+        }
+
+        @Override
+        public void logout(ILogoutCallback callback) {
+            LoginBusiness.logout(callback);
+        }
+
+        @Override
+        public boolean isLogin() {
+            return LoginBusiness.isLogin();
+        }
+
+        @Override
+        public String getIoTToken() {
+            return IoTCredentialManageImpl.getInstance(AApplication.getInstance()).getIoTToken();
+        }
+    };
+
+    static final SdkPorts.ChannelPort CHANNEL = new SdkPorts.ChannelPort() {
+        @Override
+        public MobileConnectState getMobileConnectState() {
+            return MobileChannel.getInstance().getMobileConnectState();
+        }
+
+        @Override
+        public void registerConnectListener(IMobileConnectListener listener) {
+            MobileChannel.getInstance().registerConnectListener(true, listener);
+        }
+
+        @Override
+        public void unRegisterConnectListener(IMobileConnectListener listener) {
+            MobileChannel.getInstance().unRegisterConnectListener(listener);
+        }
+
+        @Override
+        public void registerDownstreamListener(IMobileDownstreamListener listener) {
+            MobileChannel.getInstance().registerDownstreamListener(true, listener);
+        }
+
+        @Override
+        public void unRegisterDownstreamListener(IMobileDownstreamListener listener) {
+            MobileChannel.getInstance().unRegisterDownstreamListener(listener);
+        }
+
+        @Override
+        public void bindAccount(String iotToken, IMobileRequestListener listener) {
+            MobileChannel.getInstance().bindAccount(iotToken, listener);
+        }
+
+        @Override
+        public void unBindAccount(IMobileRequestListener listener) {
+            MobileChannel.getInstance().unBindAccount(listener);
+        }
+    };
+
+    static final SdkPorts.DiscoveryPort DISCOVERY = new SdkPorts.DiscoveryPort() {
+        @Override
+        public void startDiscovery(Context context, EnumSet<DiscoveryType> types, IDeviceDiscoveryListener listener) {
+            LocalDeviceMgr.getInstance().startDiscovery(context, types, null, listener);
+        }
+
+        @Override
+        public void stopDiscovery() {
+            LocalDeviceMgr.getInstance().stopDiscovery();
+        }
+
+        @Override
+        public void getDeviceToken(Context context, String productKey, String deviceName, final SdkPorts.TokenListener listener) {
+            GetTokenParams getTokenParams = new GetTokenParams();
+            getTokenParams.productKey = productKey;
+            getTokenParams.deviceName = deviceName;
+            LocalDeviceMgr.getInstance().getDeviceToken(context, getTokenParams, new IOnTokenGetListerner() {
+                @Override
+                public void onSuccess(GetTokenResult getTokenResult) {
+                    listener.onSuccess(getTokenResult.token);
+                }
+
+                @Override
+                public void onFail(DCErrorCode dcErrorCode) {
+                    listener.onFail(String.valueOf(dcErrorCode));
+                }
+            });
+        }
+
+        @Override
+        public void stopGetDeviceToken() {
+            LocalDeviceMgr.getInstance().stopGetDeviceToken();
+        }
+    };
+
+    private static IoTAPIClient ioTAPIClient;
+
+    static final SdkPorts.ApiPort API = new SdkPorts.ApiPort() {
+        @Override
+        public void send(String path, String apiVersion, Map<String, Object> params, final SdkPorts.ApiListener listener) {
+            IoTRequest request = new IoTRequestBuilder()
+                    .setPath(path)
+                    .setApiVersion(apiVersion)
+                    .setAuthType("iotAuth")
+                    .setParams(params)
+                    .build();
+            getClient().send(request, new IoTCallback() {
+                @Override
+                public void onFailure(IoTRequest ioTRequest, Exception e) {
+                    listener.onFailure(e);
+                }
+
+                @Override
+                public void onResponse(IoTRequest ioTRequest, IoTResponse ioTResponse) {
+                    listener.onResponse(ioTResponse.getCode(), ioTResponse.getLocalizedMsg(), ioTResponse.getData());
+                }
+            });
+        }
+
+    };
+
+    private AliyunSdkPorts() {
+    }
+
+    /**
+     * 复用同一个 IoTAPIClient
+     */
+    private static synchronized IoTAPIClient getClient() {
+        if (ioTAPIClient == null) {
+            ioTAPIClient = new IoTAPIClientFactory().getClient();
+        }
+        return ioTAPIClient;
+    }
+
+    /**
+     * 提前创建 IoTAPIClient，避免第一次云端请求时创建
+     */
+    static void prepareApi() {
+        getClient();
+    }
+
+    /**
+     * 提前初始化 LocalDeviceMgr，避免第一次发现、获取设备token时初始化
+     */
+    static void prepareDiscovery() {
+        LocalDeviceMgr.getInstance();
+    }
+}
@@ -0,0 +1,100 @@
+package carlwu.top.lib_device_add;
+
+import com.aliyun.iot.aep.sdk.framework.AApplication;
+
+/**
+ * 网关绑定、节点绑定的 {@link BindFuture} 接口
+ * <p>
+ * 每次调用创建新的 BindHelper / NodeHelper，可以同时进行多个流程；取消 BindFuture 时调用 stopBind。
+ * 例如网关绑定成功后再绑定它下面的节点：
+ * <pre>
+ * BindFlows.bindGateway(app, authCode, pk, dn, 60)
+ *         .thenCompose(new BindFuture.Continuation&lt;BoundDevice, BoundDevice&gt;() {
+ *             public BindFuture&lt;BoundDevice&gt; then(BoundDevice gateway) {
+ *                 return BindFlows.bindNode(authCode, gateway.iotId, subProductKey, 60, hook);
+ *             }
+ *         })
+ *         .withTimeout(180 * 1000);
+ * </pre>
+ */
+public class BindFlows {
+
+    /**
+     * 节点绑定前解除设备绑定关系，见 {@link NodeHelper.AsyncBindCallback}
+     */
+    public interface UnbindRelationHook {
+        void unbindRelation(String subIotId, String subProductKey, String subDeviceName, UnbindRelationCallback done);
+    }
+
+    private BindFlows() {
+    }
+
+    /**
+     * 绑定网关，见 {@link GatewayHelper.BindHelper#startBind}
+     */
+    public static BindFuture<BoundDevice> bindGateway(AApplication application, String authCode,
+                                                      String productKey, String deviceName, int time_second) {
+        final BindFuture<BoundDevice> future = new BindFuture<>();
+        final GatewayHelper.BindHelper helper = new GatewayHelper.BindHelper(application, new GatewayHelper.BindCallback() {
+            @Override
+            public void onFailure(Exception e) {
+                future.fail(e);
+            }
+
+            @Override
+            public void onBindSuccess(String iotId, String productKey, String deviceName) {
+                future.complete(new BoundDevice(iotId, productKey, deviceName));
+            }
+        });
+        future.setCanceller(new Runnable() {
+            @Override
+            public void run() {
+                helper.stopBind();
+            }
+        });
+        try {
+            helper.startBind(authCode, productKey, deviceName, time_second);
+        } catch (RuntimeException e) {
+            future.fail(e);
+        }
+        return future;
+    }
+
+    /**
+     * 绑定网关下的节点，见 {@link NodeHelper#startBind}
+     *
+     * @param hook 绑定前解除设备绑定关系
+     */
+    public static BindFuture<BoundDevice> bindNode(String authCode, String gatewayIotId, String subProductKey,
+                                                   int time_second, final UnbindRelationHook hook) {
+        final BindFuture<BoundDevice> future = new BindFuture<>();
+        final NodeHelper helper = new NodeHelper(new NodeHelper.AsyncBindAdapter() {
+            @Override
+            public void unbindRelationAsync(String subIotId, String subProductKey, String subDeviceName, UnbindRelationCallback done) {
+                hook.unbindRelation(subIotId, subProductKey, subDeviceName, done);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.fail(e);
+            }
+
+            @Override
+            public void onSuccess(String subIotId, String subProductKey, String subDeviceName) {
+                future.complete(new BoundDevice(subIotId, subProductKey, subDeviceName));
+            }
+        });
+        future.setCanceller(new Runnable() {
+            @Override
+            public void run() {
+                helper.stopBind();
+            }
+        });
+        try {
+            helper.startBind(authCode, gatewayIotId, subProductKey, time_second);
+        } catch (RuntimeException | InterruptedException e) {
+            future.fail(e);
+        }
+        return future;
+    }
+}
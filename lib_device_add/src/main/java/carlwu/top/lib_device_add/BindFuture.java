@@ -0,0 +1,321 @@
+package carlwu.top.lib_device_add;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 绑定流程的异步结果
+ * <p>
+ * 库的 minSdk 为16，不能使用 CompletableFuture（API 24），这里提供绑定流程需要的部分：
+ * 结果监听、串联（{@link #thenCompose}）、合并（{@link #allOf}）和超时（{@link #withTimeout}），
+ * 取消时结束对应的绑定流程（stopBind）。
+ */
+public class BindFuture<T> implements Future<T> {
+    private static final int PENDING = 0;
+    private static final int SUCCESS = 1;
+    private static final int FAILURE = 2;
+    private static final int CANCELLED = 3;
+
+    public interface Listener<T> {
+        void onSuccess(T value);
+
+        /**
+         * @param e 取消时为 CancellationException，超时为 TimeoutException
+         */
+        void onFailure(Exception e);
+    }
+
+    public interface Continuation<T, R> {
+        /**
+         * 上一步成功后开始下一步
+         */
+        BindFuture<R> then(T value);
+    }
+
+    private final Object lock = new Object();
+    private int state = PENDING;
+    private T value;
+    private Exception exception;
+    private Runnable canceller;
+    private List<Listener<T>> listeners = new ArrayList<>();
+
+    /**
+     * 设置取消时执行的操作，通常是 stopBind
+     */
+    void setCanceller(Runnable canceller) {
+        synchronized (lock) {
+            this.canceller = canceller;
+        }
+    }
+
+    /**
+     * @return false:已经结束
+     */
+    public boolean complete(T value) {
+        List<Listener<T>> listeners;
+        synchronized (lock) {
+            if (state != PENDING) {
+                return false;
+            }
+            state = SUCCESS;
+            this.value = value;
+            listeners = takeListeners();
+        }
+        for (Listener<T> listener : listeners) {
+            listener.onSuccess(value);
+        }
+        return true;
+    }
+
+    /**
+     * @return false:已经结束
+     */
+    public boolean fail(Exception e) {
+        return finishExceptionally(FAILURE, e);
+    }
+
+    /**
+     * 取消并结束绑定流程，mayInterruptIfRunning 无意义（流程不占用线程）
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finishExceptionally(CANCELLED, new CancellationException("绑定已取消"));
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (lock) {
+            return state == CANCELLED;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (lock) {
+            return state != PENDING;
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (lock) {
+            while (state == PENDING) {
+                lock.wait();
+            }
+            return result();
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (state == PENDING) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            return result();
+        }
+    }
+
+    /**
+     * 监听结果，已结束时立即回调；回调所在线程为结束流程的线程
+     */
+    public BindFuture<T> addListener(Listener<T> listener) {
+        int state;
+        synchronized (lock) {
+            state = this.state;
+            if (state == PENDING) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        if (state == SUCCESS) {
+            listener.onSuccess(value);
+        } else {
+            listener.onFailure(exception);
+        }
+        return this;
+    }
+
+    /**
+     * 成功后开始下一步，任意一步失败整体失败；取消返回的结果时同时取消正在进行的那一步
+     */
+    public <R> BindFuture<R> thenCompose(final Continuation<T, R> continuation) {
+        final BindFuture<R> next = new BindFuture<>();
+        final BindFuture<?>[] current = new BindFuture<?>[]{this};
+        next.setCanceller(new Runnable() {
+            @Override
+            public void run() {
+                BindFuture<?> step;
+                synchronized (current) {
+                    step = current[0];
+                }
+                step.cancel(false);
+            }
+        });
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T value) {
+                BindFuture<R> step;
+                try {
+                    step = continuation.then(value);
+                } catch (RuntimeException e) {
+                    next.fail(e);
+                    return;
+                }
+                synchronized (current) {
+                    current[0] = step;
+                }
+                if (next.isCancelled()) {
+                    step.cancel(false);
+                    return;
+                }
+                step.addListener(new Listener<R>() {
+                    @Override
+                    public void onSuccess(R value) {
+                        next.complete(value);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        next.fail(e);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                next.fail(e);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * 超过 timeoutMillis 未结束时以 TimeoutException 失败，并结束绑定流程；先结束时取消超时任务
+     */
+    public BindFuture<T> withTimeout(long timeoutMillis) {
+        final ScheduledFuture<?> timer = BindScheduler.getDefault().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (finishExceptionally(FAILURE, new TimeoutException("绑定超时"))) {
+                    runCanceller();
+                }
+            }
+        }, timeoutMillis);
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T value) {
+                timer.cancel(false);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                timer.cancel(false);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 全部成功时按顺序返回结果；任意一个失败时以第一个失败原因结束，其余流程继续执行。
+     * 取消返回的结果时取消全部流程。
+     */
+    public static <T> BindFuture<List<T>> allOf(final List<BindFuture<T>> futures) {
+        final BindFuture<List<T>> all = new BindFuture<>();
+        all.setCanceller(new Runnable() {
+            @Override
+            public void run() {
+                for (BindFuture<T> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        });
+        if (futures.isEmpty()) {
+            all.complete(Collections.<T>emptyList());
+            return all;
+        }
+        final List<T> values = new ArrayList<>(Collections.<T>nCopies(futures.size(), null));
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+            futures.get(i).addListener(new Listener<T>() {
+                @Override
+                public void onSuccess(T value) {
+                    synchronized (values) {
+                        values.set(index, value);
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        synchronized (values) {
+                            all.complete(new ArrayList<>(values));
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    all.fail(e);
+                }
+            });
+        }
+        return all;
+    }
+
+    private boolean finishExceptionally(int state, Exception e) {
+        List<Listener<T>> listeners;
+        synchronized (lock) {
+            if (this.state != PENDING) {
+                return false;
+            }
+            this.state = state;
+            exception = e;
+            listeners = takeListeners();
+        }
+        if (state == CANCELLED) {
+            runCanceller();
+        }
+        for (Listener<T> listener : listeners) {
+            listener.onFailure(e);
+        }
+        return true;
+    }
+
+    private void runCanceller() {
+        Runnable canceller;
+        synchronized (lock) {
+            canceller = this.canceller;
+        }
+        if (canceller != null) {
+            canceller.run();
+        }
+    }
+
+    private List<Listener<T>> takeListeners() {
+        List<Listener<T>> taken = listeners;
+        listeners = Collections.emptyList();
+        lock.notifyAll();
+        return taken;
+    }
+
+    private T result() throws ExecutionException {
+        if (state == SUCCESS) {
+            return value;
+        }
+        if (state == CANCELLED) {
+            throw (CancellationException) exception;
+        }
+        throw new ExecutionException(exception);
+    }
+}
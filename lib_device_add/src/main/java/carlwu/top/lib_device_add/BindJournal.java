@@ -0,0 +1,228 @@
+package carlwu.top.lib_device_add;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * 绑定进度日志，进程被杀后重新 startBind 时从最后完成的步骤继续
+ * <p>
+ * 每个流程按 {@link #gatewayKey}、{@link #nodeKey} 标识，进入可恢复的阶段时追加一行JSON记录该阶段需要的参数
+ * （网关：设备token；节点：入网上报的子设备），流程结束（成功、失败、取消）时追加一条清除记录。
+ * 文件只追加，打开时按顺序回放得到每个流程的最后状态，无效记录过多时重写压缩。
+ * <p>
+ * 超过 {@link #setMaxAgeMillis(long)} 的记录不再恢复，默认3分钟（设备token的最长时效）。
+ * 写文件在 {@link JsonLinesFile} 的后台线程执行，写入失败只记日志，不影响绑定流程。
+ * <p>
+ * 阶段记录同步到磁盘后 {@link #record} 才返回，调用线程阻塞一次磁盘同步的时间。清除记录和压缩不等待：
+ * 流程结束后进程立即被杀时可能留下已结束流程的记录，重新 startBind 时会按它恢复
+ * （token已被使用时绑定返回6608，重新获取token），或在有效时间后失效。
+ */
+public class BindJournal {
+    private static final String TAG = "BindJournal";
+    private static final String FILE_NAME = "hy_bind_journal";
+    public static final long DEFAULT_MAX_AGE_MILLIS = 3 * 60 * 1000;
+    private static final int COMPACT_THRESHOLD = 64;//无效记录超过该数量时重写文件
+    private static BindJournal instance;
+
+    private final Object lock = new Object();
+    private final JsonLinesFile file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private volatile long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    private int lineCount;
+
+    /**
+     * 进程内共享的日志，保存在应用私有目录
+     */
+    public static synchronized BindJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new BindJournal(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    BindJournal(File file) {
+        this.file = new JsonLinesFile(file);
+        load();
+    }
+
+    /**
+     * 设置记录的有效时间，超过后不再恢复
+     */
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public static String gatewayKey(String productKey, String deviceName) {
+        return "gateway/" + productKey + "/" + deviceName;
+    }
+
+    public static String nodeKey(String gatewayIotId, String subProductKey) {
+        return "node/" + gatewayIotId + "/" + subProductKey;
+    }
+
+    /**
+     * 流程最后一次记录的阶段
+     *
+     * @return 没有记录、已结束或已过期返回null
+     */
+    public Entry find(String key) {
+        synchronized (lock) {
+            Entry entry = entries.get(key);
+            if (entry == null || System.currentTimeMillis() - entry.timeMillis > maxAgeMillis) {
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * 记录流程进入的阶段，写入磁盘后返回
+     *
+     * @param nameValues 恢复该阶段需要的参数，名称和值交替
+     */
+    void record(String key, BindPhase phase, String... nameValues) {
+        if (nameValues.length % 2 != 0) {
+            throw new RuntimeException("nameValues 需要成对出现");
+        }
+        Entry entry = new Entry(key, phase, System.currentTimeMillis());
+        for (int i = 0; i < nameValues.length; i += 2) {
+            entry.values.put(nameValues[i], nameValues[i + 1]);
+        }
+        Future<?> written;
+        synchronized (lock) {
+            entries.remove(key);
+            entries.put(key, entry);
+            written = append(entry.toJson(), true);
+        }
+        //在锁外等待，写线程按提交顺序执行，与之前的清除记录不会乱序
+        JsonLinesFile.await(written);
+        TraceLog.d(TAG, "record: {}", entry);
+    }
+
+    /**
+     * 流程结束，清除记录，可重复调用
+     */
+    void clear(String key) {
+        synchronized (lock) {
+            if (entries.remove(key) == null) {
+                return;
+            }
+            try {
+                append(new JSONObject().put("key", key).put("phase", BindPhase.IDLE.name()), false);
+            } catch (JSONException e) {
+                TraceLog.e(TAG, "clear failed: {}", key, e);
+            }
+        }
+    }
+
+    private void load() {
+        lineCount = file.load(new JsonLinesFile.LineHandler() {
+            @Override
+            public void onLine(JSONObject json) throws JSONException {
+                Entry entry = Entry.parse(json);
+                entries.remove(entry.key);
+                if (entry.phase != BindPhase.IDLE) {
+                    entries.put(entry.key, entry);
+                }
+            }
+        });
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            if (now - iterator.next().timeMillis > maxAgeMillis) {
+                iterator.remove();
+            }
+        }
+        TraceLog.d(TAG, "load: {} lines, {} live", lineCount, entries.size());
+        if (lineCount - entries.size() > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * 调用方持有lock
+     *
+     * @param sync true:同步到磁盘
+     */
+    private Future<?> append(JSONObject json, boolean sync) {
+        if (lineCount - entries.size() > COMPACT_THRESHOLD) {
+            compact();
+        }
+        lineCount++;
+        return file.append(json, sync);
+    }
+
+    /**
+     * 只保留进行中的流程。调用方持有lock
+     */
+    private void compact() {
+        List<JSONObject> jsons = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            jsons.add(entry.toJson());
+        }
+        file.rewrite(jsons, null);
+        lineCount = entries.size();
+    }
+
+    /**
+     * 一个流程最后记录的阶段和参数
+     */
+    public static class Entry {
+        public final String key;
+        public final BindPhase phase;
+        public final long timeMillis;
+        private final Map<String, String> values = new LinkedHashMap<>();
+
+        private Entry(String key, BindPhase phase, long timeMillis) {
+            this.key = key;
+            this.phase = phase;
+            this.timeMillis = timeMillis;
+        }
+
+        /**
+         * 该阶段记录的参数，没有返回null
+         */
+        public String get(String name) {
+            return values.get(name);
+        }
+
+        private JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("key", key).put("phase", phase.name()).put("time", timeMillis);
+                for (Map.Entry<String, String> value : values.entrySet()) {
+                    json.put(value.getKey(), value.getValue());
+                }
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+            return json;
+        }
+
+        private static Entry parse(JSONObject json) throws JSONException {
+            Entry entry = new Entry(json.getString("key"), BindPhase.valueOf(json.getString("phase")), json.optLong("time"));
+            Iterator<String> names = json.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                if (!"key".equals(name) && !"phase".equals(name) && !"time".equals(name)) {
+                    entry.values.put(name, json.getString(name));
+                }
+            }
+            return entry;
+        }
+
+        @Override
+        public String toString() {
+            return key + " " + phase + " " + values.keySet();
+        }
+    }
+}
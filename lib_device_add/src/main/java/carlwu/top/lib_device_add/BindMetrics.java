@@ -0,0 +1,39 @@
+package carlwu.top.lib_device_add;
+
+/**
+ * 绑定流程的耗时统计接口，各阶段耗时使用 SystemClock.elapsedRealtime 计算
+ * <p>
+ * 默认 {@link #NO_OP}，此时不计时；需要统计时设置 {@link BindMetricsRecorder} 或自己的实现。
+ * 回调在流程所在的线程执行，实现中不要做耗时操作。
+ */
+public interface BindMetrics {
+
+    BindMetrics NO_OP = new BindMetrics() {
+        @Override
+        public void onPhase(String flow, BindPhase phase, long durationMillis) {
+        }
+
+        @Override
+        public void onFinish(String flow, BindPhase outcome, int code, int retries, long totalMillis) {
+        }
+    };
+
+    /**
+     * 一个阶段结束
+     *
+     * @param flow           流程名称，例如 NodeHelper
+     * @param phase          结束的阶段
+     * @param durationMillis 该阶段耗时
+     */
+    void onPhase(String flow, BindPhase phase, long durationMillis);
+
+    /**
+     * 流程结束
+     *
+     * @param outcome     DONE、FAILED 或 CANCELLED
+     * @param code        最后一次云端接口的响应码，没有请求过为0，网络失败为 {@link RetryPolicy#CODE_NETWORK_FAILURE}
+     * @param retries     绑定接口的重试次数
+     * @param totalMillis 整个流程耗时
+     */
+    void onFinish(String flow, BindPhase outcome, int code, int retries, long totalMillis);
+}
@@ -0,0 +1,165 @@
+package carlwu.top.lib_device_add;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 进程内的绑定耗时直方图，按 流程/阶段 和 流程/结果 分别统计，可导出为文本
+ */
+public class BindMetricsRecorder implements BindMetrics {
+    /**
+     * 直方图分桶上限（毫秒），最后一个桶为超过60秒
+     */
+    private static final long[] BUCKETS = {50, 100, 250, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+
+    private final Map<String, Histogram> histograms = new TreeMap<>();
+    private final Map<String, Integer> outcomeCodes = new TreeMap<>();
+    private int totalRetries;
+
+    @Override
+    public synchronized void onPhase(String flow, BindPhase phase, long durationMillis) {
+        histogram(flow + "/" + phase).record(durationMillis);
+    }
+
+    @Override
+    public synchronized void onFinish(String flow, BindPhase outcome, int code, int retries, long totalMillis) {
+        histogram(flow + "/" + outcome).record(totalMillis);
+        String key = flow + "/" + outcome + "/" + code;
+        Integer count = outcomeCodes.get(key);
+        outcomeCodes.put(key, count == null ? 1 : count + 1);
+        totalRetries += retries;
+    }
+
+    /**
+     * 直方图快照，key 为 流程/阶段 或 流程/结果
+     */
+    public synchronized Map<String, Histogram> getHistograms() {
+        Map<String, Histogram> snapshot = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().copy());
+        }
+        return snapshot;
+    }
+
+    /**
+     * 结果码计数，key 为 流程/结果/响应码
+     */
+    public synchronized Map<String, Integer> getOutcomeCodes() {
+        return new TreeMap<>(outcomeCodes);
+    }
+
+    public synchronized int getTotalRetries() {
+        return totalRetries;
+    }
+
+    public synchronized void reset() {
+        histograms.clear();
+        outcomeCodes.clear();
+        totalRetries = 0;
+    }
+
+    /**
+     * 导出为文本，每行一个直方图
+     */
+    public synchronized String export() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            builder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Integer> entry : outcomeCodes.entrySet()) {
+            builder.append(entry.getKey()).append(" count=").append(entry.getValue()).append('\n');
+        }
+        builder.append("retries=").append(totalRetries).append('\n');
+        return builder.toString();
+    }
+
+    private Histogram histogram(String key) {
+        Histogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = new Histogram();
+            histograms.put(key, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * 固定分桶的耗时直方图
+     */
+    public static class Histogram {
+        private final int[] counts = new int[BUCKETS.length + 1];
+        private int count;
+        private long totalMillis;
+        private long maxMillis;
+
+        void record(long millis) {
+            int i = 0;
+            while (i < BUCKETS.length && millis > BUCKETS[i]) {
+                i++;
+            }
+            counts[i]++;
+            count++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        Histogram copy() {
+            Histogram copy = new Histogram();
+            System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+            copy.count = count;
+            copy.totalMillis = totalMillis;
+            copy.maxMillis = maxMillis;
+            return copy;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getAverageMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        /**
+         * 分位数的估计值，取所在桶的上限（超过最后一个桶时为最大值）
+         *
+         * @param percentile 0-100
+         */
+        public long getPercentileMillis(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i < BUCKETS.length ? Math.min(BUCKETS[i], maxMillis) : maxMillis;
+                }
+            }
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("count=").append(count)
+                    .append(" avg=").append(getAverageMillis())
+                    .append("ms p50=").append(getPercentileMillis(50))
+                    .append("ms p90=").append(getPercentileMillis(90))
+                    .append("ms p99=").append(getPercentileMillis(99))
+                    .append("ms max=").append(maxMillis).append("ms buckets=[");
+            for (int i = 0; i < counts.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(i < BUCKETS.length ? "<=" + BUCKETS[i] : ">" + BUCKETS[BUCKETS.length - 1])
+                        .append(':').append(counts[i]);
+            }
+            return builder.append(']').toString();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package carlwu.top.lib_device_add;
+
+/**
+ * 绑定流程的阶段
+ */
+public enum BindPhase {
+    /**
+     * 未开始
+     */
+    IDLE(false),
+    /**
+     * 获取设备token（网关绑定）
+     */
+    TOKEN(false),
+    /**
+     * 登录（同一authCode的会话复用时很短）
+     */
+    LOGIN(false),
+    /**
+     * 登录后等待长连接通道就绪
+     */
+    CHANNEL(false),
+    /**
+     * 通知网关允许添加子设备（节点绑定）
+     */
+    PERMIT(false),
+    /**
+     * 等待子设备入网结果（节点绑定）
+     */
+    WAITING(false),
+    /**
+     * 调用绑定接口，含重试
+     */
+    BINDING(false),
+    /**
+     * 绑定成功
+     */
+    DONE(true),
+    /**
+     * 绑定失败
+     */
+    FAILED(true),
+    /**
+     * 调用层 stopBind 结束，不回调
+     */
+    CANCELLED(true);
+
+    private final boolean terminal;
+
+    BindPhase(boolean terminal) {
+        this.terminal = terminal;
+    }
+
+    /**
+     * 是否为结束阶段
+     */
+    public boolean isTerminal() {
+        return terminal;
+    }
+}
@@ -0,0 +1,183 @@
+package carlwu.top.lib_device_add;
+
+import android.os.Build;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 绑定流程共享的定时调度器，替代每个流程各自创建一个 java.util.Timer 线程
+ * <p>
+ * 所有流程共用固定数量的线程；每个流程通过 {@link #newFlow()} 获取自己的 {@link Flow}，
+ * 超时、重试等定时任务都挂在 Flow 上，流程结束时 {@link Flow#cancel()} 一次性取消。
+ * <p>
+ * 取消的任务在 Android 5.0 及以上立即移出队列（setRemoveOnCancelPolicy），以下版本每64次
+ * Flow 取消清理一次队列，避免每次取消都遍历整个队列。
+ */
+public class BindScheduler {
+    private static final String TAG = "BindScheduler";
+    private static final int DEFAULT_THREAD_COUNT = 2;
+    private static final int PURGE_INTERVAL = 64;//Android 5.0 以下每多少次 Flow 取消清理一次队列
+    private static BindScheduler defaultInstance;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final boolean removeOnCancel;
+    private final AtomicInteger cancelCount = new AtomicInteger();
+
+    /**
+     * 默认共享实例，未指定调度器的 Helper 都使用它
+     */
+    public static synchronized BindScheduler getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new BindScheduler(DEFAULT_THREAD_COUNT);
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * @param threadCount 调度线程数量
+     */
+    public BindScheduler(int threadCount) {
+        if (threadCount < 1) {
+            throw new RuntimeException("threadCount 需要 >=1");
+        }
+        executor = new ScheduledThreadPoolExecutor(threadCount, new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "BindScheduler-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        //setRemoveOnCancelPolicy 在 Android 5.0 才加入
+        removeOnCancel = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+        if (removeOnCancel) {
+            executor.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    /**
+     * 创建一个流程的定时任务句柄
+     */
+    public Flow newFlow() {
+        return new Flow();
+    }
+
+    /**
+     * 立即在调度线程执行，不挂在任何流程上
+     */
+    public void execute(Runnable runnable) {
+        executor.execute(new SafeRunnable(runnable));
+    }
+
+    /**
+     * 延时执行，不挂在任何流程上
+     */
+    public ScheduledFuture<?> schedule(Runnable runnable, long delayMillis) {
+        return executor.schedule(new SafeRunnable(runnable), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 关闭调度器，默认共享实例不要关闭
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 已排队（含已取消未清理）的任务数量
+     */
+    public int getQueuedTaskCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 单个流程的定时任务集合
+     */
+    public class Flow {
+        private final Set<ScheduledFuture<?>> futures = new HashSet<>();
+        private boolean cancelled;
+
+        private Flow() {
+        }
+
+        /**
+         * 延时执行，流程已取消时返回null
+         */
+        public synchronized ScheduledFuture<?> schedule(final Runnable runnable, long delayMillis) {
+            if (cancelled) {
+                return null;
+            }
+            final ScheduledFuture<?>[] holder = new ScheduledFuture<?>[1];
+            ScheduledFuture<?> future = executor.schedule(new SafeRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Flow.this) {
+                        if (cancelled) {
+                            return;
+                        }
+                        futures.remove(holder[0]);
+                    }
+                    runnable.run();
+                }
+            }), delayMillis, TimeUnit.MILLISECONDS);
+            holder[0] = future;
+            futures.add(future);
+            return future;
+        }
+
+        /**
+         * 立即在调度线程执行
+         */
+        public ScheduledFuture<?> execute(Runnable runnable) {
+            return schedule(runnable, 0);
+        }
+
+        /**
+         * 取消该流程的所有定时任务，之后的 schedule 调用不再生效
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                for (ScheduledFuture<?> future : futures) {
+                    future.cancel(false);
+                }
+                futures.clear();
+            }
+            if (!removeOnCancel && cancelCount.incrementAndGet() % PURGE_INTERVAL == 0) {
+                executor.purge();
+            }
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static class SafeRunnable implements Runnable {
+        private final Runnable runnable;
+
+        SafeRunnable(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runnable.run();
+            } catch (Throwable t) {
+                TraceLog.e(TAG, "task error", t);
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package carlwu.top.lib_device_add;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 绑定流程的阶段状态，所有切换都是 compareAndSet，不加锁
+ * <p>
+ * 进入结束阶段（DONE、FAILED、CANCELLED）只有一个调用方能成功，
+ * 由它负责唯一一次结果回调；结束后只能通过 {@link #start} 开始新的流程。
+ * 每次 start 生成新的会话号（{@link #session()}），异步回调注册时记下会话号，
+ * 通过带会话号的 isActive、moveTo、finish 判断，上一次流程迟到的回调不会影响新的流程。
+ * 设置了 {@link BindMetrics} 时在阶段切换时计时并上报。
+ */
+class BindStateMachine {
+    private final String tag;
+    private final AtomicReference<State> state = new AtomicReference<>(new State(BindPhase.IDLE, 0));
+    private volatile BindMetrics metrics = BindMetrics.NO_OP;
+    private volatile RetryPolicy.Tracker retryTracker;
+    private volatile int resultCode;
+    private volatile long flowStartMillis;
+    private volatile long phaseStartMillis;
+
+    BindStateMachine(String tag) {
+        this.tag = tag;
+    }
+
+    void setMetrics(BindMetrics metrics) {
+        this.metrics = metrics == null ? BindMetrics.NO_OP : metrics;
+    }
+
+    /**
+     * 本次流程的重试记录，流程结束时上报重试次数
+     */
+    void setRetryTracker(RetryPolicy.Tracker retryTracker) {
+        this.retryTracker = retryTracker;
+    }
+
+    /**
+     * 记录最近一次云端接口的响应码，流程结束时上报
+     */
+    void setResultCode(int resultCode) {
+        this.resultCode = resultCode;
+    }
+
+    /**
+     * 开始流程，会话号加一
+     *
+     * @return false:流程进行中
+     */
+    boolean start(BindPhase first) {
+        while (true) {
+            State current = state.get();
+            if (current.isActive()) {
+                return false;
+            }
+            if (state.compareAndSet(current, new State(first, current.session + 1))) {
+                TraceLog.d(tag, "phase: {} -> {}", current.phase, first);
+                retryTracker = null;
+                resultCode = 0;
+                if (metrics != BindMetrics.NO_OP) {
+                    flowStartMillis = phaseStartMillis = SdkPorts.clock().elapsedRealtime();
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 当前流程的会话号，异步回调注册时记下
+     */
+    int session() {
+        return state.get().session;
+    }
+
+    /**
+     * 当前流程切换到下一个进行中的阶段
+     *
+     * @return false:流程未开始或已结束
+     */
+    boolean moveTo(BindPhase next) {
+        return moveTo(session(), next);
+    }
+
+    /**
+     * 切换到下一个进行中的阶段，不检查当前阶段；已在 next 阶段时返回true（重试时再次进入同一阶段）
+     *
+     * @param session 回调注册时的会话号
+     * @return false:流程未开始、已结束或已不是该会话
+     */
+    boolean moveTo(int session, BindPhase next) {
+        while (true) {
+            State current = state.get();
+            if (current.session != session || !current.isActive()) {
+                return false;
+            }
+            if (current.phase == next || state.compareAndSet(current, new State(next, session))) {
+                if (current.phase != next) {
+                    TraceLog.d(tag, "phase: {} -> {}", current.phase, next);
+                    endPhase(current.phase);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 只从 expected 阶段切换到 next，用于到达顺序不确定的回调（例如入网响应与子设备上报）
+     *
+     * @param session 回调注册时的会话号
+     * @return false:流程未开始、已结束、已不是该会话，或当前不在 expected 阶段（包括已在 next 阶段）
+     */
+    boolean moveTo(int session, BindPhase expected, BindPhase next) {
+        while (true) {
+            State current = state.get();
+            if (current.session != session || current.phase != expected || current.phase == next || !current.isActive()) {
+                return false;
+            }
+            if (state.compareAndSet(current, new State(next, session))) {
+                TraceLog.d(tag, "phase: {} -> {}", current.phase, next);
+                endPhase(current.phase);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 结束当前流程，见 {@link #finish(int, BindPhase)}
+     */
+    boolean finish(BindPhase terminal) {
+        return finish(session(), terminal);
+    }
+
+    /**
+     * 结束流程
+     *
+     * @param session  回调注册时的会话号
+     * @param terminal DONE、FAILED 或 CANCELLED
+     * @return true:本次调用结束了流程，需要回调结果；false:流程未开始、已被其他调用方结束或已不是该会话
+     */
+    boolean finish(int session, BindPhase terminal) {
+        if (!terminal.isTerminal()) {
+            throw new RuntimeException(terminal + " 不是结束阶段");
+        }
+        while (true) {
+            State current = state.get();
+            if (current.session != session || !current.isActive()) {
+                return false;
+            }
+            if (state.compareAndSet(current, new State(terminal, session))) {
+                TraceLog.d(tag, "phase: {} -> {}", current.phase, terminal);
+                long now = endPhase(current.phase);
+                BindMetrics metrics = this.metrics;
+                if (metrics != BindMetrics.NO_OP) {
+                    RetryPolicy.Tracker retryTracker = this.retryTracker;
+                    metrics.onFinish(tag, terminal, resultCode, retryTracker == null ? 0 : retryTracker.getRetries(),
+                            now - flowStartMillis);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 流程是否进行中
+     */
+    boolean isActive() {
+        return state.get().isActive();
+    }
+
+    /**
+     * 该会话的流程是否进行中
+     */
+    boolean isActive(int session) {
+        State current = state.get();
+        return current.session == session && current.isActive();
+    }
+
+    BindPhase get() {
+        return state.get().phase;
+    }
+
+    private long endPhase(BindPhase ended) {
+        BindMetrics metrics = this.metrics;
+        if (metrics == BindMetrics.NO_OP) {
+            return 0;
+        }
+        long now = SdkPorts.clock().elapsedRealtime();
+        long duration = now - phaseStartMillis;
+        phaseStartMillis = now;
+        metrics.onPhase(tag, ended, duration);
+        return now;
+    }
+
+    /**
+     * 阶段和会话号一起切换
+     */
+    private static class State {
+        final BindPhase phase;
+        final int session;
+
+        State(BindPhase phase, int session) {
+            this.phase = phase;
+            this.session = session;
+        }
+
+        boolean isActive() {
+            return phase != BindPhase.IDLE && !phase.isTerminal();
+        }
+    }
+}
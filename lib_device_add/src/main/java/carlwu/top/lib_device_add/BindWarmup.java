@@ -0,0 +1,177 @@
+package carlwu.top.lib_device_add;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 绑定前预热，把SDK初始化和登录移出绑定的关键路径，进程内单例
+ * <p>
+ * 在 AApplication 启动或进入配网页面时调用 {@link #prepare}：
+ * 提前创建绑定线程、IoTAPIClient、LocalDeviceMgr，登录 authCode 对应的账号并等待长连接通道绑定。
+ * 之后 startBind 时 {@link LoginSessionManager} 复用已有会话、{@link ChannelReadyGate} 直接就绪，已预热的阶段不再等待；
+ * 预热还未完成时 startBind 会合并到同一次登录，不会重复登录。
+ */
+public class BindWarmup {
+    private static final String TAG = "BindWarmup";
+    private static final BindWarmup INSTANCE = new BindWarmup();
+
+    public interface WarmupCallback {
+        void onWarmupFinish(Result result);
+    }
+
+    /**
+     * 一次预热的结果
+     */
+    public static class Result {
+        public final boolean clientsReady;//绑定线程、IoTAPIClient、LocalDeviceMgr已创建
+        public final boolean loginReady;//账号已登录，未传authCode时为false
+        public final boolean channelReady;//长连接通道已绑定账号，等待超时为false
+        public final long clientsMillis;
+        public final long loginMillis;
+        public final long channelMillis;
+        public final Exception exception;//初始化或登录失败的原因
+
+        private Result(Task task) {
+            this.clientsReady = task.clientsReady;
+            this.loginReady = task.loginReady;
+            this.channelReady = task.channelReady;
+            this.clientsMillis = task.clientsMillis;
+            this.loginMillis = task.loginMillis;
+            this.channelMillis = task.channelMillis;
+            this.exception = task.exception;
+        }
+
+        /**
+         * 所有阶段都已就绪
+         */
+        public boolean isReady() {
+            return clientsReady && loginReady && channelReady;
+        }
+
+        @Override
+        public String toString() {
+            return "clients=" + clientsReady + "(" + clientsMillis + "ms)"
+                    + " login=" + loginReady + "(" + loginMillis + "ms)"
+                    + " channel=" + channelReady + "(" + channelMillis + "ms)";
+        }
+    }
+
+    private volatile boolean clientsReady;
+
+    public static BindWarmup getInstance() {
+        return INSTANCE;
+    }
+
+    private BindWarmup() {
+    }
+
+    /**
+     * 开始预热，在后台执行，可以重复调用
+     *
+     * @param authCode 为空时只初始化SDK对象，不登录
+     * @param callback 可以为null
+     */
+    public void prepare(final String authCode, WarmupCallback callback) {
+        final Task task = new Task(callback, authCode == null ? 1 : 2);
+        BindScheduler.getDefault().execute(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = SdkPorts.clock().elapsedRealtime();
+                try {
+                    SdkPorts.prepare();
+                    IoTRequestExecutor.getInstance();
+                    clientsReady = true;
+                    task.clientsReady = true;
+                } catch (RuntimeException e) {
+                    TraceLog.e(TAG, "prepare clients failed", e);
+                    task.exception = e;
+                }
+                task.clientsMillis = SdkPorts.clock().elapsedRealtime() - startTime;
+                task.stageFinished();
+            }
+        });
+        if (authCode != null) {
+            login(authCode, task);
+        }
+    }
+
+    /**
+     * authCode 对应的账号是否已预热完成，startBind 不再需要登录和等待通道
+     */
+    public boolean isReady(String authCode) {
+        return clientsReady
+                && LoginSessionManager.getInstance().isSessionValid(authCode)
+                && ChannelReadyGate.getInstance().isReady();
+    }
+
+    private void login(String authCode, final Task task) {
+        final long startTime = SdkPorts.clock().elapsedRealtime();
+        //预热不占用会话：ensureLogin 返回且登录阶段结束后释放，之后其他账号的流程可以登录
+        final LoginSessionManager.Lease[] lease = new LoginSessionManager.Lease[1];
+        final AtomicInteger releaseCount = new AtomicInteger(2);
+        final Runnable releaseLease = new Runnable() {
+            @Override
+            public void run() {
+                if (releaseCount.decrementAndGet() == 0) {
+                    lease[0].release();
+                }
+            }
+        };
+        lease[0] = LoginSessionManager.getInstance().ensureLogin(authCode, new LoginSessionManager.SessionCallback() {
+            @Override
+            public void onSessionReady(boolean reused) {
+                task.loginReady = true;
+                task.loginMillis = SdkPorts.clock().elapsedRealtime() - startTime;
+                ChannelReadyGate.getInstance().await(new ChannelReadyGate.ReadyCallback() {
+                    @Override
+                    public void onChannelReady(long waitedMillis, boolean timeout) {
+                        task.channelReady = !timeout;
+                        task.channelMillis = waitedMillis;
+                        releaseLease.run();
+                        task.stageFinished();
+                    }
+                });
+            }
+
+            @Override
+            public void onSessionFailed(Exception e) {
+                TraceLog.e(TAG, "prepare login failed: {}", e.getMessage());
+                task.loginMillis = SdkPorts.clock().elapsedRealtime() - startTime;
+                task.exception = e;
+                releaseLease.run();
+                task.stageFinished();
+            }
+        });
+        releaseLease.run();
+    }
+
+    /**
+     * 一次 prepare 调用，SDK对象和登录并行，都结束后回调
+     */
+    private static class Task {
+        private final WarmupCallback callback;
+        private final AtomicInteger remaining;
+        private volatile boolean clientsReady;
+        private volatile boolean loginReady;
+        private volatile boolean channelReady;
+        private volatile long clientsMillis;
+        private volatile long loginMillis;
+        private volatile long channelMillis;
+        private volatile Exception exception;
+
+        Task(WarmupCallback callback, int stages) {
+            this.callback = callback;
+            this.remaining = new AtomicInteger(stages);
+        }
+
+        void stageFinished() {
+            if (remaining.decrementAndGet() != 0) {
+                return;
+            }
+            Result result = new Result(this);
+            TraceLog.i(TAG, "prepare finish: {}", result);
+            if (callback != null) {
+                callback.onWarmupFinish(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package carlwu.top.lib_device_add;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import carlwu.top.lib_device_add.exceptions.AlreadyBoundException;
+
+/**
+ * 账号已绑定设备的本地记录，进程内单例
+ * <p>
+ * 记录 (账号, productKey, deviceName) → iotId，账号以 authCode 标识。绑定成功时写入，
+ * 绑定流程开始前查到已绑定到同一账号的设备直接按成功处理，不再发送绑定请求；
+ * 云端返回2064（已被绑定）时通过 {@link #lookup} 分页查询 /uc/listBindingByAccount，
+ * 查询结果同时刷新本地记录，设备在当前账号下则按成功处理，否则才是被别的账号绑定。
+ * 记录超过 {@link #setTtlMillis(long)} 后不再使用，调用层解绑设备后需要 {@link #remove}。
+ */
+public class BindingRegistry {
+    private static final String TAG = "BindingRegistry";
+    private static final String LIST_PATH = "/uc/listBindingByAccount";
+    public static final long DEFAULT_TTL_MILLIS = 30 * 60 * 1000;
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES = 20;
+    private static final BindingRegistry INSTANCE = new BindingRegistry();
+
+    public interface LookupCallback {
+        /**
+         * 查询完成
+         *
+         * @param iotId 设备在该账号下的iotId，不在该账号下为null
+         */
+        void onLookupFinish(String iotId);
+
+        /**
+         * 查询失败，无法确定设备是否在该账号下
+         *
+         * @param e 分页请求的错误，或绑定关系超过查询的分页上限
+         */
+        void onLookupFailed(Exception e);
+    }
+
+    /**
+     * 2064 的处理结果，见 {@link #resolveAlreadyBound}
+     */
+    interface AlreadyBoundCallback {
+        /**
+         * 设备已绑定在当前账号下，按成功处理
+         */
+        void onBoundToAccount(String iotId);
+
+        /**
+         * @param e 被别的账号绑定；查询失败时 getCause() 为查询的错误
+         */
+        void onAlreadyBound(AlreadyBoundException e);
+    }
+
+    private final Object lock = new Object();
+    private final Map<String, Binding> bindings = new HashMap<>();
+    private final Map<String, Lookup> lookups = new HashMap<>();//账号 → 进行中的查询
+    private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+    private int skipCount;
+    private int resolvedCount;
+
+    public static BindingRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private BindingRegistry() {
+    }
+
+    /**
+     * 设置记录的有效时间，超过后需要重新查询
+     */
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * 设备在该账号下的iotId
+     *
+     * @return 没有记录或已过期返回null
+     */
+    public String find(String account, String productKey, String deviceName) {
+        synchronized (lock) {
+            Binding binding = bindings.get(key(account, productKey, deviceName));
+            if (binding == null || SdkPorts.clock().elapsedRealtime() - binding.timeMillis > ttlMillis) {
+                return null;
+            }
+            return binding.iotId;
+        }
+    }
+
+    /**
+     * 记录设备已绑定到该账号
+     */
+    public void put(String account, String productKey, String deviceName, String iotId) {
+        if (account == null || productKey == null || deviceName == null || iotId == null) {
+            return;
+        }
+        synchronized (lock) {
+            bindings.put(key(account, productKey, deviceName), new Binding(iotId, SdkPorts.clock().elapsedRealtime()));
+        }
+    }
+
+    /**
+     * 设备已从该账号解绑
+     */
+    public void remove(String account, String productKey, String deviceName) {
+        synchronized (lock) {
+            bindings.remove(key(account, productKey, deviceName));
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            bindings.clear();
+        }
+    }
+
+    /**
+     * 因已绑定而跳过绑定请求的次数
+     */
+    public int getSkipCount() {
+        synchronized (lock) {
+            return skipCount;
+        }
+    }
+
+    /**
+     * 2064 查询后确认在当前账号下的次数
+     */
+    public int getResolvedCount() {
+        synchronized (lock) {
+            return resolvedCount;
+        }
+    }
+
+    /**
+     * 绑定流程开始前查找，有记录时计入跳过次数
+     */
+    String findForSkip(String account, String productKey, String deviceName) {
+        String iotId = find(account, productKey, deviceName);
+        if (iotId != null) {
+            synchronized (lock) {
+                skipCount++;
+            }
+            TraceLog.d(TAG, "skip bound device: {}/{} {}", productKey, deviceName, iotId);
+        }
+        return iotId;
+    }
+
+    /**
+     * 绑定请求返回2064时，查询设备是否已绑定在当前账号下，各绑定流程共用
+     *
+     * @param registry 为null时不查询，直接按被别的账号绑定处理
+     */
+    static void resolveAlreadyBound(BindingRegistry registry, String account, final String productKey, final String deviceName,
+                                    final String localizedMsg, final AlreadyBoundCallback callback) {
+        if (registry == null) {
+            callback.onAlreadyBound(new AlreadyBoundException(localizedMsg, productKey, deviceName));
+            return;
+        }
+        registry.lookup(account, productKey, deviceName, new LookupCallback() {
+            @Override
+            public void onLookupFinish(String iotId) {
+                if (iotId != null) {
+                    callback.onBoundToAccount(iotId);
+                } else {
+                    callback.onAlreadyBound(new AlreadyBoundException(localizedMsg, productKey, deviceName));
+                }
+            }
+
+            @Override
+            public void onLookupFailed(Exception e) {
+                callback.onAlreadyBound(new AlreadyBoundException(localizedMsg + "（查询当前账号的绑定关系失败）",
+                        productKey, deviceName, e));
+            }
+        });
+    }
+
+    /**
+     * 查询设备是否绑定在当前登录的账号下，需要在登录后调用
+     * <p>
+     * 同一账号同一时刻只有一次分页查询，期间的其他查询等待同一结果，以本次查询写入的记录为准
+     * （包括加入等待前已查过的分页）；找到所有等待的设备或查完所有分页后回调
+     */
+    public void lookup(String account, String productKey, String deviceName, LookupCallback callback) {
+        Lookup lookup;
+        boolean start = false;
+        synchronized (lock) {
+            lookup = lookups.get(account);
+            if (lookup == null) {
+                lookup = new Lookup(account);
+                lookups.put(account, lookup);
+                start = true;
+            }
+            lookup.waiters.add(new Waiter(productKey, deviceName, callback));
+        }
+        if (start) {
+            TraceLog.d(TAG, "lookup start: {}/{}", productKey, deviceName);
+            requestPage(lookup, 1);
+        }
+    }
+
+    private void requestPage(final Lookup lookup, final int pageNo) {
+        IoTRequestExecutor.Request request = IoTRequestExecutor.getInstance()
+                .newRequest(LIST_PATH, "1.0.8")
+                .addParam("pageNo", pageNo)
+                .addParam("pageSize", PAGE_SIZE);
+        IoTRequestExecutor.getInstance().execute(request, new IoTRequestExecutor.ResultCallback() {
+            @Override
+            public void onResult(IoTResult result) {
+                if (!result.isSuccess()) {
+                    TraceLog.d(TAG, "lookup page {} failed: {}", pageNo, result);
+                    Exception error = result.getException() != null ? result.getException()
+                            : new Exception("查询绑定关系失败,code=" + result.getCode() + " data:" + result.getData());
+                    finishLookup(lookup, error);
+                    return;
+                }
+                int count = onPage(lookup, result.getData());
+                if (count < PAGE_SIZE || allFound(lookup)) {
+                    finishLookup(lookup, null);
+                } else if (pageNo >= MAX_PAGES) {
+                    finishLookup(lookup, new Exception("绑定关系超过 " + MAX_PAGES * PAGE_SIZE + " 个，未查完"));
+                } else {
+                    requestPage(lookup, pageNo + 1);
+                }
+            }
+        });
+    }
+
+    /**
+     * 一页查询结果写入记录
+     *
+     * @return 该页的设备数量
+     */
+    private int onPage(Lookup lookup, Object data) {
+        JSONArray list = data instanceof JSONObject ? ((JSONObject) data).optJSONArray("data") : null;
+        if (list == null) {
+            return 0;
+        }
+        long now = SdkPorts.clock().elapsedRealtime();
+        synchronized (lock) {
+            for (int i = 0; i < list.length(); i++) {
+                JSONObject device = list.optJSONObject(i);
+                if (device == null) {
+                    continue;
+                }
+                String productKey = device.optString("productKey", null);
+                String deviceName = device.optString("deviceName", null);
+                String iotId = device.optString("iotId", null);
+                if (productKey != null && deviceName != null && iotId != null) {
+                    String key = key(lookup.account, productKey, deviceName);
+                    bindings.put(key, new Binding(iotId, now));
+                    lookup.scanned.add(key);
+                }
+            }
+        }
+        return list.length();
+    }
+
+    private boolean allFound(Lookup lookup) {
+        synchronized (lock) {
+            for (Waiter waiter : lookup.waiters) {
+                if (!lookup.scanned.contains(key(lookup.account, waiter.productKey, waiter.deviceName))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param error 为null表示已查完，本次查询没有写入记录的设备不在该账号下
+     */
+    private void finishLookup(Lookup lookup, Exception error) {
+        List<Waiter> waiters;
+        List<String> iotIds = new ArrayList<>();
+        synchronized (lock) {
+            lookups.remove(lookup.account);
+            waiters = new ArrayList<>(lookup.waiters);
+            for (Waiter waiter : waiters) {
+                String key = key(lookup.account, waiter.productKey, waiter.deviceName);
+                Binding binding = lookup.scanned.contains(key) ? bindings.get(key) : null;
+                if (binding != null) {
+                    resolvedCount++;
+                } else if (error == null) {
+                    bindings.remove(key);//之前的记录已失效
+                }
+                iotIds.add(binding == null ? null : binding.iotId);
+            }
+        }
+        for (int i = 0; i < waiters.size(); i++) {
+            Waiter waiter = waiters.get(i);
+            String iotId = iotIds.get(i);
+            TraceLog.d(TAG, "lookup finish: {}/{} {}", waiter.productKey, waiter.deviceName, iotId);
+            if (iotId == null && error != null) {
+                waiter.callback.onLookupFailed(error);
+            } else {
+                waiter.callback.onLookupFinish(iotId);
+            }
+        }
+    }
+
+    private static String key(String account, String productKey, String deviceName) {
+        return account + "/" + productKey + "/" + deviceName;
+    }
+
+    private static class Binding {
+        final String iotId;
+        final long timeMillis;
+
+        Binding(String iotId, long timeMillis) {
+            this.iotId = iotId;
+            this.timeMillis = timeMillis;
+        }
+    }
+
+    private static class Lookup {
+        final String account;
+        final List<Waiter> waiters = new ArrayList<>();
+        final Set<String> scanned = new HashSet<>();//本次查询写入的记录
+
+        Lookup(String account) {
+            this.account = account;
+        }
+    }
+
+    private static class Waiter {
+        final String productKey;
+        final String deviceName;
+        final LookupCallback callback;
+
+        Waiter(String productKey, String deviceName, LookupCallback callback) {
+            this.productKey = productKey;
+            this.deviceName = deviceName;
+            this.callback = callback;
+        }
+    }
+}
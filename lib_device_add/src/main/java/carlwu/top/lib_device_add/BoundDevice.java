@@ -0,0 +1,21 @@
+package carlwu.top.lib_device_add;
+
+/**
+ * 绑定成功的设备
+ */
+public class BoundDevice {
+    public final String iotId;
+    public final String productKey;
+    public final String deviceName;
+
+    public BoundDevice(String iotId, String productKey, String deviceName) {
+        this.iotId = iotId;
+        this.productKey = productKey;
+        this.deviceName = deviceName;
+    }
+
+    @Override
+    public String toString() {
+        return productKey + "/" + deviceName + "(" + iotId + ")";
+    }
+}
@@ -0,0 +1,220 @@
+package carlwu.top.lib_device_add;
+
+import com.aliyun.alink.linksdk.channel.core.base.AError;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileConnectListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileRequestListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.MobileConnectState;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 登录后的长连接通道就绪判断，替代登录成功后固定等待2秒
+ * <p>
+ * 长连接通道回调 CONNECTED 后绑定账号（bindAccount），绑定成功即认为就绪，立即进入下一阶段；
+ * 超过 {@link #setMaxWaitMillis(long)} 仍未就绪时按超时处理，继续后续流程，与原来的固定等待行为一致。
+ * <p>
+ * 记住最近一次绑定成功的iotToken，通道仍连接且iotToken未变时（例如已经 {@link BindWarmup 预热}）直接就绪，不重复绑定。
+ */
+public class ChannelReadyGate {
+    private static final String TAG = "ChannelReadyGate";
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 5000;
+    private static final ChannelReadyGate INSTANCE = new ChannelReadyGate();
+
+    public interface ReadyCallback {
+        /**
+         * @param waitedMillis 实际等待时长
+         * @param timeout      true:等待超时，通道未确认就绪
+         */
+        void onChannelReady(long waitedMillis, boolean timeout);
+    }
+
+    private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private volatile long lastWaitMillis = -1;
+    private volatile String boundIoTToken;//最近一次绑定成功的iotToken
+    private int readyCount;
+    private int timeoutCount;
+    private long totalWaitMillis;
+
+    public static ChannelReadyGate getInstance() {
+        return INSTANCE;
+    }
+
+    private ChannelReadyGate() {
+    }
+
+    /**
+     * 设置最长等待时间，超时后不再等待通道就绪
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        if (maxWaitMillis < 0) {
+            throw new RuntimeException("maxWaitMillis 需要 >=0");
+        }
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * 最近一次等待的实际时长，未等待过返回-1
+     */
+    public long getLastWaitMillis() {
+        return lastWaitMillis;
+    }
+
+    public synchronized int getReadyCount() {
+        return readyCount;
+    }
+
+    public synchronized int getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * 平均等待时长
+     */
+    public synchronized long getAverageWaitMillis() {
+        int count = readyCount + timeoutCount;
+        return count == 0 ? 0 : totalWaitMillis / count;
+    }
+
+    /**
+     * 通道已连接并且已绑定当前账号
+     */
+    public boolean isReady() {
+        String iotToken = boundIoTToken;
+        return iotToken != null
+                && iotToken.equals(SdkPorts.login().getIoTToken())
+                && SdkPorts.channel().getMobileConnectState() == MobileConnectState.CONNECTED;
+    }
+
+    /**
+     * 通道已解绑账号，下一次等待需要重新绑定
+     */
+    void invalidate() {
+        boundIoTToken = null;
+    }
+
+    /**
+     * 等待长连接通道就绪
+     *
+     * @return 等待句柄，流程结束时调用 {@link Waiter#cancel()}
+     */
+    public Waiter await(ReadyCallback callback) {
+        Waiter waiter = new Waiter(callback);
+        waiter.start();
+        return waiter;
+    }
+
+    private synchronized void record(long waitedMillis, boolean timeout) {
+        lastWaitMillis = waitedMillis;
+        totalWaitMillis += waitedMillis;
+        if (timeout) {
+            timeoutCount++;
+        } else {
+            readyCount++;
+        }
+    }
+
+    public class Waiter implements IMobileConnectListener {
+        private final ReadyCallback callback;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicBoolean binding = new AtomicBoolean();
+        private long startTime;
+        private volatile ScheduledFuture<?> timeoutFuture;
+
+        private Waiter(ReadyCallback callback) {
+            this.callback = callback;
+        }
+
+        private void start() {
+            startTime = SdkPorts.clock().elapsedRealtime();
+            if (isReady()) {
+                finish(false);
+                return;
+            }
+            //先注册监听再安排超时，超时（maxWaitMillis 为0时立即执行）反注册时监听已经注册
+            SdkPorts.channel().registerConnectListener(this);
+            ScheduledFuture<?> future = BindScheduler.getDefault().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    finish(true);
+                }
+            }, maxWaitMillis);
+            timeoutFuture = future;
+            if (done.get()) {
+                //赋值前已经结束，release 时还没有超时任务
+                future.cancel(false);
+                return;
+            }
+            if (SdkPorts.channel().getMobileConnectState() == MobileConnectState.CONNECTED) {
+                bindAccount();
+            }
+        }
+
+        @Override
+        public void onConnectStateChange(MobileConnectState mobileConnectState) {
+            TraceLog.d(TAG, "onConnectStateChange: {}", mobileConnectState);
+            if (mobileConnectState == MobileConnectState.CONNECTED) {
+                bindAccount();
+            }
+        }
+
+        private void bindAccount() {
+            if (done.get() || !binding.compareAndSet(false, true)) {
+                return;
+            }
+            final String iotToken = SdkPorts.login().getIoTToken();
+            if (StringUtils.isEmpty(iotToken)) {
+                //没有iotToken时只能以通道连接作为就绪条件
+                finish(false);
+                return;
+            }
+            SdkPorts.channel().bindAccount(iotToken, new IMobileRequestListener() {
+                @Override
+                public void onSuccess(String s) {
+                    TraceLog.d(TAG, "bindAccount onSuccess: {}", s);
+                    boundIoTToken = iotToken;
+                    finish(false);
+                }
+
+                @Override
+                public void onFailure(AError aError) {
+                    TraceLog.d(TAG, "bindAccount onFailure: {}", aError);
+                    //等待下一次连接成功后重新绑定，或者等待超时
+                    binding.set(false);
+                }
+            });
+        }
+
+        private void finish(boolean timeout) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            release();
+            long waitedMillis = SdkPorts.clock().elapsedRealtime() - startTime;
+            record(waitedMillis, timeout);
+            TraceLog.d(TAG, "channel ready: waited={}ms timeout={}", waitedMillis, timeout);
+            callback.onChannelReady(waitedMillis, timeout);
+        }
+
+        /**
+         * 取消等待，不再回调
+         */
+        public void cancel() {
+            if (done.compareAndSet(false, true)) {
+                release();
+            }
+        }
+
+        private void release() {
+            ScheduledFuture<?> future = timeoutFuture;
+            if (future != null) {
+                future.cancel(false);
+            }
+            SdkPorts.channel().unRegisterConnectListener(this);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package carlwu.top.lib_device_add;
+
+import android.content.Context;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 设备token代理，进程内单例
+ * <p>
+ * LocalDeviceMgr.getDeviceToken（经 {@link SdkPorts#discovery()}）同一时刻只能获取一个设备的token，stopGetDeviceToken 会停止全局的获取，
+ * 因此所有token请求都经过这里排队，依次获取，一个设备的请求不会取消另一个设备的请求。
+ * 发现阶段可以 {@link #prefetch} 提前获取，绑定时直接命中缓存。
+ * token只能使用一次且最长有效3分钟（见绑定错误6608），缓存在取出使用或过期时移除。
+ */
+public class DeviceTokenBroker {
+    private static final String TAG = "DeviceTokenBroker";
+    public static final long DEFAULT_TOKEN_TTL_MILLIS = 3 * 60 * 1000;
+    public static final long DEFAULT_FETCH_TIMEOUT_MILLIS = 60 * 1000;
+    private static final DeviceTokenBroker INSTANCE = new DeviceTokenBroker();
+
+    public interface TokenCallback {
+        void onToken(String token);
+
+        void onFail(Exception e);
+    }
+
+    private final Object lock = new Object();
+    private final Map<String, CachedToken> cache = new HashMap<>();
+    private final ArrayDeque<FetchRequest> waitedQueue = new ArrayDeque<>();//有调用方等待的请求
+    private final ArrayDeque<FetchRequest> prefetchQueue = new ArrayDeque<>();//预取请求，优先级低于等待中的请求
+    private FetchRequest fetching;
+    private ScheduledFuture<?> fetchTimeout;
+    private Context context;
+    private long tokenTtlMillis = DEFAULT_TOKEN_TTL_MILLIS;
+    private long fetchTimeoutMillis = DEFAULT_FETCH_TIMEOUT_MILLIS;
+    private int hitCount;
+    private int missCount;
+    private int expiredCount;
+
+    public static DeviceTokenBroker getInstance() {
+        return INSTANCE;
+    }
+
+    private DeviceTokenBroker() {
+    }
+
+    /**
+     * 设置token缓存有效期，默认3分钟
+     */
+    public void setTokenTtlMillis(long tokenTtlMillis) {
+        synchronized (lock) {
+            this.tokenTtlMillis = tokenTtlMillis;
+        }
+    }
+
+    /**
+     * 设置单个设备获取token的超时时间，超时后停止获取并处理下一个设备
+     */
+    public void setFetchTimeoutMillis(long fetchTimeoutMillis) {
+        synchronized (lock) {
+            this.fetchTimeoutMillis = fetchTimeoutMillis;
+        }
+    }
+
+    /**
+     * 预取token，已缓存或已在排队的设备忽略
+     */
+    public void prefetch(Context context, String productKey, String deviceName) {
+        String key = key(productKey, deviceName);
+        synchronized (lock) {
+            this.context = context.getApplicationContext();
+            evictExpired();
+            if (cache.containsKey(key) || findRequest(key) != null) {
+                return;
+            }
+            TraceLog.d(TAG, "prefetch: {}", key);
+            prefetchQueue.add(new FetchRequest(key, productKey, deviceName));
+        }
+        startNext();
+    }
+
+    /**
+     * 获取token，缓存命中时立即回调，并从缓存中移除（token只能使用一次）
+     */
+    public void getToken(Context context, String productKey, String deviceName, TokenCallback callback) {
+        String key = key(productKey, deviceName);
+        String token = null;
+        synchronized (lock) {
+            this.context = context.getApplicationContext();
+            evictExpired();
+            CachedToken cached = cache.remove(key);
+            if (cached != null) {
+                hitCount++;
+                token = cached.token;
+            } else {
+                missCount++;
+                FetchRequest request = findRequest(key);
+                if (request == null) {
+                    request = new FetchRequest(key, productKey, deviceName);
+                    waitedQueue.add(request);
+                } else if (prefetchQueue.remove(request)) {
+                    //预取请求有调用方等待了，提升优先级
+                    waitedQueue.add(request);
+                }
+                request.waiters.add(callback);
+            }
+        }
+        if (token != null) {
+            TraceLog.d(TAG, "getToken hit: {}", key);
+            callback.onToken(token);
+        } else {
+            TraceLog.d(TAG, "getToken miss: {}", key);
+            startNext();
+        }
+    }
+
+    /**
+     * 取消等待，不影响其他设备的token获取
+     */
+    public void cancel(TokenCallback callback) {
+        synchronized (lock) {
+            if (fetching != null) {
+                fetching.waiters.remove(callback);
+            }
+            for (Iterator<FetchRequest> iterator = waitedQueue.iterator(); iterator.hasNext(); ) {
+                FetchRequest request = iterator.next();
+                if (request.waiters.remove(callback) && request.waiters.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 移除设备的缓存token，例如绑定返回6608
+     */
+    public void invalidate(String productKey, String deviceName) {
+        synchronized (lock) {
+            cache.remove(key(productKey, deviceName));
+        }
+    }
+
+    /**
+     * 清空缓存和排队中的预取请求
+     */
+    public void clear() {
+        synchronized (lock) {
+            cache.clear();
+            prefetchQueue.clear();
+        }
+    }
+
+    public int getHitCount() {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    public int getExpiredCount() {
+        synchronized (lock) {
+            return expiredCount;
+        }
+    }
+
+    public int getCachedCount() {
+        synchronized (lock) {
+            evictExpired();
+            return cache.size();
+        }
+    }
+
+    private void startNext() {
+        final FetchRequest request;
+        final Context context;
+        synchronized (lock) {
+            if (fetching != null) {
+                return;
+            }
+            request = waitedQueue.isEmpty() ? prefetchQueue.poll() : waitedQueue.poll();
+            if (request == null) {
+                return;
+            }
+            fetching = request;
+            context = this.context;
+            fetchTimeout = BindScheduler.getDefault().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onFetchTimeout(request);
+                }
+            }, fetchTimeoutMillis);
+        }
+        SdkPorts.discovery().getDeviceToken(context, request.productKey, request.deviceName, new SdkPorts.TokenListener() {
+            @Override
+            public void onSuccess(String token) {
+                TraceLog.d(TAG, "getDeviceToken onSuccess: {}", request.key);
+                onFetched(request, token, null);
+            }
+
+            @Override
+            public void onFail(String reason) {
+                TraceLog.d(TAG, "getDeviceToken onFail: {} {}", request.key, reason);
+                onFetched(request, null, new Exception("获取token失败：" + reason));
+            }
+        });
+    }
+
+    private void onFetched(FetchRequest request, String token, Exception e) {
+        TokenCallback receiver = null;
+        List<TokenCallback> failed = new ArrayList<>();
+        synchronized (lock) {
+            if (fetching != request) {
+                return;
+            }
+            fetching = null;
+            fetchTimeout.cancel(false);
+            if (e != null) {
+                failed.addAll(request.waiters);
+            } else if (request.waiters.isEmpty()) {
+                cache.put(request.key, new CachedToken(token, SdkPorts.clock().elapsedRealtime()));
+            } else {
+                //token只能使用一次，其余等待方重新排队获取
+                receiver = request.waiters.remove(0);
+                if (!request.waiters.isEmpty()) {
+                    waitedQueue.add(request);
+                }
+            }
+        }
+        if (receiver != null) {
+            receiver.onToken(token);
+        }
+        for (TokenCallback callback : failed) {
+            callback.onFail(e);
+        }
+        startNext();
+    }
+
+    private void onFetchTimeout(FetchRequest request) {
+        List<TokenCallback> failed;
+        synchronized (lock) {
+            if (fetching != request) {
+                return;
+            }
+            fetching = null;
+            failed = new ArrayList<>(request.waiters);
+        }
+        TraceLog.d(TAG, "getDeviceToken timeout: {}", request.key);
+        SdkPorts.discovery().stopGetDeviceToken();
+        for (TokenCallback callback : failed) {
+            callback.onFail(new Exception("获取token超时"));
+        }
+        startNext();
+    }
+
+    private FetchRequest findRequest(String key) {
+        if (fetching != null && fetching.key.equals(key)) {
+            return fetching;
+        }
+        for (FetchRequest request : waitedQueue) {
+            if (request.key.equals(key)) {
+                return request;
+            }
+        }
+        for (FetchRequest request : prefetchQueue) {
+            if (request.key.equals(key)) {
+                return request;
+            }
+        }
+        return null;
+    }
+
+    private void evictExpired() {
+        long now = SdkPorts.clock().elapsedRealtime();
+        for (Iterator<CachedToken> iterator = cache.values().iterator(); iterator.hasNext(); ) {
+            if (now - iterator.next().fetchTime >= tokenTtlMillis) {
+                iterator.remove();
+                expiredCount++;
+            }
+        }
+    }
+
+    private static String key(String productKey, String deviceName) {
+        return productKey + "/" + deviceName;
+    }
+
+    private static class CachedToken {
+        final String token;
+        final long fetchTime;
+
+        CachedToken(String token, long fetchTime) {
+            this.token = token;
+            this.fetchTime = fetchTime;
+        }
+    }
+
+    private static class FetchRequest {
+        final String key;
+        final String productKey;
+        final String deviceName;
+        final List<TokenCallback> waiters = new ArrayList<>();
+
+        FetchRequest(String key, String productKey, String deviceName) {
+            this.key = key;
+            this.productKey = productKey;
+            this.deviceName = deviceName;
+        }
+    }
+}
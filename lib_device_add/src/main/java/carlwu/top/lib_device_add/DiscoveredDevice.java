@@ -0,0 +1,77 @@
+package carlwu.top.lib_device_add;
+
+/**
+ * 发现的设备，由 (productKey, deviceName, 发现类型) 唯一确定
+ */
+public class DiscoveredDevice {
+    private final String productKey;
+    private final String deviceName;
+    private final int type;
+    private final long firstSeenMillis;
+    private volatile long lastSeenMillis;
+    private volatile boolean stale;
+    long lastDeltaMillis;//最近一次作为 added/updated 回调的时间，由 DiscoveryIndex 维护
+
+    DiscoveredDevice(String productKey, String deviceName, int type, long now) {
+        this.productKey = productKey;
+        this.deviceName = deviceName;
+        this.type = type;
+        this.firstSeenMillis = now;
+        this.lastSeenMillis = now;
+        this.lastDeltaMillis = now;
+    }
+
+    public String getProductKey() {
+        return productKey;
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    /**
+     * 发现类型，即 DiscoveryType.getType()
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * 首次发现时间（SystemClock.elapsedRealtime）
+     */
+    public long getFirstSeenMillis() {
+        return firstSeenMillis;
+    }
+
+    /**
+     * 最近一次被上报的时间（SystemClock.elapsedRealtime）
+     */
+    public long getLastSeenMillis() {
+        return lastSeenMillis;
+    }
+
+    /**
+     * true:来自 {@link DiscoveryCache}，本次发现还没有再上报。再次上报后作为 updated 回调并变为false，
+     * 一直没有上报则在有效期后作为 expired 回调
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    void setStale(boolean stale) {
+        this.stale = stale;
+    }
+
+    void setLastSeenMillis(long lastSeenMillis) {
+        this.lastSeenMillis = lastSeenMillis;
+    }
+
+    boolean isSame(String productKey, String deviceName, int type) {
+        return this.type == type && this.deviceName.equals(deviceName) && this.productKey.equals(productKey);
+    }
+
+    @Override
+    public String toString() {
+        return productKey + "/" + deviceName + "@" + type + (stale ? "(stale)" : "");
+    }
+}
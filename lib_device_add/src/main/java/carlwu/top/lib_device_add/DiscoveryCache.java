@@ -0,0 +1,231 @@
+package carlwu.top.lib_device_add;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 最近发现过的设备，重新打开发现页面时先展示，不必等待各种发现方式重新上报
+ * <p>
+ * 按 productKey/deviceName 记录最近一次的发现类型和时间，超过 ttlMillis 未再发现的不再使用，
+ * 超过 maxEntries 时淘汰最久没有发现的设备。可以保存到文件，进程重启后继续使用。
+ * 通过 {@link GatewayHelper.DiscoverHelper#setDiscoveryCache} 使用，线程安全。
+ */
+public class DiscoveryCache {
+    private static final String TAG = "DiscoveryCache";
+    private static final String FILE_NAME = "hy_discovery_cache";
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+    private static DiscoveryCache instance;
+
+    private final Object lock = new Object();
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final JsonLinesFile file;
+    private final LinkedHashMap<String, Entry> entries;//按发现顺序，最久没有发现的在前
+    private boolean dirty;//有未保存的变化
+
+    /**
+     * 进程内共享的缓存，保存在应用私有目录
+     */
+    public static synchronized DiscoveryCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new DiscoveryCache(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS,
+                    new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    /**
+     * @param maxEntries 最多记录的设备数量
+     * @param ttlMillis  超过该时间没有再发现的设备不再使用
+     * @param file       保存的文件，为null时只在内存中
+     */
+    public DiscoveryCache(int maxEntries, long ttlMillis, File file) {
+        if (maxEntries <= 0) {
+            throw new RuntimeException("maxEntries 需要 >0");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.file = file == null ? null : new JsonLinesFile(file);
+        this.entries = new LinkedHashMap<String, DiscoveryCache.Entry>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DiscoveryCache.Entry> eldest) {
+                return size() > DiscoveryCache.this.maxEntries;
+            }
+        };
+        if (file != null) {
+            load();
+        }
+    }
+
+    /**
+     * 记录一次发现
+     *
+     * @param type 发现类型，即 DiscoveryType.getType()
+     */
+    public void put(int type, String productKey, String deviceName) {
+        if (productKey == null || deviceName == null) {
+            return;
+        }
+        Entry entry = new Entry(productKey, deviceName, type, System.currentTimeMillis());
+        synchronized (lock) {
+            entries.remove(entry.getKey());
+            entries.put(entry.getKey(), entry);
+            dirty = true;
+        }
+    }
+
+    /**
+     * 实时发现确认设备已不在附近，移除记录
+     *
+     * @param unseenMillis 只有超过该时间没有发现时才移除，期间以其他发现类型上报过的设备保留
+     */
+    public void remove(String productKey, String deviceName, long unseenMillis) {
+        String key = productKey + "/" + deviceName;
+        synchronized (lock) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.lastSeenMillis >= unseenMillis) {
+                entries.remove(key);
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * 有效期内的设备，最近发现的在前
+     */
+    public List<Entry> snapshot() {
+        synchronized (lock) {
+            return liveEntries();
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+    /**
+     * 有变化时写入文件，先写临时文件再替换。只复制当前记录，写文件在 {@link JsonLinesFile} 的后台线程执行
+     */
+    public void save() {
+        if (file == null) {
+            return;
+        }
+        List<JSONObject> jsons;
+        synchronized (lock) {
+            if (!dirty) {
+                return;
+            }
+            List<Entry> snapshot = liveEntries();
+            dirty = false;
+            //文件中最久没有发现的在前，读取时按顺序放入
+            jsons = new ArrayList<>(snapshot.size());
+            for (int i = snapshot.size() - 1; i >= 0; i--) {
+                jsons.add(snapshot.get(i).toJson());
+            }
+        }
+        TraceLog.d(TAG, "save: {} entries", jsons.size());
+        file.rewrite(jsons, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    dirty = true;
+                }
+            }
+        });
+    }
+
+    /**
+     * 移除过期的设备，返回其余设备，最近发现的在前。调用方持有lock
+     */
+    private List<Entry> liveEntries() {
+        long now = System.currentTimeMillis();
+        List<Entry> live = new ArrayList<>(entries.size());
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (now - entry.lastSeenMillis > ttlMillis) {
+                iterator.remove();
+                dirty = true;
+            } else {
+                live.add(entry);
+            }
+        }
+        Collections.reverse(live);
+        return live;
+    }
+
+    private void load() {
+        final long now = System.currentTimeMillis();
+        file.load(new JsonLinesFile.LineHandler() {
+            @Override
+            public void onLine(JSONObject json) throws JSONException {
+                Entry entry = Entry.parse(json);
+                if (now - entry.lastSeenMillis <= ttlMillis) {
+                    entries.put(entry.getKey(), entry);
+                }
+            }
+        });
+        TraceLog.d(TAG, "load: {} entries", entries.size());
+    }
+
+    /**
+     * 一个最近发现过的设备
+     */
+    public static class Entry {
+        public final String productKey;
+        public final String deviceName;
+        public final int type;//最近一次的发现类型
+        public final long lastSeenMillis;//最近一次发现的时间（System.currentTimeMillis）
+
+        private Entry(String productKey, String deviceName, int type, long lastSeenMillis) {
+            this.productKey = productKey;
+            this.deviceName = deviceName;
+            this.type = type;
+            this.lastSeenMillis = lastSeenMillis;
+        }
+
+        private String getKey() {
+            return productKey + "/" + deviceName;
+        }
+
+        private JSONObject toJson() {
+            try {
+                return new JSONObject()
+                        .put("productKey", productKey)
+                        .put("deviceName", deviceName)
+                        .put("type", type)
+                        .put("time", lastSeenMillis);
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static Entry parse(JSONObject json) throws JSONException {
+            return new Entry(json.getString("productKey"), json.getString("deviceName"), json.getInt("type"), json.getLong("time"));
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "@" + type;
+        }
+    }
+}
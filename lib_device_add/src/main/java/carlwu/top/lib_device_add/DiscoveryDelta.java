@@ -0,0 +1,51 @@
+package carlwu.top.lib_device_add;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一批发现结果的增量变化
+ * <p>
+ * 调用层按 expired → added → updated 的顺序应用到自己的列表即可，不需要整体刷新。
+ */
+public class DiscoveryDelta {
+    private final List<DiscoveredDevice> added;
+    private final List<DiscoveredDevice> updated;
+    private final List<DiscoveredDevice> expired;
+
+    DiscoveryDelta(List<DiscoveredDevice> added, List<DiscoveredDevice> updated, List<DiscoveredDevice> expired) {
+        this.added = Collections.unmodifiableList(added);
+        this.updated = Collections.unmodifiableList(updated);
+        this.expired = Collections.unmodifiableList(expired);
+    }
+
+    /**
+     * 新发现的设备
+     */
+    public List<DiscoveredDevice> getAdded() {
+        return added;
+    }
+
+    /**
+     * 仍然在线的设备，lastSeen 已刷新
+     */
+    public List<DiscoveredDevice> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * 超过有效期没有再被上报的设备
+     */
+    public List<DiscoveredDevice> getExpired() {
+        return expired;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && updated.isEmpty() && expired.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "DiscoveryDelta{added=" + added.size() + ", updated=" + updated.size() + ", expired=" + expired.size() + "}";
+    }
+}
@@ -0,0 +1,101 @@
+package carlwu.top.lib_device_add;
+
+import com.aliyun.alink.business.devicecenter.api.discovery.DiscoveryType;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 定向发现的条件
+ * <p>
+ * 只开启需要的发现类型，只回调符合 productKey / deviceName 的设备；
+ * 指定的 deviceName 全部发现后（未指定 deviceName 时为指定的 productKey 全部发现后）即认为目标已满足，自动停止发现。
+ * 都未指定时运行到截止时间为止。
+ */
+public class DiscoveryFilter {
+    public static final long DEFAULT_DEADLINE_MILLIS = 30 * 1000;
+
+    private final Set<String> productKeys = new HashSet<>();
+    private final Set<String> deviceNames = new HashSet<>();
+    private final EnumSet<DiscoveryType> types = EnumSet.noneOf(DiscoveryType.class);
+    private long deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+
+    public DiscoveryFilter productKeys(Collection<String> productKeys) {
+        this.productKeys.addAll(productKeys);
+        return this;
+    }
+
+    public DiscoveryFilter productKey(String productKey) {
+        productKeys.add(productKey);
+        return this;
+    }
+
+    public DiscoveryFilter deviceNames(Collection<String> deviceNames) {
+        this.deviceNames.addAll(deviceNames);
+        return this;
+    }
+
+    public DiscoveryFilter deviceName(String deviceName) {
+        deviceNames.add(deviceName);
+        return this;
+    }
+
+    /**
+     * 开启的发现类型，不设置时开启全部四种
+     */
+    public DiscoveryFilter types(DiscoveryType first, DiscoveryType... rest) {
+        types.add(first);
+        Collections.addAll(types, rest);
+        return this;
+    }
+
+    /**
+     * 截止时间，从开始发现计时，到期后未满足也停止发现
+     */
+    public DiscoveryFilter deadlineMillis(long deadlineMillis) {
+        if (deadlineMillis <= 0) {
+            throw new RuntimeException("deadlineMillis 需要 >0");
+        }
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    public EnumSet<DiscoveryType> getTypes() {
+        if (types.isEmpty()) {
+            return EnumSet.of(DiscoveryType.LOCAL_ONLINE_DEVICE, DiscoveryType.CLOUD_ENROLLEE_DEVICE, DiscoveryType.SOFT_AP_DEVICE, DiscoveryType.BEACON_DEVICE);
+        }
+        return EnumSet.copyOf(types);
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    boolean matches(String productKey, String deviceName) {
+        return (productKeys.isEmpty() || productKeys.contains(productKey))
+                && (deviceNames.isEmpty() || deviceNames.contains(deviceName));
+    }
+
+    /**
+     * @param matchedProductKeys  已发现的符合条件的productKey
+     * @param matchedDeviceNames  已发现的符合条件的deviceName
+     */
+    boolean isSatisfied(Set<String> matchedProductKeys, Set<String> matchedDeviceNames) {
+        if (!deviceNames.isEmpty()) {
+            return matchedDeviceNames.containsAll(deviceNames);
+        }
+        if (!productKeys.isEmpty()) {
+            return matchedProductKeys.containsAll(productKeys);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "DiscoveryFilter{productKeys=" + productKeys + ", deviceNames=" + deviceNames
+                + ", types=" + getTypes() + ", deadline=" + deadlineMillis + "ms}";
+    }
+}
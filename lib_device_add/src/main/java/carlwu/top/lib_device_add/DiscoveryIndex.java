@@ -0,0 +1,227 @@
+package carlwu.top.lib_device_add;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 发现结果索引，按 (发现类型, productKey, deviceName) 去重，只产生增量
+ * <p>
+ * SDK 会反复上报相同的设备，重复上报只刷新 lastSeen，不产生回调；
+ * 同一设备距上次回调超过 refreshMillis 后再被上报才产生一次 updated；
+ * 超过 expireMillis 没有被上报的设备产生 expired。
+ * 通过 {@link #offerCached} 加入的缓存设备标记为 stale，被实时上报确认后立即产生 updated，
+ * 以另一种发现类型被上报时缓存的记录产生 expired。
+ * 增量先累积，调用 {@link #drain()} 时一次性取出。非线程安全，由调用方加锁。
+ */
+public class DiscoveryIndex {
+    public static final long DEFAULT_EXPIRE_MILLIS = 30 * 1000;
+    public static final long DEFAULT_REFRESH_MILLIS = 10 * 1000;
+
+    //type -> productKey -> deviceName -> device，重复上报时查找不需要拼接key
+    private final Map<Integer, Map<String, Map<String, DiscoveredDevice>>> devices = new HashMap<>();
+    private final long expireMillis;
+    private final long refreshMillis;
+    private int size;
+
+    private List<DiscoveredDevice> pendingAdded = new ArrayList<>();
+    private List<DiscoveredDevice> pendingUpdated = new ArrayList<>();
+    private List<DiscoveredDevice> pendingExpired = new ArrayList<>();
+
+    public DiscoveryIndex() {
+        this(DEFAULT_EXPIRE_MILLIS, DEFAULT_REFRESH_MILLIS);
+    }
+
+    /**
+     * @param expireMillis  超过该时间没有被上报则认为设备已消失
+     * @param refreshMillis 同一设备两次 updated 的最小间隔
+     */
+    public DiscoveryIndex(long expireMillis, long refreshMillis) {
+        this.expireMillis = expireMillis;
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * 记录一次上报
+     *
+     * @return true:产生了新的增量
+     */
+    public boolean offer(int type, String productKey, String deviceName, long now) {
+        if (productKey == null || deviceName == null) {
+            return false;
+        }
+        Map<String, DiscoveredDevice> byDeviceName = byDeviceName(type, productKey);
+        DiscoveredDevice device = byDeviceName.get(deviceName);
+        if (device != null) {
+            device.setLastSeenMillis(now);
+            if (device.isStale()) {
+                device.setStale(false);
+            } else if (now - device.lastDeltaMillis < refreshMillis) {
+                return false;
+            }
+            device.lastDeltaMillis = now;
+            if (!pendingAdded.contains(device) && !pendingUpdated.contains(device)) {
+                pendingUpdated.add(device);
+            }
+            return true;
+        }
+        device = takePendingExpired(productKey, deviceName, type);
+        if (device != null) {
+            //过期还没有回调出去又被上报，调用方看来设备一直都在
+            device.setLastSeenMillis(now);
+            byDeviceName.put(deviceName, device);
+            size++;
+            if (!device.isStale()) {
+                return false;
+            }
+            device.setStale(false);
+            device.lastDeltaMillis = now;
+            pendingUpdated.add(device);
+            return true;
+        }
+        device = new DiscoveredDevice(productKey, deviceName, type, now);
+        byDeviceName.put(deviceName, device);
+        size++;
+        pendingAdded.add(device);
+        removeStale(productKey, deviceName);
+        return true;
+    }
+
+    /**
+     * 加入缓存中的设备，标记为 stale，已存在时忽略
+     *
+     * @return true:产生了新的增量
+     */
+    public boolean offerCached(int type, String productKey, String deviceName, long now) {
+        if (productKey == null || deviceName == null) {
+            return false;
+        }
+        Map<String, DiscoveredDevice> byDeviceName = byDeviceName(type, productKey);
+        if (byDeviceName.containsKey(deviceName)) {
+            return false;
+        }
+        DiscoveredDevice device = new DiscoveredDevice(productKey, deviceName, type, now);
+        device.setStale(true);
+        byDeviceName.put(deviceName, device);
+        size++;
+        pendingAdded.add(device);
+        return true;
+    }
+
+    /**
+     * 移除超过有效期的设备
+     *
+     * @return true:产生了新的增量
+     */
+    public boolean expire(long now) {
+        boolean changed = false;
+        for (Map<String, Map<String, DiscoveredDevice>> byProductKey : devices.values()) {
+            for (Iterator<Map<String, DiscoveredDevice>> pkIterator = byProductKey.values().iterator(); pkIterator.hasNext(); ) {
+                Map<String, DiscoveredDevice> byDeviceName = pkIterator.next();
+                for (Iterator<DiscoveredDevice> iterator = byDeviceName.values().iterator(); iterator.hasNext(); ) {
+                    DiscoveredDevice device = iterator.next();
+                    if (now - device.getLastSeenMillis() < expireMillis) {
+                        continue;
+                    }
+                    iterator.remove();
+                    size--;
+                    changed = true;
+                    if (!pendingAdded.remove(device)) {
+                        pendingUpdated.remove(device);
+                        pendingExpired.add(device);
+                    }
+                }
+                if (byDeviceName.isEmpty()) {
+                    pkIterator.remove();
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 取出累积的增量
+     *
+     * @return 没有增量时返回null
+     */
+    public DiscoveryDelta drain() {
+        if (pendingAdded.isEmpty() && pendingUpdated.isEmpty() && pendingExpired.isEmpty()) {
+            return null;
+        }
+        DiscoveryDelta delta = new DiscoveryDelta(pendingAdded, pendingUpdated, pendingExpired);
+        pendingAdded = new ArrayList<>();
+        pendingUpdated = new ArrayList<>();
+        pendingExpired = new ArrayList<>();
+        return delta;
+    }
+
+    /**
+     * 当前所有设备
+     */
+    public List<DiscoveredDevice> snapshot() {
+        List<DiscoveredDevice> snapshot = new ArrayList<>(size);
+        for (Map<String, Map<String, DiscoveredDevice>> byProductKey : devices.values()) {
+            for (Map<String, DiscoveredDevice> byDeviceName : byProductKey.values()) {
+                snapshot.addAll(byDeviceName.values());
+            }
+        }
+        return snapshot;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        devices.clear();
+        size = 0;
+        pendingAdded.clear();
+        pendingUpdated.clear();
+        pendingExpired.clear();
+    }
+
+    /**
+     * 缓存的设备以另一种发现类型被上报，移除缓存的记录
+     */
+    private void removeStale(String productKey, String deviceName) {
+        for (Map<String, Map<String, DiscoveredDevice>> byProductKey : devices.values()) {
+            Map<String, DiscoveredDevice> byDeviceName = byProductKey.get(productKey);
+            DiscoveredDevice device = byDeviceName == null ? null : byDeviceName.get(deviceName);
+            if (device == null || !device.isStale()) {
+                continue;
+            }
+            byDeviceName.remove(deviceName);
+            size--;
+            if (!pendingAdded.remove(device)) {
+                pendingExpired.add(device);
+            }
+        }
+    }
+
+    private Map<String, DiscoveredDevice> byDeviceName(int type, String productKey) {
+        Map<String, Map<String, DiscoveredDevice>> byProductKey = devices.get(type);
+        if (byProductKey == null) {
+            byProductKey = new HashMap<>();
+            devices.put(type, byProductKey);
+        }
+        Map<String, DiscoveredDevice> byDeviceName = byProductKey.get(productKey);
+        if (byDeviceName == null) {
+            byDeviceName = new HashMap<>();
+            byProductKey.put(productKey, byDeviceName);
+        }
+        return byDeviceName;
+    }
+
+    private DiscoveredDevice takePendingExpired(String productKey, String deviceName, int type) {
+        for (int i = 0; i < pendingExpired.size(); i++) {
+            DiscoveredDevice device = pendingExpired.get(i);
+            if (device.isSame(productKey, deviceName, type)) {
+                pendingExpired.remove(i);
+                return device;
+            }
+        }
+        return null;
+    }
+}
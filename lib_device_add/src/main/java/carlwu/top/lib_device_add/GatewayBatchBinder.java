@@ -0,0 +1,492 @@
+package carlwu.top.lib_device_add;
+
+import android.app.Application;
+
+import com.aliyun.iot.aep.sdk.framework.AApplication;
+
+import org.json.JSONException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import carlwu.top.lib_device_add.exceptions.AlreadyBoundException;
+
+/**
+ * 多网关并发绑定
+ * <p>
+ * 所有网关共用一次登录，之后每个网关各自走 获取token → /awss/token/user/bind，
+ * 同时进行中的网关数量不超过 maxConcurrency。token 通过 {@link DeviceTokenBroker} 排队获取（发现阶段预取过的直接命中缓存），
+ * 绑定请求并发执行。每个网关的结果单独回调，全部结束后回调汇总和吞吐量。
+ * <p>
+ * 每次 startBind 生成新的会话号，网关任务记下所属会话，stopBind 后上一次的 token、绑定结果和重试不再影响新的批次。
+ */
+public class GatewayBatchBinder {
+    private static final String TAG = "GatewayBatchBinder";
+
+    public static class Target {
+        public final String productKey;
+        public final String deviceName;
+
+        /**
+         * @param productKey 鸿雁体系的productKey
+         * @param deviceName 鸿雁体系的deviceName
+         */
+        public Target(String productKey, String deviceName) {
+            this.productKey = productKey;
+            this.deviceName = deviceName;
+        }
+
+        @Override
+        public String toString() {
+            return productKey + "/" + deviceName;
+        }
+    }
+
+    public static class BatchResult {
+        public final int total;
+        public final int successCount;
+        public final int failureCount;
+        public final long elapsedMillis;
+
+        BatchResult(int total, int successCount, int failureCount, long elapsedMillis) {
+            this.total = total;
+            this.successCount = successCount;
+            this.failureCount = failureCount;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * 吞吐量：每秒完成的网关数量（含失败）
+         */
+        public double getThroughputPerSecond() {
+            if (elapsedMillis <= 0) {
+                return 0;
+            }
+            return (successCount + failureCount) * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "BatchResult{total=" + total + ", success=" + successCount + ", failure=" + failureCount
+                    + ", elapsed=" + elapsedMillis + "ms, throughput=" + getThroughputPerSecond() + "/s}";
+        }
+    }
+
+    public interface BatchCallback {
+        void onTargetSuccess(String iotId, String productKey, String deviceName);
+
+        /**
+         * @param e AlreadyBoundException 设备已被绑定
+         */
+        void onTargetFailure(String productKey, String deviceName, Exception e);
+
+        /**
+         * 整批失败（登录失败），流程已结束
+         */
+        void onFailure(Exception e);
+
+        void onFinish(BatchResult result);
+    }
+
+    private final Object lock = new Object();
+    private final int maxConcurrency;
+    private final BindScheduler scheduler;
+    private Application application;
+    private RetryPolicy retryPolicy = RetryPolicy.forTokenBind();
+    private BindingRegistry bindingRegistry;
+    private String authCode;
+    private BatchCallback callback;
+    private final BindStateMachine state = new BindStateMachine(TAG);
+    private BindScheduler.Flow runFlow;//以下三项由 lock 保护，批次结束时取消或释放
+    private ChannelReadyGate.Waiter readyWaiter;
+    private LoginSessionManager.Lease sessionLease;
+
+    private int time_second;
+    private int total;
+    private long startTime;
+    private final ArrayDeque<TargetTask> waitingTargets = new ArrayDeque<>();
+    private final List<TargetTask> runningTargets = new ArrayList<>();
+    private int runningCount;
+    private int successCount;
+    private int failureCount;
+
+    public GatewayBatchBinder(AApplication application, BatchCallback callback, int maxConcurrency) {
+        this(application, callback, maxConcurrency, BindScheduler.getDefault());
+    }
+
+    /**
+     * @param maxConcurrency 同时进行绑定的网关数量上限
+     * @param scheduler      定时任务调度器
+     */
+    public GatewayBatchBinder(AApplication application, BatchCallback callback, int maxConcurrency, BindScheduler scheduler) {
+        if (maxConcurrency < 1) {
+            throw new RuntimeException("maxConcurrency 需要 >=1");
+        }
+        this.application = application;
+        this.callback = callback;
+        this.maxConcurrency = maxConcurrency;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 设置绑定请求的重试策略，默认 {@link RetryPolicy#forTokenBind()}，每个网关单独计数
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * 设置已绑定设备的记录，已绑定到同一账号的网关不再获取token和绑定，返回2064时查询是否绑定在当前账号下。默认不使用
+     */
+    public void setBindingRegistry(BindingRegistry bindingRegistry) {
+        this.bindingRegistry = bindingRegistry;
+    }
+
+    /**
+     * 开始批量绑定
+     *
+     * @param authCode    授权码
+     * @param targets     待绑定的网关
+     * @param time_second 单个网关取得token后到绑定完成的超时时间；排队等待token的时间不计入，
+     *                    由 {@link DeviceTokenBroker#setFetchTimeoutMillis(long)} 限制每次获取
+     */
+    public void startBind(String authCode, Collection<Target> targets, int time_second) {
+        if (targets == null || targets.isEmpty()) {
+            throw new RuntimeException("targets 不能为空");
+        }
+        TraceLog.d(TAG, "startBind: {}", targets.size());
+        final int session;
+        synchronized (lock) {
+            //开始会话与重置本批次的数据在同一个锁内，持有锁时 isActive(session) 为true则这些数据属于该会话
+            if (!state.start(BindPhase.LOGIN)) {
+                throw new RuntimeException("流程进行中，不可重复startBind。");
+            }
+            session = state.session();
+            this.authCode = authCode;
+            this.time_second = time_second;
+            total = targets.size();
+            startTime = SdkPorts.clock().elapsedRealtime();
+            waitingTargets.clear();
+            runningTargets.clear();
+            runningCount = 0;
+            successCount = 0;
+            failureCount = 0;
+            runFlow = scheduler.newFlow();
+            for (Target target : targets) {
+                waitingTargets.add(new TargetTask(target, session, runFlow));
+            }
+        }
+        LoginSessionManager.Lease lease = LoginSessionManager.getInstance().ensureLogin(authCode, new LoginSessionManager.SessionCallback() {
+            @Override
+            public void onSessionReady(boolean reused) {
+                TraceLog.d(TAG, "authCodeLogin onSessionReady: reused={}", reused);
+                if (reused) {
+                    startBinding(session);
+                    return;
+                }
+                if (!state.moveTo(session, BindPhase.CHANNEL)) {
+                    return;
+                }
+                ChannelReadyGate.Waiter waiter = ChannelReadyGate.getInstance().await(new ChannelReadyGate.ReadyCallback() {
+                    @Override
+                    public void onChannelReady(long waitedMillis, boolean timeout) {
+                        startBinding(session);
+                    }
+                });
+                synchronized (lock) {
+                    if (state.isActive(session)) {
+                        readyWaiter = waiter;
+                        waiter = null;
+                    }
+                }
+                if (waiter != null) {
+                    waiter.cancel();//等待期间批次已结束
+                }
+            }
+
+            @Override
+            public void onSessionFailed(Exception e) {
+                TraceLog.e(TAG, "authCodeLogin onSessionFailed: {}", e.getMessage());
+                handleFailure(session, e);
+            }
+        });
+        synchronized (lock) {
+            if (state.isActive(session)) {
+                sessionLease = lease;
+                lease = null;
+            }
+        }
+        if (lease != null) {
+            lease.release();//登录期间批次已结束
+        }
+    }
+
+    /**
+     * 结束批量绑定，未完成的网关不再回调
+     */
+    public void stopBind() {
+        if (finishRun(state.session(), BindPhase.CANCELLED)) {
+            TraceLog.d(TAG, "stopBind");
+        }
+    }
+
+    /**
+     * 结束该会话的批次：未完成的网关标记结束不再回调，取消定时任务和通道等待，释放登录会话
+     *
+     * @return false:该会话已结束
+     */
+    private boolean finishRun(int session, BindPhase terminal) {
+        List<TargetTask> unfinished;
+        BindScheduler.Flow flow;
+        ChannelReadyGate.Waiter waiter;
+        LoginSessionManager.Lease lease;
+        synchronized (lock) {
+            if (!state.finish(session, terminal)) {
+                return false;
+            }
+            callback = null;
+            unfinished = new ArrayList<>(runningTargets);
+            unfinished.addAll(waitingTargets);
+            runningTargets.clear();
+            waitingTargets.clear();
+            flow = runFlow;
+            waiter = readyWaiter;
+            lease = sessionLease;
+            readyWaiter = null;
+            sessionLease = null;
+        }
+        for (TargetTask task : unfinished) {
+            task.done.set(true);
+            DeviceTokenBroker.getInstance().cancel(task.tokenCallback);
+        }
+        if (flow != null) {
+            flow.cancel();
+        }
+        if (waiter != null) {
+            waiter.cancel();
+        }
+        if (lease != null) {
+            lease.release();//其他账号的流程才可以登录
+        }
+        return true;
+    }
+
+    private void startBinding(int session) {
+        if (state.moveTo(session, BindPhase.BINDING)) {
+            drain(session);
+        }
+    }
+
+    /**
+     * 在并发上限内启动等待中的网关
+     */
+    private void drain(int session) {
+        while (true) {
+            final TargetTask task;
+            synchronized (lock) {
+                if (!state.isActive(session) || runningCount >= maxConcurrency || waitingTargets.isEmpty()) {
+                    return;
+                }
+                task = waitingTargets.poll();
+                runningTargets.add(task);
+                runningCount++;
+            }
+            final String boundIotId = bindingRegistry == null ? null
+                    : bindingRegistry.findForSkip(authCode, task.target.productKey, task.target.deviceName);
+            if (boundIotId != null) {
+                //不在 drain 中直接结束，避免连续跳过时递归调用 drain
+                task.flow.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishTarget(task, boundIotId, null);
+                    }
+                });
+                continue;
+            }
+            //token逐个获取，超时从取得token后开始计算，排在后面的网关不会在排队时超时
+            DeviceTokenBroker.getInstance().getToken(application, task.target.productKey, task.target.deviceName, task.tokenCallback);
+        }
+    }
+
+    private void real_bind(final TargetTask task, final String deviceToken) {
+        task.retryTracker.onAttempt();
+        IoTRequestExecutor.Request request = IoTRequestExecutor.getInstance()
+                .newRequest("/awss/token/user/bind", "1.0.8")
+                .addParam("productKey", task.target.productKey)
+                .addParam("deviceName", task.target.deviceName)
+                .addParam("token", deviceToken);
+
+        IoTRequestExecutor.getInstance().execute(request, new IoTRequestExecutor.ResultCallback() {
+            @Override
+            public void onResult(IoTResult result) {
+                TraceLog.d(TAG, "bind onResult: {} {}", task.target, result);
+                if (result.isSuccess()) {
+                    try {
+                        String iotId = result.getDataString("iotId");
+                        if (bindingRegistry != null) {
+                            bindingRegistry.put(authCode, task.target.productKey, task.target.deviceName, iotId);
+                        }
+                        finishTarget(task, iotId, null);
+                    } catch (JSONException e) {
+                        finishTarget(task, null, new Exception("绑定结果解析失败", e));
+                    }
+                } else if (retryRealBind(task, deviceToken, result.getCode())) {
+                    TraceLog.d(TAG, "bind onResult: {} 稍后重试", task.target);
+                } else if (result.getStatus() == IoTResult.Status.NETWORK_FAILURE) {
+                    finishTarget(task, null, new Exception("绑定阶段失败", result.getException()));
+                } else if (result.getStatus() == IoTResult.Status.ALREADY_BOUND) {//已被绑定错误
+                    resolveAlreadyBound(task, result.getLocalizedMsg());
+                } else {
+                    finishTarget(task, null, new Exception("绑定阶段失败,code=" + result.getCode() + " data:" + result.getData()));
+                }
+            }
+        });
+    }
+
+    /**
+     * 2064 时查询网关是否已绑定在当前账号下，是则按成功处理
+     */
+    private void resolveAlreadyBound(final TargetTask task, String localizedMsg) {
+        BindingRegistry.resolveAlreadyBound(bindingRegistry, authCode, task.target.productKey, task.target.deviceName,
+                localizedMsg, new BindingRegistry.AlreadyBoundCallback() {
+                    @Override
+                    public void onBoundToAccount(String iotId) {
+                        finishTarget(task, iotId, null);
+                    }
+
+                    @Override
+                    public void onAlreadyBound(AlreadyBoundException e) {
+                        finishTarget(task, null, e);
+                    }
+                });
+    }
+
+    /**
+     * 按重试策略延时重新绑定
+     *
+     * @return false:该错误不重试或重试次数已用完
+     */
+    private boolean retryRealBind(final TargetTask task, final String deviceToken, int code) {
+        long delay = task.retryTracker.nextDelay(code);
+        if (delay < 0 || !state.isActive(task.session) || task.done.get()) {
+            return false;
+        }
+        task.flow.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!task.done.get()) {
+                    real_bind(task, deviceToken);
+                }
+            }
+        }, delay);
+        return true;
+    }
+
+    private void startTimeout(final TargetTask task) {
+        task.timeoutFuture = task.flow.schedule(new Runnable() {
+            @Override
+            public void run() {
+                finishTarget(task, null, new Exception("超时失败"));
+            }
+        }, time_second * 1000L);
+    }
+
+    private void finishTarget(TargetTask task, String iotId, Exception e) {
+        if (!state.isActive(task.session) || !task.done.compareAndSet(false, true)) {
+            return;
+        }
+        task.retryTracker.finish(e == null);
+        if (task.timeoutFuture != null) {
+            task.timeoutFuture.cancel(false);
+        }
+        DeviceTokenBroker.getInstance().cancel(task.tokenCallback);
+        BatchCallback callback;
+        synchronized (lock) {
+            //批次已结束或已重新开始时任务不在列表中，不计入新批次
+            if (!state.isActive(task.session) || !runningTargets.remove(task)) {
+                return;
+            }
+            runningCount--;
+            if (e == null) {
+                successCount++;
+            } else {
+                failureCount++;
+            }
+            callback = this.callback;
+        }
+        if (callback != null) {
+            if (e == null) {
+                callback.onTargetSuccess(iotId, task.target.productKey, task.target.deviceName);
+            } else {
+                callback.onTargetFailure(task.target.productKey, task.target.deviceName, e);
+            }
+        }
+        drain(task.session);
+        checkFinish(task.session);
+    }
+
+    private void checkFinish(int session) {
+        BatchResult result;
+        BatchCallback callback;
+        synchronized (lock) {
+            if (!state.isActive(session) || successCount + failureCount < total) {
+                return;
+            }
+            result = new BatchResult(total, successCount, failureCount, SdkPorts.clock().elapsedRealtime() - startTime);
+            callback = this.callback;
+        }
+        if (!finishRun(session, BindPhase.DONE)) {
+            return;
+        }
+        TraceLog.d(TAG, "finish: {}", result);
+        if (callback != null) {
+            callback.onFinish(result);
+        }
+    }
+
+    private void handleFailure(int session, Exception e) {
+        BatchCallback callback = this.callback;
+        if (!finishRun(session, BindPhase.FAILED)) {
+            return;
+        }
+        if (callback != null) {
+            TraceLog.onFailure(TAG, e);
+            callback.onFailure(e);
+        }
+    }
+
+    private class TargetTask {
+        final Target target;
+        final int session;//所属批次的会话号
+        final BindScheduler.Flow flow;//所属批次的定时任务
+        final AtomicBoolean done = new AtomicBoolean();
+        final RetryPolicy.Tracker retryTracker = retryPolicy.newTracker("/awss/token/user/bind");
+        volatile ScheduledFuture<?> timeoutFuture;
+        final DeviceTokenBroker.TokenCallback tokenCallback = new DeviceTokenBroker.TokenCallback() {
+            @Override
+            public void onToken(String token) {
+                TraceLog.d(TAG, "getDeviceToken onSuccess: {}", target);
+                if (state.isActive(session) && !done.get()) {
+                    startTimeout(TargetTask.this);
+                    real_bind(TargetTask.this, token);
+                }
+            }
+
+            @Override
+            public void onFail(Exception e) {
+                TraceLog.d(TAG, "getDeviceToken onFail: {} {}", target, e.getMessage());
+                finishTarget(TargetTask.this, null, e);
+            }
+        };
+
+        TargetTask(Target target, int session, BindScheduler.Flow flow) {
+            this.target = target;
+            this.session = session;
+            this.flow = flow;
+        }
+    }
+}
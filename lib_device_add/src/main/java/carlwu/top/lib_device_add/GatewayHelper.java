@@ -1,36 +1,22 @@
 package carlwu.top.lib_device_add;
 
 import android.app.Application;
-import android.util.Log;
 
 import com.aliyun.alink.business.devicecenter.api.add.DeviceInfo;
 import com.aliyun.alink.business.devicecenter.api.discovery.DiscoveryType;
-import com.aliyun.alink.business.devicecenter.api.discovery.GetTokenParams;
-import com.aliyun.alink.business.devicecenter.api.discovery.GetTokenResult;
 import com.aliyun.alink.business.devicecenter.api.discovery.IDeviceDiscoveryListener;
-import com.aliyun.alink.business.devicecenter.api.discovery.IOnTokenGetListerner;
-import com.aliyun.alink.business.devicecenter.api.discovery.LocalDeviceMgr;
-import com.aliyun.alink.business.devicecenter.base.DCErrorCode;
-import com.aliyun.iot.aep.sdk.apiclient.IoTAPIClient;
-import com.aliyun.iot.aep.sdk.apiclient.IoTAPIClientFactory;
-import com.aliyun.iot.aep.sdk.apiclient.callback.IoTCallback;
-import com.aliyun.iot.aep.sdk.apiclient.callback.IoTResponse;
-import com.aliyun.iot.aep.sdk.apiclient.request.IoTRequest;
-import com.aliyun.iot.aep.sdk.apiclient.request.IoTRequestBuilder;
 import com.aliyun.iot.aep.sdk.framework.AApplication;
-import com.aliyun.iot.aep.sdk.login.ILoginCallback;
-import com.aliyun.iot.aep.sdk.login.LoginBusiness;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.TreeMap;
 
 import carlwu.top.lib_device_add.exceptions.AlreadyBoundException;
 
@@ -40,17 +26,131 @@ public interface GatewayHelper {
     public static class DiscoverHelper {
         Application application;
         DiscoverCallback callback;
+        private DiscoveryDeltaCallback deltaCallback;
+        private boolean tokenPrefetch;//发现在线设备时预取token
+        private DiscoveryCache discoveryCache;
+
+        private final DiscoveryIndex index = new DiscoveryIndex();
+        private long debounceMillis = 300;
+        private BindScheduler.Flow discoverFlow;
+        private boolean flushScheduled;
+
+        private DiscoveryFilter filter;
+        private TargetedDiscoveryCallback targetedCallback;
+        private long discoverStartTime;
+        private boolean targetedFinished;
+        private final Set<String> matchedDevices = new HashSet<>();
+        private final Set<String> matchedProductKeys = new HashSet<>();
+        private final Set<String> matchedDeviceNames = new HashSet<>();
+        private final Map<Integer, Long> firstMatchMillis = new TreeMap<>();
 
         public DiscoverHelper(Application application, DiscoverCallback callback) {
             this.application = application;
             this.callback = callback;
         }
 
+        /**
+         * 增量模式：相同设备重复上报不再回调，新增、刷新、消失的设备合并后批量回调
+         */
+        public DiscoverHelper(Application application, DiscoveryDeltaCallback deltaCallback) {
+            this.application = application;
+            this.deltaCallback = deltaCallback;
+        }
+
+        /**
+         * 定向模式：只开启 filter 指定的发现类型，只回调符合条件的设备，
+         * 目标全部发现或到达截止时间后自动停止发现
+         */
+        public DiscoverHelper(Application application, DiscoveryFilter filter, TargetedDiscoveryCallback targetedCallback) {
+            this.application = application;
+            this.filter = filter;
+            this.targetedCallback = targetedCallback;
+        }
+
+        /**
+         * 发现本地在线设备（LOCAL_ONLINE_DEVICE）时通过 {@link DeviceTokenBroker} 预取token，
+         * 之后 BindHelper 绑定该设备时可以直接使用缓存的token
+         */
+        public void setTokenPrefetch(boolean tokenPrefetch) {
+            this.tokenPrefetch = tokenPrefetch;
+        }
+
+        /**
+         * 设置最近发现设备的缓存，发现的设备都会记录到缓存，停止发现时保存。
+         * 增量模式下开始发现时先回调缓存中的设备（{@link DiscoveredDevice#isStale()} 为true），
+         * 之后由实时发现确认或过期。默认不使用缓存
+         */
+        public void setDiscoveryCache(DiscoveryCache discoveryCache) {
+            this.discoveryCache = discoveryCache;
+        }
+
+        /**
+         * 增量模式下合并回调的间隔，默认300毫秒
+         */
+        public void setDebounceMillis(long debounceMillis) {
+            this.debounceMillis = debounceMillis;
+        }
+
         public void startDiscoverGateway() {
-            LocalDeviceMgr.getInstance()
-                    .startDiscovery(application, EnumSet.of(DiscoveryType.LOCAL_ONLINE_DEVICE, DiscoveryType.CLOUD_ENROLLEE_DEVICE, DiscoveryType.SOFT_AP_DEVICE, DiscoveryType.BEACON_DEVICE), null, new IDeviceDiscoveryListener() {
+            if (deltaCallback != null) {
+                synchronized (index) {
+                    index.clear();
+                    flushScheduled = false;
+                }
+                discoverFlow = BindScheduler.getDefault().newFlow();
+                scheduleExpire();
+                if (discoveryCache != null) {
+                    offerCached(discoveryCache.snapshot());
+                }
+            }
+            EnumSet<DiscoveryType> types = EnumSet.of(DiscoveryType.LOCAL_ONLINE_DEVICE, DiscoveryType.CLOUD_ENROLLEE_DEVICE, DiscoveryType.SOFT_AP_DEVICE, DiscoveryType.BEACON_DEVICE);
+            if (targetedCallback != null) {
+                TraceLog.d(TAG, "startDiscoverGateway: {}", filter);
+                types = filter.getTypes();
+                synchronized (matchedDevices) {
+                    discoverStartTime = SdkPorts.clock().elapsedRealtime();
+                    targetedFinished = false;
+                    matchedDevices.clear();
+                    matchedProductKeys.clear();
+                    matchedDeviceNames.clear();
+                    firstMatchMillis.clear();
+                }
+                discoverFlow = BindScheduler.getDefault().newFlow();
+                discoverFlow.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishTargeted(false);
+                    }
+                }, filter.getDeadlineMillis());
+            }
+            SdkPorts.discovery()
+                    .startDiscovery(application, types, new IDeviceDiscoveryListener() {
                         @Override
                         public void onDeviceFound(DiscoveryType discoveryType, List<DeviceInfo> list) {
+                            Application application = DiscoverHelper.this.application;
+                            DiscoveryCache discoveryCache = DiscoverHelper.this.discoveryCache;
+                            if (discoveryCache != null) {
+                                for (DeviceInfo deviceInfo : list) {
+                                    discoveryCache.put(discoveryType.getType(), deviceInfo.productKey, deviceInfo.deviceName);
+                                }
+                            }
+                            if (tokenPrefetch && application != null && discoveryType == DiscoveryType.LOCAL_ONLINE_DEVICE) {
+                                for (DeviceInfo deviceInfo : list) {
+                                    DeviceTokenBroker.getInstance().prefetch(application, deviceInfo.productKey, deviceInfo.deviceName);
+                                }
+                            }
+                            if (deltaCallback != null) {
+                                offer(discoveryType.getType(), list);
+                                return;
+                            }
+                            if (targetedCallback != null) {
+                                match(discoveryType.getType(), list);
+                                return;
+                            }
+                            DiscoverCallback callback = DiscoverHelper.this.callback;
+                            if (callback == null) {
+                                return;
+                            }
                             List<Map<String, String>> data = new ArrayList<>();
                             for (DeviceInfo deviceInfo : list) {
                                 Map<String, String> bean = new HashMap<>();
@@ -66,27 +166,231 @@ public interface GatewayHelper {
         public void stopDiscoverGateway() {
             application = null;
             callback = null;
-            LocalDeviceMgr.getInstance().stopDiscovery();
+            deltaCallback = null;
+            targetedCallback = null;
+            if (discoverFlow != null) {
+                discoverFlow.cancel();
+            }
+            SdkPorts.discovery().stopDiscovery();
+            DiscoveryCache discoveryCache = this.discoveryCache;
+            if (discoveryCache != null) {
+                discoveryCache.save();
+            }
+        }
+
+        /**
+         * 定向模式下筛选设备，记录每种发现类型首次命中的耗时
+         */
+        private void match(int type, List<DeviceInfo> list) {
+            List<DiscoveredDevice> matched = new ArrayList<>();
+            boolean satisfied;
+            long now = SdkPorts.clock().elapsedRealtime();
+            synchronized (matchedDevices) {
+                if (targetedFinished) {
+                    return;
+                }
+                for (DeviceInfo deviceInfo : list) {
+                    if (!filter.matches(deviceInfo.productKey, deviceInfo.deviceName)
+                            || !matchedDevices.add(deviceInfo.productKey + "/" + deviceInfo.deviceName + "@" + type)) {
+                        continue;
+                    }
+                    matchedProductKeys.add(deviceInfo.productKey);
+                    matchedDeviceNames.add(deviceInfo.deviceName);
+                    if (!firstMatchMillis.containsKey(type)) {
+                        firstMatchMillis.put(type, now - discoverStartTime);
+                    }
+                    matched.add(new DiscoveredDevice(deviceInfo.productKey, deviceInfo.deviceName, type, now));
+                }
+                satisfied = filter.isSatisfied(matchedProductKeys, matchedDeviceNames);
+            }
+            TargetedDiscoveryCallback targetedCallback = this.targetedCallback;
+            if (targetedCallback != null) {
+                for (DiscoveredDevice device : matched) {
+                    targetedCallback.onDeviceMatched(device);
+                }
+            }
+            if (satisfied) {
+                //不在SDK的发现回调中直接停止发现
+                discoverFlow.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishTargeted(true);
+                    }
+                });
+            }
+        }
+
+        private void finishTargeted(boolean satisfied) {
+            Map<Integer, Long> firstMatch;
+            synchronized (matchedDevices) {
+                if (targetedFinished) {
+                    return;
+                }
+                targetedFinished = true;
+                firstMatch = new TreeMap<>(firstMatchMillis);
+            }
+            TargetedDiscoveryCallback targetedCallback = this.targetedCallback;
+            TraceLog.d(TAG, "finishTargeted: satisfied={} firstMatch={} elapsed={}ms", satisfied, firstMatch,
+                    SdkPorts.clock().elapsedRealtime() - discoverStartTime);
+            stopDiscoverGateway();
+            if (targetedCallback != null) {
+                targetedCallback.onDiscoveryFinish(satisfied, firstMatch);
+            }
+        }
+
+        private void offer(int type, List<DeviceInfo> list) {
+            long now = SdkPorts.clock().elapsedRealtime();
+            boolean changed = false;
+            synchronized (index) {
+                for (DeviceInfo deviceInfo : list) {
+                    changed |= index.offer(type, deviceInfo.productKey, deviceInfo.deviceName, now);
+                }
+            }
+            if (changed) {
+                scheduleFlush();
+            }
+        }
+
+        /**
+         * 缓存中的设备不等待合并，立即回调
+         */
+        private void offerCached(List<DiscoveryCache.Entry> entries) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            long now = SdkPorts.clock().elapsedRealtime();
+            DiscoveryDelta delta;
+            synchronized (index) {
+                for (DiscoveryCache.Entry entry : entries) {
+                    index.offerCached(entry.type, entry.productKey, entry.deviceName, now);
+                }
+                delta = index.drain();
+            }
+            TraceLog.d(TAG, "offerCached: {}", delta);
+            DiscoveryDeltaCallback deltaCallback = this.deltaCallback;
+            if (delta != null && deltaCallback != null) {
+                deltaCallback.onDiscoveryChanged(delta);
+            }
+        }
+
+        /**
+         * 合并debounceMillis内的增量，一次回调
+         */
+        private void scheduleFlush() {
+            synchronized (index) {
+                if (flushScheduled) {
+                    return;
+                }
+                flushScheduled = true;
+            }
+            discoverFlow.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    DiscoveryDelta delta;
+                    synchronized (index) {
+                        flushScheduled = false;
+                        delta = index.drain();
+                    }
+                    if (delta == null) {
+                        return;
+                    }
+                    DiscoveryCache discoveryCache = DiscoverHelper.this.discoveryCache;
+                    if (discoveryCache != null) {
+                        //有效期内没有以任何发现类型上报，不再作为最近发现的设备
+                        for (DiscoveredDevice device : delta.getExpired()) {
+                            discoveryCache.remove(device.getProductKey(), device.getDeviceName(), DiscoveryIndex.DEFAULT_EXPIRE_MILLIS);
+                        }
+                    }
+                    DiscoveryDeltaCallback deltaCallback = DiscoverHelper.this.deltaCallback;
+                    if (deltaCallback != null) {
+                        deltaCallback.onDiscoveryChanged(delta);
+                    }
+                }
+            }, debounceMillis);
+        }
+
+        /**
+         * 定期清理超过有效期的设备
+         */
+        private void scheduleExpire() {
+            discoverFlow.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    boolean changed;
+                    synchronized (index) {
+                        changed = index.expire(SdkPorts.clock().elapsedRealtime());
+                    }
+                    if (changed) {
+                        scheduleFlush();
+                    }
+                    scheduleExpire();
+                }
+            }, DiscoveryIndex.DEFAULT_EXPIRE_MILLIS / 2);
         }
     }
 
     public static class BindHelper {
-        private Timer runTimer;
-        private TimerTask timeoutTimerTask;
+        private final BindScheduler scheduler;
+        private BindScheduler.Flow runFlow;//本次流程的定时任务
+        private ChannelReadyGate.Waiter readyWaiter;//登录后等待长连接通道就绪
+        private volatile LoginSessionManager.Lease sessionLease;//流程结束时释放
 
         Application application;
         BindCallback callback;
-        private boolean status;//工作状态
+        private final BindStateMachine state = new BindStateMachine(TAG);//工作状态
+        private RetryPolicy retryPolicy = RetryPolicy.forTokenBind();
+        private RetryPolicy.Tracker retryTracker;
 
         public BindHelper(AApplication application, BindCallback callback) {
+            this(application, callback, BindScheduler.getDefault());
+        }
+
+        /**
+         * @param scheduler 定时任务调度器，多个流程共享线程
+         */
+        public BindHelper(AApplication application, BindCallback callback, BindScheduler scheduler) {
             this.application = application;
             this.callback = callback;
+            this.scheduler = scheduler;
         }
 
         private String authCode;
         private String productKey;
         private String deviceName;
         private String deviceToken;
+        private DeviceTokenBroker.TokenCallback tokenCallback;
+        private BindJournal journal;
+        private String journalKey;
+        private boolean resumedToken;//deviceToken 来自进程中断前的记录
+        private BindingRegistry bindingRegistry;
+
+        /**
+         * 设置绑定进度日志，进程被杀后重新 startBind 同一设备时使用已获取的token，不再重新获取。默认不记录
+         */
+        public void setJournal(BindJournal journal) {
+            this.journal = journal;
+        }
+
+        /**
+         * 设置已绑定设备的记录，已绑定到同一账号的网关直接成功，返回2064时查询是否绑定在当前账号下。默认不使用
+         */
+        public void setBindingRegistry(BindingRegistry bindingRegistry) {
+            this.bindingRegistry = bindingRegistry;
+        }
+
+        /**
+         * 设置耗时统计，默认 {@link BindMetrics#NO_OP} 不计时
+         */
+        public void setBindMetrics(BindMetrics bindMetrics) {
+            state.setMetrics(bindMetrics);
+        }
+
+        /**
+         * 设置绑定请求的重试策略，默认 {@link RetryPolicy#forTokenBind()}
+         */
+        public void setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+        }
 
         /**
          * 开始网关绑定
@@ -97,135 +401,237 @@ public interface GatewayHelper {
          * @param time_second
          */
         public void startBind(final String authCode, final String productKey, final String deviceName, int time_second) {
-            if (status) {
+            if (!state.start(BindPhase.TOKEN)) {
                 throw new RuntimeException("流程进行中，不可重复startBind。");
             }
-            Log.d(TAG, "startBind: ");
-            status = true;
+            final int session = state.session();
+            TraceLog.d(TAG, "startBind");
             this.authCode = authCode;
             this.productKey = productKey;
             this.deviceName = deviceName;
-            runTimer = new Timer();
-            timeoutTimerTask = new TimerTask() {
+            retryTracker = retryPolicy.newTracker("/awss/token/user/bind");
+            state.setRetryTracker(retryTracker);
+            runFlow = scheduler.newFlow();
+            runFlow.schedule(new Runnable() {
                 @Override
                 public void run() {
-                    handleFailure(new Exception("超时失败"));
+                    handleFailure(session, new Exception("超时失败"));
                 }
-            };
+            }, time_second * 1000L);
+
+            BindingRegistry bindingRegistry = this.bindingRegistry;
+            final String boundIotId = bindingRegistry == null ? null : bindingRegistry.findForSkip(authCode, productKey, deviceName);
+            if (boundIotId != null) {
+                runFlow.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleSuccess(session, boundIotId);
+                    }
+                });
+                return;
+            }
 
-            runTimer.schedule(timeoutTimerTask, time_second * 1000);
+            BindJournal journal = this.journal;
+            journalKey = journal == null ? null : BindJournal.gatewayKey(productKey, deviceName);
+            BindJournal.Entry entry = journal == null ? null : journal.find(journalKey);
+            resumedToken = entry != null && entry.get("token") != null;
+            if (resumedToken) {
+                TraceLog.d(TAG, "resume: {}", entry);
+                deviceToken = entry.get("token");
+                if (state.moveTo(session, BindPhase.LOGIN)) {
+                    authCodeLogin(session);
+                }
+                return;
+            }
+            fetchToken(session);
+        }
 
-            GetTokenParams getTokenParams = new GetTokenParams();
-            getTokenParams.productKey = productKey;
-            getTokenParams.deviceName = deviceName;
-            LocalDeviceMgr.getInstance().getDeviceToken(application, getTokenParams, new IOnTokenGetListerner() {
+        private void fetchToken(final int session) {
+            tokenCallback = new DeviceTokenBroker.TokenCallback() {
                 @Override
-                public void onSuccess(GetTokenResult getTokenResult) {
-                    Log.d(TAG, "getDeviceToken onSuccess: " + getTokenResult.token);
-                    deviceToken = getTokenResult.token;
-                    authCodeLogin();
+                public void onToken(String token) {
+                    TraceLog.d(TAG, "getDeviceToken onSuccess: {}", token);
+                    if (!state.isActive(session)) {
+                        return;
+                    }
+                    deviceToken = token;
+                    if (journal != null) {
+                        journal.record(journalKey, BindPhase.LOGIN, "token", token);
+                    }
+                    if (state.moveTo(session, BindPhase.LOGIN)) {
+                        authCodeLogin(session);
+                    }
                 }
 
                 @Override
-                public void onFail(DCErrorCode dcErrorCode) {
-                    Log.d(TAG, "getDeviceToken onFail: " + dcErrorCode);
-                    handleFailure(new Exception("获取token失败：" + dcErrorCode));
+                public void onFail(Exception e) {
+                    TraceLog.d(TAG, "getDeviceToken onFail: {}", e.getMessage());
+                    handleFailure(session, e);
                 }
-            });
+            };
+            DeviceTokenBroker.getInstance().getToken(application, productKey, deviceName, tokenCallback);
+        }
+
+        /**
+         * 当前阶段
+         */
+        public BindPhase getPhase() {
+            return state.get();
         }
 
         /**
          * 结束网关绑定
          */
         public void stopBind() {
-            Log.d(TAG, "stopBind: ");
-            status = false;
+            TraceLog.d(TAG, "stopBind");
+            state.finish(BindPhase.CANCELLED);
+            release();
+        }
+
+        /**
+         * 流程结束后释放监听和定时任务，可重复调用
+         */
+        private void release() {
             application = null;
             callback = null;
-            if (runTimer != null) {
-                runTimer.cancel();
+            if (runFlow != null) {
+                runFlow.cancel();
+            }
+            if (readyWaiter != null) {
+                readyWaiter.cancel();
+            }
+            readyWaiter = null;
+            if (tokenCallback != null) {
+                DeviceTokenBroker.getInstance().cancel(tokenCallback);
+            }
+            tokenCallback = null;
+            if (journal != null && journalKey != null) {
+                journal.clear(journalKey);
+            }
+            releaseSession();
+        }
+
+        /**
+         * 释放登录会话，其他账号的流程才可以登录
+         */
+        private void releaseSession() {
+            LoginSessionManager.Lease lease = sessionLease;
+            sessionLease = null;
+            if (lease != null) {
+                lease.release();
             }
-            runTimer = null;
-            timeoutTimerTask = null;
-            LocalDeviceMgr.getInstance().stopGetDeviceToken();
         }
 
-        private void handleFailure(Exception e) {
+        private void handleSuccess(int session, String iotId) {
+            BindCallback callback = this.callback;
+            if (!state.finish(session, BindPhase.DONE)) {
+                return;
+            }
+            retryTracker.finish(true);
+            release();
+            if (callback != null) {
+                callback.onBindSuccess(iotId, productKey, deviceName);
+            }
+        }
+
+        private void handleFailure(int session, Exception e) {
+            BindCallback callback = this.callback;
+            if (!state.finish(session, BindPhase.FAILED)) {
+                return;
+            }
+            if (retryTracker != null) {
+                retryTracker.finish(false);
+            }
+            release();
+            TraceLog.onFailure(TAG, e);
             if (callback != null) {
                 callback.onFailure(e);
             }
-            stopBind();
         }
 
-        private void authCodeLogin() {
-            if (!status) {
+        /**
+         * 登录，同一authCode已登录时复用会话
+         */
+        private void authCodeLogin(final int session) {
+            if (!state.isActive(session)) {
                 return;
             }
-            LoginBusiness.authCodeLogin(authCode, new ILoginCallback() {
+            sessionLease = LoginSessionManager.getInstance().ensureLogin(authCode, new LoginSessionManager.SessionCallback() {
                 @Override
-                public void onLoginSuccess() {
-                    Log.d(TAG, "authCodeLogin onLoginSuccess: ");
-                    if (!status) {
+                public void onSessionReady(boolean reused) {
+                    TraceLog.d(TAG, "authCodeLogin onSessionReady: reused={}", reused);
+                    if (!state.isActive(session)) {
+                        return;
+                    }
+                    if (reused) {
+                        real_bind(session);
                         return;
                     }
-                    runTimer.schedule(new TimerTask() {
+                    state.moveTo(session, BindPhase.CHANNEL);
+                    readyWaiter = ChannelReadyGate.getInstance().await(new ChannelReadyGate.ReadyCallback() {
                         @Override
-                        public void run() {
-                            real_bind();
+                        public void onChannelReady(long waitedMillis, boolean timeout) {
+                            TraceLog.d(TAG, "onChannelReady: {}ms timeout={}", waitedMillis, timeout);
+                            real_bind(session);
                         }
-                    }, 2000);
+                    });
                 }
 
                 @Override
-                public void onLoginFailed(int i, String s) {
-                    Log.e(TAG, "authCodeLogin onLoginFailed: " + s);
-                    handleFailure(new Exception("authCode登录失败" + s));
+                public void onSessionFailed(Exception e) {
+                    TraceLog.e(TAG, "authCodeLogin onSessionFailed: {}", e.getMessage());
+                    handleFailure(session, e);
                 }
             });
+            if (!state.isActive(session)) {
+                releaseSession();//登录期间流程已结束
+            }
         }
 
-        private void real_bind() {
-            if (!status) {
+        private void real_bind(final int session) {
+            if (!state.moveTo(session, BindPhase.BINDING)) {
                 return;
             }
-            IoTRequestBuilder builder = new IoTRequestBuilder()
-                    .setPath("/awss/token/user/bind")
-                    .setApiVersion("1.0.8")
-                    .setAuthType("iotAuth")
+            retryTracker.onAttempt();
+            IoTRequestExecutor.Request request = IoTRequestExecutor.getInstance()
+                    .newRequest("/awss/token/user/bind", "1.0.8")
                     .addParam("productKey", productKey)
                     .addParam("deviceName", deviceName)
                     .addParam("token", deviceToken);
 
-            IoTRequest request = builder.build();
-
-            IoTAPIClient ioTAPIClient = new IoTAPIClientFactory().getClient();
-            ioTAPIClient.send(request, new IoTCallback() {
-                @Override
-                public void onFailure(IoTRequest ioTRequest, Exception e) {
-                    Log.e(TAG, "bind onFailure: ", e);
-                    handleFailure(new Exception("绑定阶段失败", e));
-                }
-
+            IoTRequestExecutor.getInstance().execute(request, new IoTRequestExecutor.ResultCallback() {
                 @Override
-                public void onResponse(IoTRequest ioTRequest, IoTResponse ioTResponse) {
-                    Log.d(TAG, "bind onResponse:" + ioTResponse.getCode() + " data:" + ioTResponse.getData());
-                    if (!status) {
+                public void onResult(IoTResult result) {
+                    TraceLog.d(TAG, "bind onResult:{} data:{}", result, result.getData());
+                    if (!state.isActive(session)) {
                         return;
                     }
-                    final int code = ioTResponse.getCode();
-                    if (code == 200) {
+                    state.setResultCode(result.getCode());
+                    if (result.isSuccess()) {
                         try {
-                            String iotId = ((JSONObject) ioTResponse.getData()).getString("iotId");
-                            if (callback != null) {
-                                callback.onBindSuccess(iotId,productKey,deviceName);
+                            String iotId = result.getDataString("iotId");
+                            if (bindingRegistry != null) {
+                                bindingRegistry.put(authCode, productKey, deviceName, iotId);
                             }
-                            stopBind();
+                            handleSuccess(session, iotId);
                         } catch (JSONException e) {
-                            e.printStackTrace();
+                            handleFailure(session, new Exception("绑定结果解析失败", e));
+                        }
+                    } else if (resumedToken && result.getStatus() == IoTResult.Status.TOKEN_NOT_FOUND) {
+                        //中断前记录的token已失效或已被使用，重新从设备获取一次
+                        TraceLog.d(TAG, "resumed token not found, fetch again");
+                        resumedToken = false;
+                        if (state.moveTo(session, BindPhase.TOKEN)) {
+                            fetchToken(session);
                         }
+                    } else if (retryRealBind(session, result.getCode())) {
+                        //限流等，按重试策略退避后重试
+                        TraceLog.d(TAG, "bind onResult: code={} 稍后重试", result.getCode());
                     } else {
-                        if (code == 2064) {//已被绑定错误
-                            handleFailure(new AlreadyBoundException(ioTResponse.getLocalizedMsg()));
+                        if (result.getStatus() == IoTResult.Status.NETWORK_FAILURE) {
+                            handleFailure(session, new Exception("绑定阶段失败", result.getException()));
+                        } else if (result.getStatus() == IoTResult.Status.ALREADY_BOUND) {//已被绑定错误
+                            resolveAlreadyBound(session, result.getLocalizedMsg());
                         } else {
                             /*
                             Q：设备绑定失败，返回 6608 "token not found"
@@ -235,18 +641,77 @@ public interface GatewayHelper {
                             （2）这个token已经被用过一次，也会立即失效；如两台手机同时发现设备，一台手机点击了绑定，另外一台则会遇到这个问题；还有一种常见是第一次点击返回需要授权，再次点击的时候返回 token not found，因为第一次点击的时候云端认为已使用删除了该token；
                             （3）设备端token没有上报成功；
                              */
-                            handleFailure(new Exception("绑定阶段失败,code=" + ioTResponse.getCode() + " data:" + ioTResponse.getData()));
+                            handleFailure(session, new Exception("绑定阶段失败,code=" + result.getCode() + " data:" + result.getData()));
                         }
                     }
                 }
             });
         }
+
+        /**
+         * 2064 时查询设备是否已绑定在当前账号下，是则按成功处理
+         */
+        private void resolveAlreadyBound(final int session, String localizedMsg) {
+            BindingRegistry.resolveAlreadyBound(bindingRegistry, authCode, productKey, deviceName,
+                    localizedMsg, new BindingRegistry.AlreadyBoundCallback() {
+                        @Override
+                        public void onBoundToAccount(String iotId) {
+                            handleSuccess(session, iotId);
+                        }
+
+                        @Override
+                        public void onAlreadyBound(AlreadyBoundException e) {
+                            handleFailure(session, e);
+                        }
+                    });
+        }
+
+        /**
+         * 按重试策略延时重新绑定
+         *
+         * @return false:该错误不重试或重试次数已用完
+         */
+        private boolean retryRealBind(final int session, int code) {
+            long delay = retryTracker.nextDelay(code);
+            if (delay < 0 || !state.isActive(session)) {
+                return false;
+            }
+            runFlow.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    real_bind(session);
+                }
+            }, delay);
+            return true;
+        }
     }
 
     public interface DiscoverCallback {
         void onDeviceFound(int type, List<Map<String, String>> data);
     }
 
+    public interface DiscoveryDeltaCallback {
+        /**
+         * 发现结果发生变化，只包含变化的部分
+         */
+        void onDiscoveryChanged(DiscoveryDelta delta);
+    }
+
+    public interface TargetedDiscoveryCallback {
+        /**
+         * 发现符合条件的设备，同一设备同一发现类型只回调一次
+         */
+        void onDeviceMatched(DiscoveredDevice device);
+
+        /**
+         * 定向发现结束，发现已停止
+         *
+         * @param satisfied        true:目标全部发现；false:到达截止时间
+         * @param firstMatchMillis 发现类型（DiscoveryType.getType()）→ 首次命中耗时，未命中的类型不包含
+         */
+        void onDiscoveryFinish(boolean satisfied, Map<Integer, Long> firstMatchMillis);
+    }
+
     public interface BindCallback {
         void onFailure(Exception e);
 
@@ -0,0 +1,41 @@
+package carlwu.top.lib_device_add;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 执行调用层的回调，例如同步的 isUnbindRelation 内可能有一次网络请求
+ * <p>
+ * 与 {@link BindScheduler} 分开：调度器的线程只执行超时、重试等定时任务，调用层回调阻塞时不会推迟其他流程的定时任务。
+ * 线程空闲60秒后退出。
+ */
+final class HookExecutor {
+    private static final int THREAD_COUNT = 4;
+    private static Executor defaultExecutor;
+
+    private HookExecutor() {
+    }
+
+    static synchronized Executor getDefault() {
+        if (defaultExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger index = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BindHook-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            defaultExecutor = executor;
+        }
+        return defaultExecutor;
+    }
+}
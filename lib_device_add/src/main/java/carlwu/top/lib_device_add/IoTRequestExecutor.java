@@ -0,0 +1,234 @@
+package carlwu.top.lib_device_add;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 云端接口统一执行，进程内单例
+ * <p>
+ * 1.通过 {@link SdkPorts#api()} 发送，默认实现复用同一个 IoTAPIClient，不再每次请求都创建
+ * <p>
+ * 2.相同的请求（会话账号、路径、版本、参数都相同）在途时不重复发送，结果回调给所有调用方，例如同一网关重复的 /thing/gateway/permit。
+ * 账号切换后参数相同的请求不会拿到上一个账号的结果
+ * <p>
+ * 3.IoTResponse 转换为 {@link IoTResult}，按路径统计耗时
+ */
+public class IoTRequestExecutor {
+    private static final String TAG = "IoTRequestExecutor";
+    private static final IoTRequestExecutor INSTANCE = new IoTRequestExecutor();
+
+    public interface ResultCallback {
+        void onResult(IoTResult result);
+    }
+
+    private final Object lock = new Object();
+    private final Map<String, List<ResultCallback>> inFlight = new HashMap<>();
+    private final Map<String, LatencyStats> latencyStats = new TreeMap<>();
+    private int deduplicatedCount;
+
+    public static IoTRequestExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    private IoTRequestExecutor() {
+    }
+
+    /**
+     * 创建请求，认证方式为 iotAuth
+     */
+    public Request newRequest(String path, String apiVersion) {
+        return new Request(path, apiVersion);
+    }
+
+    /**
+     * 发送请求，相同请求在途时只等待结果不重复发送
+     */
+    public void execute(final Request request, ResultCallback callback) {
+        //请求以发送时的登录账号执行，账号不同的相同请求不能合并
+        final String key = LoginSessionManager.getInstance().getSessionAuthCode() + "|" + request.key();
+        synchronized (lock) {
+            List<ResultCallback> callbacks = inFlight.get(key);
+            if (callbacks != null) {
+                deduplicatedCount++;
+                callbacks.add(callback);
+                TraceLog.d(TAG, "execute deduplicated: {}", request.path);
+                return;
+            }
+            callbacks = new ArrayList<>();
+            callbacks.add(callback);
+            inFlight.put(key, callbacks);
+        }
+        final long startTime = SdkPorts.clock().elapsedRealtime();
+        SdkPorts.api().send(request.path, request.apiVersion, new LinkedHashMap<>(request.values), new SdkPorts.ApiListener() {
+            @Override
+            public void onFailure(Exception e) {
+                TraceLog.e(TAG, "onFailure: {}", request.path, e);
+                complete(key, request, new IoTResult(request.path, RetryPolicy.CODE_NETWORK_FAILURE, e.getMessage(),
+                        null, e, SdkPorts.clock().elapsedRealtime() - startTime));
+            }
+
+            @Override
+            public void onResponse(int code, String localizedMsg, Object data) {
+                complete(key, request, new IoTResult(request.path, code, localizedMsg,
+                        data, null, SdkPorts.clock().elapsedRealtime() - startTime));
+            }
+        });
+    }
+
+    /**
+     * 路径的耗时统计，没有请求过返回null
+     */
+    public LatencyStats getLatencyStats(String path) {
+        synchronized (lock) {
+            LatencyStats stats = latencyStats.get(path);
+            return stats == null ? null : stats.copy();
+        }
+    }
+
+    /**
+     * 所有路径的耗时统计快照
+     */
+    public Map<String, LatencyStats> getAllLatencyStats() {
+        Map<String, LatencyStats> snapshot = new TreeMap<>();
+        synchronized (lock) {
+            for (Map.Entry<String, LatencyStats> entry : latencyStats.entrySet()) {
+                snapshot.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * 因相同请求在途而合并的次数
+     */
+    public int getDeduplicatedCount() {
+        synchronized (lock) {
+            return deduplicatedCount;
+        }
+    }
+
+    private void complete(String key, Request request, IoTResult result) {
+        TraceLog.d(TAG, "complete: {}", result);
+        List<ResultCallback> callbacks;
+        synchronized (lock) {
+            callbacks = inFlight.remove(key);
+            LatencyStats stats = latencyStats.get(request.path);
+            if (stats == null) {
+                stats = new LatencyStats();
+                latencyStats.put(request.path, stats);
+            }
+            stats.record(result.getLatencyMillis(), result.getStatus() == IoTResult.Status.NETWORK_FAILURE);
+        }
+        if (callbacks == null) {
+            return;
+        }
+        for (ResultCallback callback : callbacks) {
+            callback.onResult(result);
+        }
+    }
+
+    /**
+     * 单个接口的请求参数，同时生成去重用的请求标识（不含账号，由 execute 加上）
+     */
+    public static class Request {
+        private final String path;
+        private final Map<String, Object> values = new LinkedHashMap<>();
+        private final TreeMap<String, String> params = new TreeMap<>();
+        private final String apiVersion;
+        private String key;
+
+        private Request(String path, String apiVersion) {
+            this.path = path;
+            this.apiVersion = apiVersion;
+        }
+
+        public Request addParam(String name, String value) {
+            values.put(name, value);
+            params.put(name, value);
+            key = null;
+            return this;
+        }
+
+        public Request addParam(String name, int value) {
+            values.put(name, value);
+            params.put(name, String.valueOf(value));
+            key = null;
+            return this;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        private String key() {
+            if (key == null) {
+                key = path + "@" + apiVersion + params;
+            }
+            return key;
+        }
+    }
+
+    /**
+     * 单个接口的耗时统计
+     */
+    public static class LatencyStats {
+        private int count;
+        private int failureCount;
+        private long totalMillis;
+        private long maxMillis;
+        private long minMillis = Long.MAX_VALUE;
+
+        void record(long millis, boolean failure) {
+            count++;
+            if (failure) {
+                failureCount++;
+            }
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            minMillis = Math.min(minMillis, millis);
+        }
+
+        LatencyStats copy() {
+            LatencyStats copy = new LatencyStats();
+            copy.count = count;
+            copy.failureCount = failureCount;
+            copy.totalMillis = totalMillis;
+            copy.maxMillis = maxMillis;
+            copy.minMillis = minMillis;
+            return copy;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * 网络失败次数
+         */
+        public int getFailureCount() {
+            return failureCount;
+        }
+
+        public long getAverageMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public long getMinMillis() {
+            return count == 0 ? 0 : minMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " failure=" + failureCount + " avg=" + getAverageMillis()
+                    + "ms min=" + getMinMillis() + "ms max=" + maxMillis + "ms";
+        }
+    }
+}
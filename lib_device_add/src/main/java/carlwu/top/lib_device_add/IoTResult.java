@@ -0,0 +1,122 @@
+package carlwu.top.lib_device_add;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 云端接口调用结果，把 IoTResponse 的响应码归类为 {@link Status}
+ */
+public class IoTResult {
+    public static final int CODE_SUCCESS = 200;
+    public static final int CODE_ALREADY_BOUND = 2064;
+    public static final int CODE_TOKEN_NOT_FOUND = 6608;
+
+    public enum Status {
+        SUCCESS,
+        /**
+         * 6221 设备不在线
+         */
+        DEVICE_OFFLINE,
+        /**
+         * 2064 设备已被绑定
+         */
+        ALREADY_BOUND,
+        /**
+         * 6608 token不存在或已失效
+         */
+        TOKEN_NOT_FOUND,
+        /**
+         * 429 请求被限流
+         */
+        RATE_LIMITED,
+        /**
+         * 网络请求失败，没有拿到响应
+         */
+        NETWORK_FAILURE,
+        FAILURE
+    }
+
+    private final String path;
+    private final int code;
+    private final String localizedMsg;
+    private final Object data;
+    private final Exception exception;
+    private final long latencyMillis;
+
+    IoTResult(String path, int code, String localizedMsg, Object data, Exception exception, long latencyMillis) {
+        this.path = path;
+        this.code = code;
+        this.localizedMsg = localizedMsg;
+        this.data = data;
+        this.exception = exception;
+        this.latencyMillis = latencyMillis;
+    }
+
+    public Status getStatus() {
+        switch (code) {
+            case CODE_SUCCESS:
+                return Status.SUCCESS;
+            case RetryPolicy.CODE_DEVICE_OFFLINE:
+                return Status.DEVICE_OFFLINE;
+            case CODE_ALREADY_BOUND:
+                return Status.ALREADY_BOUND;
+            case CODE_TOKEN_NOT_FOUND:
+                return Status.TOKEN_NOT_FOUND;
+            case RetryPolicy.CODE_RATE_LIMIT:
+                return Status.RATE_LIMITED;
+            case RetryPolicy.CODE_NETWORK_FAILURE:
+                return Status.NETWORK_FAILURE;
+            default:
+                return Status.FAILURE;
+        }
+    }
+
+    public boolean isSuccess() {
+        return code == CODE_SUCCESS;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 云端响应码，网络失败时为 {@link RetryPolicy#CODE_NETWORK_FAILURE}
+     */
+    public int getCode() {
+        return code;
+    }
+
+    public String getLocalizedMsg() {
+        return localizedMsg;
+    }
+
+    public Object getData() {
+        return data;
+    }
+
+    /**
+     * 读取 data 中的字符串字段，例如绑定成功返回的 iotId
+     */
+    public String getDataString(String key) throws JSONException {
+        if (!(data instanceof JSONObject)) {
+            throw new JSONException("data 不是 JSONObject: " + data);
+        }
+        return ((JSONObject) data).getString(key);
+    }
+
+    /**
+     * 网络失败时的异常
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return path + " code=" + code + " msg=" + localizedMsg + " " + latencyMillis + "ms";
+    }
+}
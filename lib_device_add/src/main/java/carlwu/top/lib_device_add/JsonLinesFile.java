@@ -0,0 +1,237 @@
+package carlwu.top.lib_device_add;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每行一个JSON的文件，BindJournal、DiscoveryCache、ProvisioningRunner 的断点记录共用
+ * <p>
+ * 追加和重写提交到一个后台写线程按顺序执行，调用方（通常在SDK回调线程、持有自己的锁）不做文件操作。
+ * 写线程与 {@link BindScheduler}、{@link HookExecutor} 分开，磁盘慢时不推迟超时、重试等定时任务。
+ * 读取在调用线程执行，先等待已提交的写入完成。写入失败只记日志。
+ * <p>
+ * 异步写入在写线程执行前进程被杀会丢失，执行后也只在系统缓存中，断电仍可能丢失。
+ * 恢复依赖的记录用 {@link #append(JSONObject, boolean)} 同步到磁盘并等待完成。
+ */
+final class JsonLinesFile {
+    private static final String TAG = "JsonLinesFile";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static Executor writer;
+
+    interface LineHandler {
+        /**
+         * 读到一行
+         *
+         * @throws JSONException 格式错误，跳过这一行
+         */
+        void onLine(JSONObject json) throws JSONException;
+    }
+
+    private final File file;
+    private boolean torn;//最后一行没有换行（进程在写入中途被杀），下次追加前先换行。只在写线程访问
+
+    JsonLinesFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 按顺序读取每一行，格式错误的行跳过（进程在写入一行的中途被杀，只丢弃这一行）
+     *
+     * @return 读到的行数，包括跳过的行
+     */
+    int load(LineHandler handler) {
+        awaitWrites();
+        if (!file.exists()) {
+            return 0;
+        }
+        int lineCount = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                try {
+                    handler.onLine(new JSONObject(line));
+                } catch (JSONException | IllegalArgumentException e) {
+                    TraceLog.w(TAG, "load skip: {}", line);
+                }
+            }
+        } catch (IOException e) {
+            TraceLog.e(TAG, "load failed: {}", file, e);
+        } finally {
+            closeQuietly(reader);
+        }
+        final boolean torn = !endsWithNewline(file);
+        getWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                JsonLinesFile.this.torn = torn;
+            }
+        });
+        return lineCount;
+    }
+
+    /**
+     * 在写线程追加一行
+     */
+    void append(JSONObject json) {
+        append(json, false);
+    }
+
+    /**
+     * 在写线程追加一行
+     *
+     * @param sync true:写入后同步到磁盘（fsync）
+     * @return 写入完成的结果，可以用 {@link #await(Future)} 等待
+     */
+    Future<?> append(JSONObject json, final boolean sync) {
+        final String line = json.toString();
+        FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream out = null;
+                try {
+                    out = new FileOutputStream(file, true);
+                    //不换行会与写了一半的行拼成一行，读取时两行都被丢弃
+                    out.write(((torn ? "\n" : "") + line + "\n").getBytes(UTF_8));
+                    torn = false;
+                    if (sync) {
+                        out.getFD().sync();
+                    }
+                } catch (IOException e) {
+                    TraceLog.e(TAG, "append failed: {}", file, e);
+                } finally {
+                    closeQuietly(out);
+                }
+            }
+        }, null);
+        getWriter().execute(task);
+        return task;
+    }
+
+    /**
+     * 在写线程用这些行替换文件内容，先写临时文件再替换
+     *
+     * @param onFailure 写入失败时在写线程调用，可以为null
+     */
+    void rewrite(List<JSONObject> jsons, final Runnable onFailure) {
+        final StringBuilder content = new StringBuilder();
+        for (JSONObject json : jsons) {
+            content.append(json.toString()).append('\n');
+        }
+        getWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                File temp = new File(file.getPath() + ".tmp");
+                FileOutputStream out = null;
+                try {
+                    out = new FileOutputStream(temp, false);
+                    out.write(content.toString().getBytes(UTF_8));
+                    out.getFD().sync();//替换前落盘，断电时不会用空文件替换原文件
+                    out.close();
+                    out = null;
+                    if (!temp.renameTo(file)) {
+                        throw new IOException("rename failed: " + temp);
+                    }
+                    torn = false;
+                } catch (IOException e) {
+                    TraceLog.e(TAG, "rewrite failed: {}", file, e);
+                    if (onFailure != null) {
+                        onFailure.run();
+                    }
+                } finally {
+                    closeQuietly(out);
+                }
+            }
+        });
+    }
+
+    /**
+     * 等待已提交的写入完成
+     */
+    static void awaitWrites() {
+        FutureTask<Void> marker = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+        getWriter().execute(marker);
+        await(marker);
+    }
+
+    /**
+     * 等待一次写入完成，被中断时保留中断状态后返回
+     */
+    static void await(Future<?> write) {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {
+        }
+    }
+
+    private static boolean endsWithNewline(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            long length = raf.length();
+            if (length == 0) {
+                return true;
+            }
+            raf.seek(length - 1);
+            return raf.read() == '\n';
+        } catch (IOException e) {
+            return true;
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static synchronized Executor getWriter() {
+        if (writer == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "JsonLinesWriter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            writer = executor;
+        }
+        return writer;
+    }
+}
@@ -0,0 +1,376 @@
+package carlwu.top.lib_device_add;
+
+import com.aliyun.alink.linksdk.channel.core.base.AError;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileRequestListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.MobileConnectState;
+import com.aliyun.iot.aep.sdk.login.ILoginCallback;
+import com.aliyun.iot.aep.sdk.login.ILogoutCallback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 登录会话管理，进程内单例
+ * <p>
+ * LoginBusiness 与 MobileChannel 都是进程级单例，同一个 authCode 已登录且长连接通道可用时直接复用，
+ * 只有身份变化（authCode 不同、登录态失效、通道断开）时才走 解绑长连接通道 → 登出 → authCodeLogin 的完整流程。
+ * 同一时刻只执行一次登录流程，期间到达的请求排队，相同 authCode 的请求合并为一次登录。
+ * <p>
+ * 每次 {@link #ensureLogin} 返回一个 {@link Lease}，流程结束时调用 {@link Lease#release()}。
+ * 当前账号还有未释放的 Lease 时，其他账号的请求排队等待，全部释放后才切换账号，避免正在执行的流程被登出；
+ * 有其他账号排队时，当前账号的新请求排在其后，不会一直占用会话。
+ */
+public class LoginSessionManager {
+    private static final String TAG = "LoginSessionManager";
+    private static final LoginSessionManager INSTANCE = new LoginSessionManager();
+
+    public interface SessionCallback {
+        /**
+         * 登录会话可用
+         *
+         * @param reused true:复用了已有会话，没有发生登录
+         */
+        void onSessionReady(boolean reused);
+
+        void onSessionFailed(Exception e);
+    }
+
+    private final Object lock = new Object();
+    private String sessionAuthCode;//当前已登录的authCode
+    private String loggingInAuthCode;//正在登录的authCode
+    private final List<PendingRequest> pendingRequests = new ArrayList<>();
+    private String leaseAuthCode;//持有会话的账号
+    private int leaseCount;//leaseAuthCode 未释放的 Lease 数量
+    private int leaseGeneration;//logout 后之前的 Lease 不再计数
+    private boolean logoutRequested;//登录过程中调用了 logout，登录结束后登出
+    private int hitCount;
+    private int missCount;
+
+    public static LoginSessionManager getInstance() {
+        return INSTANCE;
+    }
+
+    private LoginSessionManager() {
+    }
+
+    /**
+     * 确保当前会话是 authCode 对应的账号，必要时重新登录
+     *
+     * @return 会话的使用权，流程结束（包括失败、取消）时需要 release，否则其他账号一直无法登录
+     */
+    public Lease ensureLogin(String authCode, SessionCallback callback) {
+        Lease lease = new Lease(authCode, callback);
+        boolean hit;
+        String nextAuthCode = null;
+        synchronized (lock) {
+            hit = loggingInAuthCode == null && pendingRequests.isEmpty() && isSessionValid(authCode);
+            if (hit) {
+                hitCount++;
+                grant(lease);
+            } else {
+                pendingRequests.add(new PendingRequest(authCode, lease));
+                //已有登录流程在进行或其他账号的流程还未结束时，之后统一处理
+                nextAuthCode = nextLogin();
+            }
+        }
+        if (hit) {
+            TraceLog.d(TAG, "ensureLogin: session hit");
+            callback.onSessionReady(true);
+        } else if (nextAuthCode != null) {
+            TraceLog.d(TAG, "ensureLogin: session miss, login");
+            unBindChannel(nextAuthCode);
+        }
+        return lease;
+    }
+
+    /**
+     * 当前会话是否已是 authCode 对应的账号并且可用
+     */
+    public boolean isSessionValid(String authCode) {
+        synchronized (lock) {
+            if (sessionAuthCode == null || !sessionAuthCode.equals(authCode)) {
+                return false;
+            }
+        }
+        return SdkPorts.login().isLogin()
+                && SdkPorts.channel().getMobileConnectState() == MobileConnectState.CONNECTED;
+    }
+
+    /**
+     * 主动结束会话：解绑长连接通道并登出，下一次 ensureLogin 必然重新登录
+     * <p>
+     * 正在登录时取消该次登录：排队的请求回调 onSessionFailed，登录结束后登出
+     */
+    public void logout() {
+        List<PendingRequest> cancelled = null;
+        String nextAuthCode = null;
+        synchronized (lock) {
+            sessionAuthCode = null;
+            leaseAuthCode = null;
+            leaseCount = 0;
+            leaseGeneration++;
+            if (loggingInAuthCode == null) {
+                //等待会话释放的请求不再等待，下一次登录本身会先登出
+                nextAuthCode = nextLogin();
+            } else {
+                logoutRequested = true;
+                cancelled = new ArrayList<>(pendingRequests);
+                pendingRequests.clear();
+            }
+        }
+        if (cancelled != null) {
+            TraceLog.d(TAG, "logout: cancel login {}", cancelled.size());
+            Exception e = new Exception("登录已取消");
+            for (PendingRequest request : cancelled) {
+                request.lease.callback.onSessionFailed(e);
+            }
+            return;
+        }
+        if (nextAuthCode != null) {
+            unBindChannel(nextAuthCode);
+        } else {
+            doLogout();
+        }
+    }
+
+    private void doLogout() {
+        final ILogoutCallback logoutCallback = new ILogoutCallback() {
+            @Override
+            public void onLogoutSuccess() {
+                TraceLog.d(TAG, "logout onLogoutSuccess");
+            }
+
+            @Override
+            public void onLogoutFailed(int i, String s) {
+                TraceLog.d(TAG, "logout onLogoutFailed: {} {}", i, s);
+            }
+        };
+        ChannelReadyGate.getInstance().invalidate();
+        SdkPorts.channel().unBindAccount(new IMobileRequestListener() {
+            @Override
+            public void onSuccess(String s) {
+                TraceLog.d(TAG, "logout unBindChannel onSuccess: {}", s);
+                SdkPorts.login().logout(logoutCallback);
+            }
+
+            @Override
+            public void onFailure(AError aError) {
+                TraceLog.d(TAG, "logout unBindChannel onFailure: {}", aError);
+                SdkPorts.login().logout(logoutCallback);
+            }
+        });
+    }
+
+    /**
+     * 当前已登录的authCode，没有登录或已失效返回null
+     */
+    public String getSessionAuthCode() {
+        synchronized (lock) {
+            return sessionAuthCode;
+        }
+    }
+
+    /**
+     * 标记会话失效，例如调用层自行登出了账号
+     */
+    public void invalidate() {
+        synchronized (lock) {
+            sessionAuthCode = null;
+        }
+        ChannelReadyGate.getInstance().invalidate();
+    }
+
+    public int getHitCount() {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    private void unBindChannel(final String authCode) {
+        ChannelReadyGate.getInstance().invalidate();
+        SdkPorts.channel().unBindAccount(new IMobileRequestListener() {
+            @Override
+            public void onSuccess(String s) {
+                TraceLog.d(TAG, "unBindChannel onSuccess: {}", s);
+                logout(authCode);
+            }
+
+            @Override
+            public void onFailure(AError aError) {
+                TraceLog.d(TAG, "unBindChannel onFailure: {}", aError);
+                logout(authCode);
+            }
+        });
+    }
+
+    private void logout(final String authCode) {
+        SdkPorts.login().logout(new ILogoutCallback() {
+            @Override
+            public void onLogoutSuccess() {
+                TraceLog.d(TAG, "logout onLogoutSuccess");
+                authCodeLogin(authCode);
+            }
+
+            @Override
+            public void onLogoutFailed(int i, String s) {
+                TraceLog.d(TAG, "logout onLogoutFailed: {} {}", i, s);
+                authCodeLogin(authCode);
+            }
+        });
+    }
+
+    private void authCodeLogin(final String authCode) {
+        SdkPorts.login().authCodeLogin(authCode, new ILoginCallback() {
+            @Override
+            public void onLoginSuccess() {
+                TraceLog.d(TAG, "authCodeLogin onLoginSuccess");
+                onLoginFinished(authCode, null);
+            }
+
+            @Override
+            public void onLoginFailed(int i, String s) {
+                TraceLog.e(TAG, "authCodeLogin onLoginFailed: {}", s);
+                onLoginFinished(authCode, new Exception("authCode登录失败" + s));
+            }
+        });
+    }
+
+    /**
+     * 一次登录流程结束：回调相同 authCode 的请求，若还有其他账号的请求排队，等这些流程释放会话后开始下一次登录
+     */
+    private void onLoginFinished(String authCode, Exception e) {
+        List<PendingRequest> finished = new ArrayList<>();
+        String nextAuthCode;
+        boolean cancelled;
+        synchronized (lock) {
+            loggingInAuthCode = null;
+            cancelled = logoutRequested;
+            if (cancelled) {
+                //登录过程中已登出，该次登录的结果不再使用
+                logoutRequested = false;
+                sessionAuthCode = null;
+            } else {
+                sessionAuthCode = e == null ? authCode : null;
+                for (int i = pendingRequests.size() - 1; i >= 0; i--) {
+                    if (pendingRequests.get(i).authCode.equals(authCode)) {
+                        PendingRequest request = pendingRequests.remove(i);
+                        finished.add(0, request);
+                        if (e == null) {
+                            grant(request.lease);
+                        }
+                    }
+                }
+            }
+            nextAuthCode = nextLogin();
+        }
+        for (PendingRequest request : finished) {
+            if (e == null) {
+                request.lease.callback.onSessionReady(false);
+            } else {
+                request.lease.callback.onSessionFailed(e);
+            }
+        }
+        if (nextAuthCode != null) {
+            unBindChannel(nextAuthCode);
+        } else if (cancelled) {
+            doLogout();
+        }
+    }
+
+    /**
+     * 会话分配给 lease。调用方持有lock
+     */
+    private void grant(Lease lease) {
+        if (!lease.authCode.equals(leaseAuthCode)) {
+            leaseAuthCode = lease.authCode;
+            leaseCount = 0;
+        }
+        leaseCount++;
+        lease.generation = leaseGeneration;
+        lease.granted = true;
+    }
+
+    /**
+     * 没有登录在进行、且当前账号的会话已全部释放（或排队的是同一账号）时，返回下一次登录的账号并标记为登录中。调用方持有lock
+     */
+    private String nextLogin() {
+        if (loggingInAuthCode != null || pendingRequests.isEmpty()) {
+            return null;
+        }
+        String authCode = pendingRequests.get(0).authCode;
+        if (leaseCount > 0 && !authCode.equals(leaseAuthCode)) {
+            TraceLog.d(TAG, "wait lease release: {}", leaseCount);
+            return null;
+        }
+        missCount++;
+        loggingInAuthCode = authCode;
+        sessionAuthCode = null;
+        return authCode;
+    }
+
+    private void release(Lease lease) {
+        String nextAuthCode;
+        synchronized (lock) {
+            if (lease.released) {
+                return;
+            }
+            lease.released = true;
+            if (lease.granted) {
+                if (lease.generation == leaseGeneration && lease.authCode.equals(leaseAuthCode) && leaseCount > 0) {
+                    leaseCount--;
+                }
+            } else {
+                //还在排队，不再需要登录
+                for (int i = 0; i < pendingRequests.size(); i++) {
+                    if (pendingRequests.get(i).lease == lease) {
+                        pendingRequests.remove(i);
+                        break;
+                    }
+                }
+            }
+            nextAuthCode = nextLogin();
+        }
+        if (nextAuthCode != null) {
+            unBindChannel(nextAuthCode);
+        }
+    }
+
+    /**
+     * 一次 ensureLogin 对会话的使用权
+     */
+    public class Lease {
+        private final String authCode;
+        private final SessionCallback callback;
+        private boolean granted;//已回调 onSessionReady
+        private boolean released;
+        private int generation;
+
+        private Lease(String authCode, SessionCallback callback) {
+            this.authCode = authCode;
+            this.callback = callback;
+        }
+
+        /**
+         * 流程结束，释放会话；还在排队时取消排队，不再回调。可重复调用
+         */
+        public void release() {
+            LoginSessionManager.this.release(this);
+        }
+    }
+
+    private static class PendingRequest {
+        final String authCode;
+        final Lease lease;
+
+        PendingRequest(String authCode, Lease lease) {
+            this.authCode = authCode;
+            this.lease = lease;
+        }
+    }
+}
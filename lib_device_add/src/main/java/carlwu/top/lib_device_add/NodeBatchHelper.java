@@ -0,0 +1,688 @@
+package carlwu.top.lib_device_add;
+
+import org.json.JSONException;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import carlwu.top.lib_device_add.exceptions.AlreadyBoundException;
+import carlwu.top.lib_device_add.exceptions.NeedUnbindFirstException;
+import carlwu.top.lib_device_add.exceptions.SubDeviceRegisterException;
+
+/**
+ * 批量节点绑定：一次登录、一次网关允许入网窗口内，绑定所有上报的子设备。
+ * <p>
+ * 与 {@link NodeHelper} 的区别：收到第一个 status == 0 后不会结束流程，
+ * 而是在 /thing/gateway/permit 窗口期内持续监听 /thing/topo/add/status，
+ * 每个上报的子设备各自走 /awss/time/window/user/bind，多个绑定请求并发执行，
+ * 结果通过 {@link BatchCallback} 逐个回调。窗口结束且在途绑定全部完成后回调 onFinish。
+ * <p>
+ * 每次 startBind 生成新的会话号，异步回调记下会话号，stopBind 后上一次流程迟到的响应不影响新的流程。
+ */
+public class NodeBatchHelper {
+    private static final String TAG = "NodeBatchHelper";
+    private static final int DEFAULT_MAX_CONCURRENT_BINDS = 4;
+
+    public interface BatchCallback {
+        /**
+         * 调用层返回是否已经处理了解绑操作，含义同 {@link NodeHelper.BindCallback#isUnbindRelation}
+         *
+         * @return true:已处理，正常跳过。
+         */
+        boolean isUnbindRelation(String subIotId, String subProductKey, String subDeviceName);
+
+        /**
+         * 单个子设备绑定成功
+         */
+        void onDeviceBound(String subIotId, String subProductKey, String subDeviceName);
+
+        /**
+         * 单个子设备绑定失败，不影响其他子设备
+         *
+         * @param e AlreadyBoundException 设备已被绑定；NeedUnbindFirstException 需要先解除绑定关系；
+         *          SubDeviceRegisterException 子设备注册失败
+         */
+        void onDeviceFailure(String subProductKey, String subDeviceName, Exception e);
+
+        /**
+         * 整个批量流程失败（登录失败、网关无法进入发现节点模式等），流程已结束
+         */
+        void onFailure(Exception e);
+
+        /**
+         * 入网窗口结束，所有子设备都已回调结果
+         *
+         * @param successCount 绑定成功数量
+         * @param failureCount 绑定失败数量
+         */
+        void onFinish(int successCount, int failureCount);
+    }
+
+    /**
+     * 异步处理解绑操作，含义同 {@link NodeHelper.AsyncBindCallback}
+     */
+    public interface AsyncBatchCallback extends BatchCallback {
+        void unbindRelationAsync(String subIotId, String subProductKey, String subDeviceName, UnbindRelationCallback done);
+    }
+
+    private final Object lock = new Object();
+    private final int maxConcurrentBinds;
+    private BatchCallback batchCallback;
+    private final BindScheduler scheduler;
+    private final BindStateMachine state = new BindStateMachine(TAG);//工作状态
+    private BindScheduler.Flow runFlow;//以下四项由 lock 保护，流程结束时取消或释放
+    private ChannelReadyGate.Waiter readyWaiter;//登录后等待长连接通道就绪
+    private LoginSessionManager.Lease sessionLease;
+    private TopoStatusRouter.Subscription topoSubscription;
+    private boolean windowOpen;//入网窗口是否打开
+    private RetryPolicy retryPolicy = RetryPolicy.forSubDeviceBind();
+
+    private String authCode;
+    private BindingRegistry bindingRegistry;
+    private Executor hookExecutor;
+    private String Gateway_IotId;
+    private String SubNode_ProductKey;
+    private int time_second = 60;//入网窗口时间
+
+    private final Set<String> acceptedDevices = new HashSet<>();//已进入绑定流程的子设备
+    private final Map<String, SubDevice> status1Devices = new HashMap<>();//status == 1 的子设备，窗口结束前没有收到 status == 0 则判定为已被绑定
+    private final Map<String, SubDevice> status2Devices = new HashMap<>();//status == 2 的子设备，窗口结束前没有收到 status == 0 则判定为注册失败
+    private final ArrayDeque<SubDevice> pendingBinds = new ArrayDeque<>();
+    private final Set<SubDevice> retryingBinds = new HashSet<>();//6221 等待重试中的子设备
+    private int inFlightBinds;
+    private int successCount;
+    private int failureCount;
+
+    public NodeBatchHelper(BatchCallback batchCallback) {
+        this(batchCallback, DEFAULT_MAX_CONCURRENT_BINDS);
+    }
+
+    /**
+     * @param maxConcurrentBinds 同时进行的 /awss/time/window/user/bind 请求上限
+     */
+    public NodeBatchHelper(BatchCallback batchCallback, int maxConcurrentBinds) {
+        this(batchCallback, maxConcurrentBinds, BindScheduler.getDefault());
+    }
+
+    /**
+     * @param maxConcurrentBinds 同时进行的 /awss/time/window/user/bind 请求上限
+     * @param scheduler          定时任务调度器，多个流程共享线程
+     */
+    public NodeBatchHelper(BatchCallback batchCallback, int maxConcurrentBinds, BindScheduler scheduler) {
+        if (maxConcurrentBinds < 1) {
+            throw new RuntimeException("maxConcurrentBinds 需要 >=1");
+        }
+        this.batchCallback = batchCallback;
+        this.maxConcurrentBinds = maxConcurrentBinds;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 设置子设备绑定的重试策略，默认 {@link RetryPolicy#forSubDeviceBind()}，每个子设备单独计数
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * 设置已绑定设备的记录，绑定成功时写入，返回2064时查询子设备是否已绑定在当前账号下。默认不使用
+     * <p>
+     * 子设备绑定前调用层会解除其所有绑定关系，因此不会因为已有记录而跳过绑定
+     */
+    public void setBindingRegistry(BindingRegistry bindingRegistry) {
+        this.bindingRegistry = bindingRegistry;
+    }
+
+    /**
+     * 设置执行解绑回调（isUnbindRelation、unbindRelationAsync）的线程池，默认使用库内共享的回调线程，
+     * 不占用 {@link BindScheduler} 的定时线程
+     */
+    public void setHookExecutor(Executor hookExecutor) {
+        this.hookExecutor = hookExecutor;
+    }
+
+    /**
+     * 开始批量节点绑定
+     *
+     * @param authCode           授权码
+     * @param Gateway_IotId      网关设备iotId
+     * @param SubNode_ProductKey 允许接入网关的子设备产品标识符
+     * @param time_second        入网窗口时间
+     */
+    public void startBind(String authCode, String Gateway_IotId, String SubNode_ProductKey, int time_second) {
+        if (time_second < 20 || time_second > 200) {
+            throw new RuntimeException("time_second 需要 >=20 <=200");
+        }
+        final int session;
+        synchronized (lock) {
+            //开始会话与重置本次流程的数据在同一个锁内，持有锁时 isActive(session) 为true则这些数据属于该会话
+            if (!state.start(BindPhase.LOGIN)) {
+                throw new RuntimeException("流程进行中，不可重复startBind。");
+            }
+            session = state.session();
+            TraceLog.d(TAG, "startBind");
+            windowOpen = false;
+            acceptedDevices.clear();
+            status1Devices.clear();
+            status2Devices.clear();
+            pendingBinds.clear();
+            retryingBinds.clear();
+            inFlightBinds = 0;
+            successCount = 0;
+            failureCount = 0;
+            this.authCode = authCode;
+            this.Gateway_IotId = Gateway_IotId;
+            this.SubNode_ProductKey = SubNode_ProductKey;
+            this.time_second = time_second;
+            runFlow = scheduler.newFlow();
+        }
+        authCodeLogin(session);
+    }
+
+    /**
+     * 结束批量节点绑定，未完成的子设备不再回调
+     */
+    public void stopBind() {
+        if (finishRun(state.session(), BindPhase.CANCELLED)) {
+            TraceLog.d(TAG, "stopBind");
+        }
+    }
+
+    /**
+     * 结束该会话的流程：关闭入网窗口，取消定时任务、通道等待和下行监听，释放登录会话
+     *
+     * @return false:该会话已结束
+     */
+    private boolean finishRun(int session, BindPhase terminal) {
+        BindScheduler.Flow flow;
+        ChannelReadyGate.Waiter waiter;
+        LoginSessionManager.Lease lease;
+        TopoStatusRouter.Subscription subscription;
+        synchronized (lock) {
+            if (!state.finish(session, terminal)) {
+                return false;
+            }
+            batchCallback = null;
+            windowOpen = false;
+            pendingBinds.clear();
+            retryingBinds.clear();
+            flow = runFlow;
+            waiter = readyWaiter;
+            lease = sessionLease;
+            subscription = topoSubscription;
+            readyWaiter = null;
+            sessionLease = null;
+            topoSubscription = null;
+        }
+        cancelWaitForSubDevice(subscription);
+        if (flow != null) {
+            flow.cancel();
+        }
+        if (waiter != null) {
+            waiter.cancel();
+        }
+        if (lease != null) {
+            lease.release();//其他账号的流程才可以登录
+        }
+        return true;
+    }
+
+    /**
+     * 登录，同一authCode已登录时复用会话
+     */
+    private void authCodeLogin(final int session) {
+        LoginSessionManager.Lease lease = LoginSessionManager.getInstance().ensureLogin(authCode, new LoginSessionManager.SessionCallback() {
+            @Override
+            public void onSessionReady(boolean reused) {
+                TraceLog.d(TAG, "authCodeLogin onSessionReady: reused={}", reused);
+                if (reused) {
+                    openWindow(session);
+                    return;
+                }
+                if (!state.moveTo(session, BindPhase.CHANNEL)) {
+                    return;
+                }
+                ChannelReadyGate.Waiter waiter = ChannelReadyGate.getInstance().await(new ChannelReadyGate.ReadyCallback() {
+                    @Override
+                    public void onChannelReady(long waitedMillis, boolean timeout) {
+                        TraceLog.d(TAG, "onChannelReady: {}ms timeout={}", waitedMillis, timeout);
+                        openWindow(session);
+                    }
+                });
+                synchronized (lock) {
+                    if (state.isActive(session)) {
+                        readyWaiter = waiter;
+                        waiter = null;
+                    }
+                }
+                if (waiter != null) {
+                    waiter.cancel();//等待期间流程已结束
+                }
+            }
+
+            @Override
+            public void onSessionFailed(Exception e) {
+                TraceLog.e(TAG, "authCodeLogin onSessionFailed: {}", e.getMessage());
+                handleFailure(session, e);
+            }
+        });
+        synchronized (lock) {
+            if (state.isActive(session)) {
+                sessionLease = lease;
+                lease = null;
+            }
+        }
+        if (lease != null) {
+            lease.release();//登录期间流程已结束
+        }
+    }
+
+    /**
+     * 打开入网窗口：注册下行监听并通知网关允许添加子设备，窗口时间到后关闭
+     */
+    private void openWindow(final int session) {
+        if (!state.moveTo(session, BindPhase.PERMIT)) {
+            return;
+        }
+        TraceLog.d(TAG, "openWindow");
+        TopoStatusRouter.Subscription subscription = TopoStatusRouter.getInstance().subscribe(Gateway_IotId, SubNode_ProductKey, new TopoStatusRouter.TopoStatusListener() {
+            @Override
+            public void onTopoStatus(TopoStatus topoStatus) {
+                onSubDeviceReport(session, topoStatus.status, new SubDevice(topoStatus.subIotId, topoStatus.subProductKey, topoStatus.subDeviceName));
+            }
+        });
+        synchronized (lock) {
+            if (state.isActive(session)) {
+                windowOpen = true;
+                topoSubscription = subscription;
+                subscription = null;
+                runFlow.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeWindow(session);
+                    }
+                }, time_second * 1000L);
+            }
+        }
+        if (subscription != null) {
+            cancelWaitForSubDevice(subscription);//注册期间流程已结束
+            return;
+        }
+        notifyGatewayOpen(session);
+    }
+
+    private void onSubDeviceReport(int session, int status, SubDevice device) {
+        TraceLog.d(TAG, "onSubDeviceReport: {} {}", status, device);
+        synchronized (lock) {
+            if (!state.isActive(session) || !windowOpen) {
+                return;
+            }
+            if (status == TopoStatus.STATUS_BOUND_BY_OTHER_GATEWAY || status == TopoStatus.STATUS_FAILURE) {
+                if (!acceptedDevices.contains(device.key())) {
+                    (status == TopoStatus.STATUS_FAILURE ? status2Devices : status1Devices).put(device.key(), device);
+                }
+                return;
+            }
+            if (status != TopoStatus.STATUS_SUCCESS || !acceptedDevices.add(device.key())) {
+                return;
+            }
+            status1Devices.remove(device.key());
+            status2Devices.remove(device.key());
+            device.retryTracker = retryPolicy.newTracker("/awss/time/window/user/bind");
+            pendingBinds.add(device);
+        }
+        drainPendingBinds(session);
+    }
+
+    /**
+     * 在并发上限内取出待绑定子设备执行绑定
+     */
+    private void drainPendingBinds(int session) {
+        while (true) {
+            SubDevice device;
+            synchronized (lock) {
+                if (!state.isActive(session) || inFlightBinds >= maxConcurrentBinds || pendingBinds.isEmpty()) {
+                    return;
+                }
+                device = pendingBinds.poll();
+                inFlightBinds++;
+            }
+            unbindRelation(session, device);
+        }
+    }
+
+    private void closeWindow(int session) {
+        Map<String, SubDevice> alreadyBound;
+        Map<String, SubDevice> registerFailed;
+        Set<SubDevice> retrying;
+        TopoStatusRouter.Subscription subscription;
+        synchronized (lock) {
+            if (!state.isActive(session)) {
+                return;
+            }
+            TraceLog.d(TAG, "closeWindow");
+            windowOpen = false;
+            subscription = topoSubscription;
+            topoSubscription = null;
+            alreadyBound = new HashMap<>(status1Devices);
+            status1Devices.clear();
+            registerFailed = new HashMap<>(status2Devices);
+            status2Devices.clear();
+            registerFailed.keySet().removeAll(alreadyBound.keySet());//同一设备两种上报都有时按已被绑定处理
+            retrying = new HashSet<>(retryingBinds);
+            retryingBinds.clear();
+            inFlightBinds -= retrying.size();
+        }
+        cancelWaitForSubDevice(subscription);
+        for (SubDevice device : alreadyBound.values()) {
+            reportDeviceFailure(session, device, new AlreadyBoundException("子设备在别的网关被绑定，无法通知阿里云解除拓扑关系！"));
+        }
+        for (SubDevice device : registerFailed.values()) {
+            reportDeviceFailure(session, device, new SubDeviceRegisterException("子设备 " + device + " 注册失败",
+                    device.productKey, device.deviceName));
+        }
+        for (SubDevice device : retrying) {
+            reportDeviceFailure(session, device, new Exception("超时失败，设备不在线"));
+        }
+        checkFinish(session);
+    }
+
+    private void cancelWaitForSubDevice(TopoStatusRouter.Subscription subscription) {
+        if (subscription != null) {
+            TraceLog.d(TAG, "cancelWaitForSubDevice");
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * 通知网关允许添加子设备，整个批量流程只发送一次
+     */
+    private void notifyGatewayOpen(final int session) {
+        if (!state.isActive(session)) {
+            return;
+        }
+        IoTRequestExecutor.Request request = IoTRequestExecutor.getInstance()
+                .newRequest("/thing/gateway/permit", "1.0.2")
+                .addParam("iotId", Gateway_IotId)
+                .addParam("productKey", SubNode_ProductKey)
+                .addParam("time", time_second);
+
+        IoTRequestExecutor.getInstance().execute(request, new IoTRequestExecutor.ResultCallback() {
+            @Override
+            public void onResult(IoTResult result) {
+                TraceLog.d(TAG, "notifyGatewayOpen onResult: {}", result);
+                if (!state.isActive(session)) {
+                    return;//上一次流程的响应
+                }
+                state.setResultCode(result.getCode());
+                if (result.isSuccess()) {
+                    state.moveTo(session, BindPhase.PERMIT, BindPhase.WAITING);
+                    return;
+                }
+                if (result.getStatus() == IoTResult.Status.NETWORK_FAILURE) {
+                    handleFailure(session, new Exception("通知网关进入发现节点模式失败", result.getException()));
+                } else {
+                    handleFailure(session, new Exception("网关无法进入发现节点模式，code=" + result.getCode() + " data=" + result.getLocalizedMsg()));
+                }
+            }
+        });
+    }
+
+    private void unbindRelation(final int session, final SubDevice device) {
+        if (!state.isActive(session)) {
+            return;
+        }
+        final BatchCallback callback = batchCallback;
+        if (callback == null) {
+            return;
+        }
+        final UnbindRelationCallback done = new UnbindRelationCallback() {
+            private final AtomicBoolean completed = new AtomicBoolean();
+
+            @Override
+            public void onComplete(boolean unbound) {
+                if (!completed.compareAndSet(false, true) || !state.isActive(session)) {
+                    return;
+                }
+                if (unbound) {
+                    if (bindingRegistry != null) {
+                        bindingRegistry.remove(authCode, device.productKey, device.deviceName);
+                    }
+                    bindSubDevice(session, device);
+                } else {
+                    onBindDone(session, device, null, new NeedUnbindFirstException("需要确保已经解除了设备上所有绑定关系"));
+                }
+            }
+        };
+        //不在长连接通道的下行线程、也不在定时线程中执行调用层的解绑操作
+        Executor executor = hookExecutor != null ? hookExecutor : HookExecutor.getDefault();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!state.isActive(session)) {
+                    return;
+                }
+                try {
+                    if (callback instanceof AsyncBatchCallback) {
+                        ((AsyncBatchCallback) callback).unbindRelationAsync(device.iotId, device.productKey, device.deviceName, done);
+                    } else {
+                        done.onComplete(callback.isUnbindRelation(device.iotId, device.productKey, device.deviceName));
+                    }
+                } catch (RuntimeException e) {
+                    TraceLog.e(TAG, "unbindRelation error: {}", device, e);
+                    done.onComplete(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * 通知Ali绑定单个子设备
+     */
+    private void bindSubDevice(final int session, final SubDevice device) {
+        if (!state.isActive(session)) {
+            return;
+        }
+        device.retryTracker.onAttempt();
+        IoTRequestExecutor.Request request = IoTRequestExecutor.getInstance()
+                .newRequest("/awss/time/window/user/bind", "1.0.8")
+                .addParam("productKey", device.productKey)
+                .addParam("deviceName", device.deviceName);
+
+        IoTRequestExecutor.getInstance().execute(request, new IoTRequestExecutor.ResultCallback() {
+            @Override
+            public void onResult(IoTResult result) {
+                TraceLog.d(TAG, "bindSubDevice onResult: {} {}", device, result);
+                if (!state.isActive(session)) {
+                    return;
+                }
+                if (result.isSuccess()) {
+                    try {
+                        String iotId = result.getDataString("iotId");
+                        if (bindingRegistry != null) {
+                            bindingRegistry.put(authCode, device.productKey, device.deviceName, iotId);
+                        }
+                        onBindDone(session, device, iotId, null);
+                    } catch (JSONException e) {
+                        onBindDone(session, device, null, new Exception("绑定结果解析失败", e));
+                    }
+                } else if (retryBindSubDevice(session, device, result.getCode())) {
+                    //6221 设备不在线、网络失败、限流等，按重试策略退避后重试
+                    TraceLog.d(TAG, "bindSubDevice onResult: {} 稍后重试", device);
+                } else {
+                    switch (result.getStatus()) {
+                        case NETWORK_FAILURE:
+                            onBindDone(session, device, null, new Exception("绑定节点设备失败", result.getException()));
+                            break;
+                        case DEVICE_OFFLINE://设备不在线，窗口已关闭或重试次数已用完
+                            onBindDone(session, device, null, new Exception("超时失败，设备不在线"));
+                            break;
+                        case ALREADY_BOUND://已被绑定错误
+                            resolveAlreadyBound(session, device, result.getLocalizedMsg());
+                            break;
+                        default:
+                            onBindDone(session, device, null, new Exception("绑定阶段失败,code=" + result.getCode() + " data:" + result.getData()));
+                            break;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 2064 时查询子设备是否已绑定在当前账号下，是则按成功处理，查询期间占用的并发名额保持不变
+     */
+    private void resolveAlreadyBound(final int session, final SubDevice device, String localizedMsg) {
+        BindingRegistry.resolveAlreadyBound(bindingRegistry, authCode, device.productKey, device.deviceName,
+                localizedMsg, new BindingRegistry.AlreadyBoundCallback() {
+                    @Override
+                    public void onBoundToAccount(String iotId) {
+                        onBindDone(session, device, iotId, null);
+                    }
+
+                    @Override
+                    public void onAlreadyBound(AlreadyBoundException e) {
+                        onBindDone(session, device, null, e);
+                    }
+                });
+    }
+
+    /**
+     * 窗口期内按重试策略延时重试，占用的并发名额保持不变
+     *
+     * @return false:流程已结束、窗口已关闭、该错误不重试或重试次数已用完
+     */
+    private boolean retryBindSubDevice(final int session, final SubDevice device, int code) {
+        synchronized (lock) {
+            if (!state.isActive(session) || !windowOpen) {
+                return false;
+            }
+            long delay = device.retryTracker.nextDelay(code);
+            if (delay < 0) {
+                return false;
+            }
+            retryingBinds.add(device);
+            runFlow.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (lock) {
+                        if (!state.isActive(session) || !retryingBinds.remove(device)) {
+                            return;
+                        }
+                    }
+                    bindSubDevice(session, device);
+                }
+            }, delay);
+            return true;
+        }
+    }
+
+    private void onBindDone(int session, SubDevice device, String iotId, Exception e) {
+        synchronized (lock) {
+            if (!state.isActive(session)) {
+                return;//流程已结束，新流程的在途数量不受影响
+            }
+            inFlightBinds--;
+        }
+        if (e == null) {
+            reportDeviceSuccess(session, device, iotId);
+        } else {
+            reportDeviceFailure(session, device, e);
+        }
+        drainPendingBinds(session);
+        checkFinish(session);
+    }
+
+    private void reportDeviceSuccess(int session, SubDevice device, String iotId) {
+        BatchCallback callback;
+        synchronized (lock) {
+            if (!state.isActive(session)) {
+                return;
+            }
+            successCount++;
+            callback = batchCallback;
+        }
+        device.retryTracker.finish(true);
+        if (callback != null) {
+            callback.onDeviceBound(iotId, device.productKey, device.deviceName);
+        }
+    }
+
+    private void reportDeviceFailure(int session, SubDevice device, Exception e) {
+        BatchCallback callback;
+        synchronized (lock) {
+            if (!state.isActive(session)) {
+                return;
+            }
+            failureCount++;
+            callback = batchCallback;
+        }
+        if (device.retryTracker != null) {
+            device.retryTracker.finish(false);
+        }
+        if (callback != null) {
+            callback.onDeviceFailure(device.productKey, device.deviceName, e);
+        }
+    }
+
+    /**
+     * 窗口已关闭且没有在途、排队的绑定时，整个批量流程结束
+     */
+    private void checkFinish(int session) {
+        int success;
+        int failure;
+        BatchCallback callback;
+        synchronized (lock) {
+            if (!state.isActive(session) || windowOpen || inFlightBinds > 0 || !pendingBinds.isEmpty()) {
+                return;
+            }
+            success = successCount;
+            failure = failureCount;
+            callback = batchCallback;
+        }
+        if (!finishRun(session, BindPhase.DONE)) {
+            return;
+        }
+        if (callback != null) {
+            callback.onFinish(success, failure);
+        }
+    }
+
+    private void handleFailure(int session, Exception e) {
+        BatchCallback callback = batchCallback;
+        if (!finishRun(session, BindPhase.FAILED)) {
+            return;
+        }
+        if (callback != null) {
+            TraceLog.onFailure(TAG, e);
+            callback.onFailure(e);
+        }
+    }
+
+    private static class SubDevice {
+        final String iotId;
+        final String productKey;
+        final String deviceName;
+        RetryPolicy.Tracker retryTracker;
+
+        SubDevice(String iotId, String productKey, String deviceName) {
+            this.iotId = iotId;
+            this.productKey = productKey;
+            this.deviceName = deviceName;
+        }
+
+        String key() {
+            return productKey + "/" + deviceName;
+        }
+
+        @Override
+        public String toString() {
+            return key();
+        }
+    }
+}
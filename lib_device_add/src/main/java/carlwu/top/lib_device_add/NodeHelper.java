@@ -1,47 +1,54 @@
 package carlwu.top.lib_device_add;
 
-import android.util.Log;
-
-import com.aliyun.alink.linksdk.channel.core.base.AError;
-import com.aliyun.alink.linksdk.channel.mobile.api.IMobileDownstreamListener;
-import com.aliyun.alink.linksdk.channel.mobile.api.IMobileRequestListener;
-import com.aliyun.alink.linksdk.channel.mobile.api.MobileChannel;
-import com.aliyun.iot.aep.sdk.apiclient.IoTAPIClient;
-import com.aliyun.iot.aep.sdk.apiclient.IoTAPIClientFactory;
-import com.aliyun.iot.aep.sdk.apiclient.callback.IoTCallback;
-import com.aliyun.iot.aep.sdk.apiclient.callback.IoTResponse;
-import com.aliyun.iot.aep.sdk.apiclient.request.IoTRequest;
-import com.aliyun.iot.aep.sdk.apiclient.request.IoTRequestBuilder;
-import com.aliyun.iot.aep.sdk.login.ILoginCallback;
-import com.aliyun.iot.aep.sdk.login.ILogoutCallback;
-import com.aliyun.iot.aep.sdk.login.LoginBusiness;
-
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import carlwu.top.lib_device_add.exceptions.AlreadyBoundException;
 import carlwu.top.lib_device_add.exceptions.NeedUnbindFirstException;
+import carlwu.top.lib_device_add.exceptions.SubDeviceRegisterException;
 
 /**
  * #### 1.登录  LoginBusiness.authCodeLogin
- * #### 2.订阅监听 MobileChannel.getInstance().registerDownstreamListener
+ * #### 2.订阅子设备入网结果 TopoStatusRouter.subscribe
  * #### 3.通知网关允许发现子设备  /thing/gateway/permit
- * #### 4.取消监听 MobileChannel.getInstance().unRegisterDownstreamListener
- * #### 5.解绑长连接通道 MobileChannel.getInstance().unBindAccount();
- * #### 6.登出 LoginBusiness.logout();
+ * #### 4.取消订阅 TopoStatusRouter.Subscription.cancel
+ * <p>
+ * 登录会话由 {@link LoginSessionManager} 管理，同一authCode的会话在多次绑定间复用，
+ * 需要解绑长连接通道并登出时调用 {@link LoginSessionManager#logout()}
  */
 public class NodeHelper {
     private BindCallback bindCallback;
-    private Timer runTimer;
-    private TimerTask timeoutTimerTask;
+    private final BindScheduler scheduler;
+    private BindScheduler.Flow runFlow;//本次流程的定时任务
+    private ChannelReadyGate.Waiter readyWaiter;//登录后等待长连接通道就绪
+    private volatile LoginSessionManager.Lease sessionLease;//流程结束时释放
+    private ScheduledFuture<?> timeoutFuture;
     private final String TAG = "NodeHelper";
-    private volatile boolean status;//工作状态
+    private final BindStateMachine state = new BindStateMachine(TAG);//工作状态
+    private RetryPolicy retryPolicy = RetryPolicy.forSubDeviceBind();
+    private RetryPolicy.Tracker retryTracker;
+    private TopoFailFastPolicy failFastPolicy = TopoFailFastPolicy.defaults();
+    private ScheduledFuture<?> failFastFuture;//status 1、2 的宽限等待
+    private int rearmCount;
+    private BindJournal journal;
+    private String journalKey;
+    private BindJournal.Entry resumeEntry;//上次进程中断前已收到的入网上报
+    private Executor hookExecutor;
 
     public NodeHelper(BindCallback bindCallback) {
+        this(bindCallback, BindScheduler.getDefault());
+    }
+
+    /**
+     * @param scheduler 定时任务调度器，多个流程共享线程
+     */
+    public NodeHelper(BindCallback bindCallback, BindScheduler scheduler) {
         this.bindCallback = bindCallback;
+        this.scheduler = scheduler;
     }
 
     public interface BindCallback {
@@ -67,8 +74,101 @@ public class NodeHelper {
         void onSuccess(String subIotId, String subProductKey, String subDeviceName);
     }
 
+    /**
+     * 异步处理解绑操作的回调，例如需要请求自己的服务端解除管理员账号的绑定关系
+     * <p>
+     * 实现该接口时不再调用 {@link #isUnbindRelation}，长连接通道线程不会被阻塞
+     */
+    public interface AsyncBindCallback extends BindCallback {
+        /**
+         * 通知调用层解绑设备的所有绑定关系，处理完成后调用 done
+         */
+        void unbindRelationAsync(String subIotId, String subProductKey, String subDeviceName, UnbindRelationCallback done);
+    }
+
+    /**
+     * 只需实现 unbindRelationAsync 的 {@link AsyncBindCallback}
+     * <p>
+     * 同步的 {@link #isUnbindRelation} 由 unbindRelationAsync 实现：调用后阻塞等待 done，被中断时返回false
+     */
+    public abstract static class AsyncBindAdapter implements AsyncBindCallback {
+        @Override
+        public boolean isUnbindRelation(String subIotId, String subProductKey, String subDeviceName) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final boolean[] result = new boolean[1];
+            unbindRelationAsync(subIotId, subProductKey, subDeviceName, new UnbindRelationCallback() {
+                @Override
+                public void onComplete(boolean unbound) {
+                    synchronized (result) {
+                        if (latch.getCount() == 0) {
+                            return;
+                        }
+                        result[0] = unbound;
+                        latch.countDown();
+                    }
+                }
+            });
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            synchronized (result) {
+                return result[0];
+            }
+        }
+    }
+
+    /**
+     * 设置耗时统计，默认 {@link BindMetrics#NO_OP} 不计时
+     */
+    public void setBindMetrics(BindMetrics bindMetrics) {
+        state.setMetrics(bindMetrics);
+    }
+
+    /**
+     * 设置子设备绑定的重试策略，默认 {@link RetryPolicy#forSubDeviceBind()}
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * 设置子设备入网结果为 status 1、2 时的处理策略，默认 {@link TopoFailFastPolicy#defaults()}
+     */
+    public void setFailFastPolicy(TopoFailFastPolicy failFastPolicy) {
+        this.failFastPolicy = failFastPolicy;
+    }
+
+    /**
+     * 设置执行解绑回调（isUnbindRelation、unbindRelationAsync）的线程池，默认使用库内共享的回调线程，
+     * 不占用 {@link BindScheduler} 的定时线程
+     */
+    public void setHookExecutor(Executor hookExecutor) {
+        this.hookExecutor = hookExecutor;
+    }
+
+    /**
+     * 设置绑定进度日志，进程被杀后重新 startBind 同一网关、同一productKey时，
+     * 已收到子设备入网上报的直接进入绑定，不再重新打开入网窗口。默认不记录
+     */
+    public void setJournal(BindJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * 设置已绑定设备的记录，绑定成功时写入，返回2064时查询子设备是否已绑定在当前账号下。默认不使用
+     * <p>
+     * 子设备绑定前调用层会解除其所有绑定关系，因此不会因为已有记录而跳过绑定
+     */
+    public void setBindingRegistry(BindingRegistry bindingRegistry) {
+        this.bindingRegistry = bindingRegistry;
+    }
+
     private int time_second = 60;//超时时间
     private String authCode;
+    private BindingRegistry bindingRegistry;
     private String Gateway_IotId;
     private String SubNode_ProductKey;
 
@@ -80,22 +180,31 @@ public class NodeHelper {
      * @param SubNode_ProductKey 允许接入网关的子设备产品标识符
      */
     public void startBind(final String authCode, String Gateway_IotId, String SubNode_ProductKey, int time_second) throws InterruptedException {
-        if (status) {
-            throw new RuntimeException("流程进行中，不可重复startBind。");
-        }
         if (time_second < 20 || time_second > 200) {
             throw new RuntimeException("time_second 需要 >=20 <=200");
         }
-        Log.d(TAG, "start: ");
-        status = true;
+        if (!state.start(BindPhase.LOGIN)) {
+            throw new RuntimeException("流程进行中，不可重复startBind。");
+        }
+        final int session = state.session();
+        TraceLog.d(TAG, "start");
         isStatus1Error = false;
+        rearmCount = 0;
         this.authCode = authCode;
         this.Gateway_IotId = Gateway_IotId;
         this.SubNode_ProductKey = SubNode_ProductKey;
         this.time_second = time_second;
+        retryTracker = retryPolicy.newTracker("/awss/time/window/user/bind");
+        state.setRetryTracker(retryTracker);
+        BindJournal journal = this.journal;
+        journalKey = journal == null ? null : BindJournal.nodeKey(Gateway_IotId, SubNode_ProductKey);
+        resumeEntry = journal == null ? null : journal.find(journalKey);
+        if (resumeEntry != null) {
+            TraceLog.d(TAG, "resume: {}", resumeEntry);
+        }
 
-        runTimer = new Timer();
-        timeoutTimerTask = new TimerTask() {
+        runFlow = scheduler.newFlow();
+        timeoutFuture = runFlow.schedule(new Runnable() {
             @Override
             public void run() {
                 Exception exception;
@@ -104,61 +213,119 @@ public class NodeHelper {
                 } else {
                     exception = new Exception("超时失败");
                 }
-                handleFailure(exception);
+                handleFailure(session, exception);
             }
-        };
-        runTimer.schedule(timeoutTimerTask, time_second * 1000);
-        unBindChannel();
+        }, time_second * 1000L);
+        authCodeLogin(session);
+    }
+
+    /**
+     * 当前阶段
+     */
+    public BindPhase getPhase() {
+        return state.get();
     }
 
     /**
      * 结束节点绑定
      */
     public void stopBind() {
-        if (!status) {
+        if (!state.finish(BindPhase.CANCELLED)) {
             return;
         }
-        Log.d(TAG, "stop: ");
-        status = false;
+        TraceLog.d(TAG, "stop");
+        release();
+    }
+
+    /**
+     * 流程结束后释放监听和定时任务，可重复调用
+     */
+    private void release() {
         isStatus1Error = false;
         this.bindCallback = null;
         cancelWaitForSubDevice();
-        if (runTimer != null) {
-            runTimer.cancel();
+        if (runFlow != null) {
+            runFlow.cancel();
+        }
+        if (readyWaiter != null) {
+            readyWaiter.cancel();
+        }
+        readyWaiter = null;
+        timeoutFuture = null;
+        resumeEntry = null;
+        if (journal != null && journalKey != null) {
+            journal.clear(journalKey);
+        }
+        releaseSession();
+    }
+
+    /**
+     * 释放登录会话，其他账号的流程才可以登录
+     */
+    private void releaseSession() {
+        LoginSessionManager.Lease lease = sessionLease;
+        sessionLease = null;
+        if (lease != null) {
+            lease.release();
         }
-        runTimer = null;
-        timeoutTimerTask = null;
-        unBindChannel();
     }
 
-    private void authCodeLogin() {
-        if (!status) {
+    /**
+     * 登录，同一authCode已登录时复用会话
+     */
+    private void authCodeLogin(final int session) {
+        if (!state.isActive(session)) {
             return;
         }
-        LoginBusiness.authCodeLogin(authCode, new ILoginCallback() {
+        sessionLease = LoginSessionManager.getInstance().ensureLogin(authCode, new LoginSessionManager.SessionCallback() {
             @Override
-            public void onLoginSuccess() {
-                Log.d(TAG, "authCodeLogin onLoginSuccess: ");
-                if (!status) {
+            public void onSessionReady(boolean reused) {
+                TraceLog.d(TAG, "authCodeLogin onSessionReady: reused={}", reused);
+                if (!state.isActive(session)) {
                     return;
                 }
-                runTimer.schedule(new TimerTask() {
+                if (reused) {
+                    afterLogin(session);
+                    return;
+                }
+                state.moveTo(session, BindPhase.CHANNEL);
+                readyWaiter = ChannelReadyGate.getInstance().await(new ChannelReadyGate.ReadyCallback() {
                     @Override
-                    public void run() {
-                        waitForSubDevice();
+                    public void onChannelReady(long waitedMillis, boolean timeout) {
+                        TraceLog.d(TAG, "onChannelReady: {}ms timeout={}", waitedMillis, timeout);
+                        afterLogin(session);
                     }
-                }, 2000);
+                });
             }
 
             @Override
-            public void onLoginFailed(int i, String s) {
-                Log.e(TAG, "authCodeLogin onLoginFailed: " + s);
-                handleFailure(new Exception("authCode登录失败" + s));
+            public void onSessionFailed(Exception e) {
+                TraceLog.e(TAG, "authCodeLogin onSessionFailed: {}", e.getMessage());
+                handleFailure(session, e);
             }
         });
+        if (!state.isActive(session)) {
+            releaseSession();//登录期间流程已结束
+        }
     }
 
-    private IMobileDownstreamListener iMobileDownstreamListener;
+    /**
+     * 登录完成，有中断前的入网上报时直接进入绑定，否则等待子设备入网
+     */
+    private void afterLogin(final int session) {
+        BindJournal.Entry entry = resumeEntry;
+        resumeEntry = null;
+        if (entry == null || entry.phase != BindPhase.BINDING) {
+            waitForSubDevice(session);
+            return;
+        }
+        if (!state.moveTo(session, BindPhase.BINDING)) {
+            return;
+        }
+        unbindRelation(session, entry.get("subIotId"), entry.get("subProductKey"), entry.get("subDeviceName"));
+    }
+
+    private TopoStatusRouter.Subscription topoSubscription;
 
     private boolean isStatus1Error = false;//标记可能是status = 1 的错误，子设备在别的网关被绑定了，网关离线，无法通知阿里云你解除拓扑关系，无法抢占绑定子设备。
 
@@ -169,94 +336,138 @@ public class NodeHelper {
      * 1：子设备注册成功，但设备已被其它网关绑定，(一种复现场景：节点绑定在网关A下，网关A断网后，操作网关B绑定节点)
      * 2：子设备注册失败。
      */
-    private void waitForSubDevice() {
-        if (!status) {
+    private void waitForSubDevice(final int session) {
+        if (!state.isActive(session)) {
             return;
         }
-        Log.d(TAG, "waitForSubDevice: ");
-        iMobileDownstreamListener = new IMobileDownstreamListener() {
+        TraceLog.d(TAG, "waitForSubDevice");
+        state.moveTo(session, BindPhase.PERMIT);
+        topoSubscription = TopoStatusRouter.getInstance().subscribe(Gateway_IotId, SubNode_ProductKey, new TopoStatusRouter.TopoStatusListener() {
             @Override
-            public void onCommand(String s, String s1) {
-                Log.d(TAG, "onCommand: " + s + " " + s1);
-                if (!status) {
+            public void onTopoStatus(TopoStatus topoStatus) {
+                TraceLog.d(TAG, "onTopoStatus: {}", topoStatus);
+                if (!state.isActive(session)) {
                     return;
                 }
-                try {
-                    final JSONObject jsonObject = new JSONObject(s1);
-                    int status = jsonObject.optInt("status", -1);
-                    final String subProductKey = jsonObject.getString("subProductKey");
-                    final String subDeviceName = jsonObject.getString("subDeviceName");
-                    final String subIotId = jsonObject.getString("subIotId");
-                    if (status == 1) {
-                        isStatus1Error = true;
+                if (topoStatus.status == TopoStatus.STATUS_BOUND_BY_OTHER_GATEWAY) {
+                    isStatus1Error = true;
+                }
+                if (topoStatus.status == TopoStatus.STATUS_BOUND_BY_OTHER_GATEWAY
+                        || topoStatus.status == TopoStatus.STATUS_FAILURE) {
+                    onTerminalStatus(session, topoStatus);
+                }
+                if (topoStatus.status == TopoStatus.STATUS_SUCCESS) {
+                    //上报可能早于入网响应到达；重复的上报已不在这两个阶段
+                    if (!state.moveTo(session, BindPhase.PERMIT, BindPhase.BINDING)
+                            && !state.moveTo(session, BindPhase.WAITING, BindPhase.BINDING)) {
+                        return;
                     }
-                    if (status == 0) {
-                        cancelWaitForSubDevice();
-                        unbindRelation(subIotId, subProductKey, subDeviceName);
+                    cancelWaitForSubDevice();
+                    if (journal != null) {
+                        journal.record(journalKey, BindPhase.BINDING, "subIotId", topoStatus.subIotId,
+                                "subProductKey", topoStatus.subProductKey, "subDeviceName", topoStatus.subDeviceName);
                     }
-                } catch (JSONException e) {
-                    e.printStackTrace();
+                    unbindRelation(session, topoStatus.subIotId, topoStatus.subProductKey, topoStatus.subDeviceName);
                 }
             }
+        });
+        notifyGatewayOpen(session);
+    }
 
-            @Override
-            public boolean shouldHandle(String s) {
-                Log.d(TAG, "shouldHandle: " + s);
-                if ("/thing/topo/add/status".equals(s))
-                    return true;
-                return false;
+    /**
+     * 收到 status 1、2，宽限时间内没有收到 status 0 时按策略结束流程或重新打开入网窗口
+     */
+    private void onTerminalStatus(final int session, final TopoStatus topoStatus) {
+        final TopoFailFastPolicy.Action action = failFastPolicy.getAction(topoStatus.status);
+        if (action == TopoFailFastPolicy.Action.WAIT_TIMEOUT) {
+            return;
+        }
+        synchronized (this) {
+            if (failFastFuture != null) {
+                return;
             }
-        };
-        MobileChannel.getInstance().registerDownstreamListener(true, iMobileDownstreamListener);
-        notifyGatewayOpen();
+            failFastFuture = runFlow.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    failFast(session, topoStatus, action);
+                }
+            }, failFastPolicy.getGraceMillis());
+        }
+    }
+
+    private void failFast(int session, TopoStatus topoStatus, TopoFailFastPolicy.Action action) {
+        synchronized (this) {
+            failFastFuture = null;
+        }
+        if (!state.isActive(session) || topoSubscription == null) {
+            //已收到 status 0 进入绑定阶段
+            return;
+        }
+        if (action == TopoFailFastPolicy.Action.REARM && rearmCount < failFastPolicy.getMaxRearms()) {
+            rearmCount++;
+            TraceLog.d(TAG, "failFast rearm: {} {}", rearmCount, topoStatus);
+            notifyGatewayOpen(session);
+            return;
+        }
+        TraceLog.d(TAG, "failFast: {}", topoStatus);
+        String device = topoStatus.subProductKey + "/" + topoStatus.subDeviceName;
+        if (topoStatus.status == TopoStatus.STATUS_BOUND_BY_OTHER_GATEWAY) {
+            handleFailure(session, new AlreadyBoundException("子设备 " + device + " 在别的网关被绑定，无法通知阿里云解除拓扑关系！",
+                    topoStatus.subProductKey, topoStatus.subDeviceName));
+        } else {
+            handleFailure(session, new SubDeviceRegisterException("子设备 " + device + " 注册失败",
+                    topoStatus.subProductKey, topoStatus.subDeviceName));
+        }
     }
 
     private void cancelWaitForSubDevice() {
-        if (iMobileDownstreamListener != null) {
-            Log.d(TAG, "cancelWaitForSubDevice: ");
-            MobileChannel.getInstance().unRegisterDownstreamListener(iMobileDownstreamListener);
+        synchronized (this) {
+            if (failFastFuture != null) {
+                failFastFuture.cancel(false);
+                failFastFuture = null;
+            }
         }
-        iMobileDownstreamListener = null;
+        TopoStatusRouter.Subscription subscription = topoSubscription;
+        if (subscription != null) {
+            TraceLog.d(TAG, "cancelWaitForSubDevice");
+            subscription.cancel();
+        }
+        topoSubscription = null;
     }
 
     /**
      * 通知网关允许添加子设备
      */
-    private void notifyGatewayOpen() {
-        if (!status) {
+    private void notifyGatewayOpen(final int session) {
+        if (!state.isActive(session)) {
             return;
         }
         /**
          * time
          * 建议值 20-200 ，网关会在超时时间到了后再退出配网模式
          */
-        IoTRequestBuilder builder = new IoTRequestBuilder()
-                .setPath("/thing/gateway/permit")
-                .setApiVersion("1.0.2")
-                .setAuthType("iotAuth")
+        IoTRequestExecutor.Request request = IoTRequestExecutor.getInstance()
+                .newRequest("/thing/gateway/permit", "1.0.2")
                 .addParam("iotId", Gateway_IotId)
                 .addParam("productKey", SubNode_ProductKey)
                 .addParam("time", time_second);
 
-        IoTRequest request = builder.build();
-
-        IoTAPIClient ioTAPIClient = new IoTAPIClientFactory().getClient();
-
-        ioTAPIClient.send(request, new IoTCallback() {
-            @Override
-            public void onFailure(IoTRequest ioTRequest, Exception e) {
-                Log.e(TAG, "notifyGatewayOpen onFailure: ", e);
-                handleFailure(new Exception("通知网关进入发现节点模式失败", e));
-            }
-
+        IoTRequestExecutor.getInstance().execute(request, new IoTRequestExecutor.ResultCallback() {
             @Override
-            public void onResponse(IoTRequest ioTRequest, IoTResponse ioTResponse) {
-                Log.d(TAG, "notifyGatewayOpen onResponse: " + ioTResponse.getCode() + " " + ioTResponse.getLocalizedMsg());
-                final int code = ioTResponse.getCode();
-                if (code == 200) {
-//                    waitForSubDevice();
+            public void onResult(IoTResult result) {
+                TraceLog.d(TAG, "notifyGatewayOpen onResult: {}", result);
+                if (!state.isActive(session)) {
+                    return;
+                }
+                state.setResultCode(result.getCode());
+                if (result.isSuccess()) {
+                    state.moveTo(session, BindPhase.PERMIT, BindPhase.WAITING);//已进入绑定阶段时不回退
+                    return;
+                }
+                if (result.getStatus() == IoTResult.Status.NETWORK_FAILURE) {
+                    handleFailure(session, new Exception("通知网关进入发现节点模式失败", result.getException()));
                 } else {
-                    handleFailure(new Exception("网关无法进入发现节点模式，code=" + code + " data=" + ioTResponse.getLocalizedMsg()));
+                    handleFailure(session, new Exception("网关无法进入发现节点模式，code=" + result.getCode() + " data=" + result.getLocalizedMsg()));
                 }
             }
         });
@@ -269,23 +480,53 @@ public class NodeHelper {
      * @param subProductKey
      * @param subDeviceName
      */
-    private void unbindRelation(final String subIotId, final String subProductKey, final String subDeviceName) {
-        if (!status) {
+    private void unbindRelation(final int session, final String subIotId, final String subProductKey, final String subDeviceName) {
+        if (!state.isActive(session)) {
             return;
         }
-        if (bindCallback != null) {
-            boolean unbindRelation = bindCallback.isUnbindRelation(subIotId, subProductKey, subDeviceName);
-            if (!status) {
-                return;
+        final BindCallback bindCallback = this.bindCallback;
+        if (bindCallback == null) {
+            handleFailure(session, new Exception("BindCallback不能为空"));
+            return;
+        }
+        final UnbindRelationCallback done = new UnbindRelationCallback() {
+            private final AtomicBoolean completed = new AtomicBoolean();
+
+            @Override
+            public void onComplete(boolean unbound) {
+                if (!completed.compareAndSet(false, true) || !state.isActive(session)) {
+                    return;
+                }
+                if (unbound) {
+                    if (bindingRegistry != null) {
+                        bindingRegistry.remove(authCode, subProductKey, subDeviceName);
+                    }
+                    bindSubDevice(session, subProductKey, subDeviceName);
+                } else {
+                    handleFailure(session, new NeedUnbindFirstException("需要确保已经解除了设备上所有绑定关系"));
+                }
             }
-            if (unbindRelation) {
-                bindSubDevice(subProductKey, subDeviceName);
-            } else {
-                handleFailure(new NeedUnbindFirstException("需要确保已经解除了设备上所有绑定关系"));
+        };
+        //不在长连接通道的下行线程、也不在定时线程中执行调用层的解绑操作
+        Executor executor = hookExecutor != null ? hookExecutor : HookExecutor.getDefault();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!state.isActive(session)) {
+                    return;
+                }
+                try {
+                    if (bindCallback instanceof AsyncBindCallback) {
+                        ((AsyncBindCallback) bindCallback).unbindRelationAsync(subIotId, subProductKey, subDeviceName, done);
+                    } else {
+                        done.onComplete(bindCallback.isUnbindRelation(subIotId, subProductKey, subDeviceName));
+                    }
+                } catch (RuntimeException e) {
+                    TraceLog.e(TAG, "unbindRelation error", e);
+                    done.onComplete(false);
+                }
             }
-        } else {
-            handleFailure(new Exception("BindCallback不能为空"));
-        }
+        });
     }
 
     /**
@@ -294,108 +535,122 @@ public class NodeHelper {
      * @param productKey 待配网设备productKey
      * @param deviceName 待配网设备deviceName
      */
-    private void bindSubDevice(final String productKey, final String deviceName) {
-        if (!status) {
+    private void bindSubDevice(final int session, final String productKey, final String deviceName) {
+        if (!state.isActive(session)) {
             return;
         }
-        timeoutTimerTask.cancel();
-        IoTRequestBuilder builder = new IoTRequestBuilder()
-                .setPath("/awss/time/window/user/bind")
-                .setApiVersion("1.0.8")
-                .setAuthType("iotAuth")
+        ScheduledFuture<?> timeout = timeoutFuture;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        retryTracker.onAttempt();
+        IoTRequestExecutor.Request request = IoTRequestExecutor.getInstance()
+                .newRequest("/awss/time/window/user/bind", "1.0.8")
                 .addParam("productKey", productKey)
                 .addParam("deviceName", deviceName);
 
-        IoTRequest request = builder.build();
-
-        IoTAPIClient ioTAPIClient = new IoTAPIClientFactory().getClient();
-        ioTAPIClient.send(request, new IoTCallback() {
+        IoTRequestExecutor.getInstance().execute(request, new IoTRequestExecutor.ResultCallback() {
             @Override
-            public void onFailure(IoTRequest ioTRequest, Exception e) {
-                Log.e(TAG, "bindSubDevice onFailure: ", e);
-                handleFailure(new Exception("绑定节点设备失败", e));
-            }
-
-            @Override
-            public void onResponse(IoTRequest ioTRequest, IoTResponse ioTResponse) {
-                Log.d(TAG, "bindSubDevice onResponse: " + ioTResponse.getCode() + " " + ioTResponse.getLocalizedMsg() + " " + ioTResponse.getData());
-                if (!status) {
+            public void onResult(IoTResult result) {
+                TraceLog.d(TAG, "bindSubDevice onResult: {} {}", result, result.getData());
+                if (!state.isActive(session)) {
                     return;
                 }
-                final int code = ioTResponse.getCode();
-                if (code == 200) {
+                state.setResultCode(result.getCode());
+                if (result.isSuccess()) {
                     try {
-                        String iotId = ((JSONObject) ioTResponse.getData()).getString("iotId");
-                        if (bindCallback != null) {
-                            bindCallback.onSuccess(iotId, productKey, deviceName);
+                        String iotId = result.getDataString("iotId");
+                        if (bindingRegistry != null) {
+                            bindingRegistry.put(authCode, productKey, deviceName, iotId);
                         }
+                        handleSuccess(session, iotId, productKey, deviceName);
                     } catch (JSONException e) {
-                        e.printStackTrace();
+                        handleFailure(session, new Exception("绑定结果解析失败", e));
                     }
-                    stopBind();
-                } else if (code == 6221) {//设备不在线，请检查设备运行状态
-                    Log.d(TAG, "bindSubDevice onResponse: 设备不在线，1秒后重试");
-                    runTimer.schedule(new TimerTask() {
-                        @Override
-                        public void run() {
-                            bindSubDevice(productKey, deviceName);
-                        }
-                    }, 1000);
+                } else if (retryBindSubDevice(session, result.getCode(), productKey, deviceName)) {
+                    //6221 设备不在线、网络失败、限流等，按重试策略退避后重试
+                    TraceLog.d(TAG, "bindSubDevice onResult: code={} 稍后重试", result.getCode());
                 } else {
-                    if (code == 2064) {//已被绑定错误
-                        handleFailure(new AlreadyBoundException(ioTResponse.getLocalizedMsg()));
-                    } else {
-                        handleFailure(new Exception("绑定阶段失败,code=" + ioTResponse.getCode() + " data:" + ioTResponse.getData()));
+                    switch (result.getStatus()) {
+                        case NETWORK_FAILURE:
+                            handleFailure(session, new Exception("绑定节点设备失败", result.getException()));
+                            break;
+                        case DEVICE_OFFLINE://设备不在线，重试次数已用完
+                            handleFailure(session, new Exception("设备不在线，code=" + result.getCode()));
+                            break;
+                        case ALREADY_BOUND://已被绑定错误
+                            resolveAlreadyBound(session, result.getLocalizedMsg(), productKey, deviceName);
+                            break;
+                        default:
+                            handleFailure(session, new Exception("绑定阶段失败,code=" + result.getCode() + " data:" + result.getData()));
+                            break;
                     }
                 }
             }
         });
     }
 
-    private void unBindChannel() {
-        MobileChannel.getInstance().unBindAccount(new IMobileRequestListener() {
-            @Override
-            public void onSuccess(String s) {
-                Log.d(TAG, "unBindChannel onSuccess: " + s);
-                logout();
-            }
+    /**
+     * 2064 时查询子设备是否已绑定在当前账号下，是则按成功处理
+     */
+    private void resolveAlreadyBound(final int session, String localizedMsg, final String productKey, final String deviceName) {
+        BindingRegistry.resolveAlreadyBound(bindingRegistry, authCode, productKey, deviceName,
+                localizedMsg, new BindingRegistry.AlreadyBoundCallback() {
+                    @Override
+                    public void onBoundToAccount(String iotId) {
+                        handleSuccess(session, iotId, productKey, deviceName);
+                    }
 
-            @Override
-            public void onFailure(AError aError) {
-                Log.d(TAG, "unBindChannel onFailure: " + aError);
-                logout();
-            }
-        });
+                    @Override
+                    public void onAlreadyBound(AlreadyBoundException e) {
+                        handleFailure(session, e);
+                    }
+                });
     }
 
-    private void logout() {
-        LoginBusiness.logout(new ILogoutCallback() {
-            @Override
-            public void onLogoutSuccess() {
-                Log.d(TAG, "logout onLogoutSuccess: ");
-                cleanUserStateSuccess();
-            }
-
+    /**
+     * 按重试策略延时重新绑定
+     *
+     * @return false:该错误不重试或重试次数已用完
+     */
+    private boolean retryBindSubDevice(final int session, int code, final String productKey, final String deviceName) {
+        long delay = retryTracker.nextDelay(code);
+        if (delay < 0 || !state.isActive(session)) {
+            return false;
+        }
+        runFlow.schedule(new Runnable() {
             @Override
-            public void onLogoutFailed(int i, String s) {
-                Log.d(TAG, "logout onLogoutFailed: " + i + " " + s);
-                cleanUserStateSuccess();
+            public void run() {
+                bindSubDevice(session, productKey, deviceName);
             }
-        });
+        }, delay);
+        return true;
     }
 
-    private void cleanUserStateSuccess() {
-        if (!status) {
+    private void handleSuccess(int session, String iotId, String productKey, String deviceName) {
+        BindCallback bindCallback = this.bindCallback;
+        if (!state.finish(session, BindPhase.DONE)) {
             return;
         }
-        Log.d(TAG, "cleanUserStateSuccess: ");
-        authCodeLogin();
+        retryTracker.finish(true);
+        release();
+        if (bindCallback != null) {
+            bindCallback.onSuccess(iotId, productKey, deviceName);
+        }
     }
 
-    private void handleFailure(Exception e) {
+    private void handleFailure(int session, Exception e) {
+        BindCallback bindCallback = this.bindCallback;
+        if (!state.finish(session, BindPhase.FAILED)) {
+            return;
+        }
+        if (retryTracker != null) {
+            retryTracker.finish(false);
+        }
+        release();
+        TraceLog.onFailure(TAG, e);
         if (bindCallback != null) {
             bindCallback.onFailure(e);
         }
-        stopBind();
     }
 }
@@ -0,0 +1,198 @@
+package carlwu.top.lib_device_add;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+import carlwu.top.lib_device_add.exceptions.ManifestFormatException;
+
+/**
+ * 批量配网清单，逐行读取，不一次性读入内存
+ * <p>
+ * 每行一个网关和一种子设备：网关productKey、网关deviceName、子设备productKey（可空，只绑定网关）、
+ * 期望的子设备数量（可空，不校验数量）。同一网关的多种子设备写成相邻的多行。
+ * <p>
+ * CSV：逗号分隔，不支持引号转义；第一行可以是列名（gatewayProductKey,gatewayDeviceName,subProductKey,subCount，
+ * 任意一列是这些列名即按列名行处理，顺序可以不同），没有列名时按该顺序。
+ * JSON Lines：每行一个JSON对象，字段名同CSV列名。空行和 # 开头的行忽略。两种格式的字段校验相同。
+ */
+public class ProvisioningManifest implements Closeable {
+    public static final String GATEWAY_PRODUCT_KEY = "gatewayProductKey";
+    public static final String GATEWAY_DEVICE_NAME = "gatewayDeviceName";
+    public static final String SUB_PRODUCT_KEY = "subProductKey";
+    public static final String SUB_COUNT = "subCount";
+    private static final String[] DEFAULT_COLUMNS = {GATEWAY_PRODUCT_KEY, GATEWAY_DEVICE_NAME, SUB_PRODUCT_KEY, SUB_COUNT};
+
+    private final BufferedReader reader;
+    private final boolean jsonLines;
+    private String[] columns = DEFAULT_COLUMNS;
+    private int lineNumber;
+    private boolean headerChecked;
+
+    /**
+     * 清单中的一行
+     */
+    public static class Row {
+        public final int lineNumber;//在清单文件中的行号，从1开始，断点续传按它识别
+        public final String gatewayProductKey;
+        public final String gatewayDeviceName;
+        public final String subProductKey;//为空时只绑定网关
+        public final int subCount;//期望绑定的子设备数量，0表示不校验
+
+        Row(int lineNumber, String gatewayProductKey, String gatewayDeviceName, String subProductKey, int subCount) {
+            this.lineNumber = lineNumber;
+            this.gatewayProductKey = gatewayProductKey;
+            this.gatewayDeviceName = gatewayDeviceName;
+            this.subProductKey = subProductKey;
+            this.subCount = subCount;
+        }
+
+        /**
+         * 网关标识 productKey/deviceName
+         */
+        public String getGatewayKey() {
+            return gatewayProductKey + "/" + gatewayDeviceName;
+        }
+
+        /**
+         * 行内容标识，用于校验断点记录与清单是否一致
+         */
+        String getRowKey() {
+            return getGatewayKey() + "/" + (subProductKey == null ? "" : subProductKey);
+        }
+
+        @Override
+        public String toString() {
+            return "#" + lineNumber + " " + getRowKey() + (subCount > 0 ? " x" + subCount : "");
+        }
+    }
+
+    public static ProvisioningManifest csv(Reader reader) {
+        return new ProvisioningManifest(reader, false);
+    }
+
+    public static ProvisioningManifest jsonLines(Reader reader) {
+        return new ProvisioningManifest(reader, true);
+    }
+
+    private ProvisioningManifest(Reader reader, boolean jsonLines) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.jsonLines = jsonLines;
+    }
+
+    /**
+     * 读取下一行
+     *
+     * @return 已读完返回null
+     * @throws ManifestFormatException 该行格式错误，可以继续读取后面的行
+     */
+    public Row next() throws IOException, ManifestFormatException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (jsonLines) {
+                return parseJson(line);
+            }
+            boolean header = !headerChecked && isHeader(line);
+            headerChecked = true;
+            if (header) {
+                columns = line.split(",", -1);
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = columns[i].trim();
+                }
+                continue;
+            }
+            return parseCsv(line);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Row parseCsv(String line) throws ManifestFormatException {
+        String[] fields = line.split(",", -1);
+        String gatewayProductKey = null;
+        String gatewayDeviceName = null;
+        String subProductKey = null;
+        String subCount = null;
+        for (int i = 0; i < fields.length && i < columns.length; i++) {
+            String value = fields[i].trim();
+            if (GATEWAY_PRODUCT_KEY.equalsIgnoreCase(columns[i])) {
+                gatewayProductKey = value;
+            } else if (GATEWAY_DEVICE_NAME.equalsIgnoreCase(columns[i])) {
+                gatewayDeviceName = value;
+            } else if (SUB_PRODUCT_KEY.equalsIgnoreCase(columns[i])) {
+                subProductKey = value;
+            } else if (SUB_COUNT.equalsIgnoreCase(columns[i])) {
+                subCount = value;
+            }
+        }
+        return newRow(gatewayProductKey, gatewayDeviceName, subProductKey, subCount);
+    }
+
+    private Row parseJson(String line) throws ManifestFormatException {
+        try {
+            JSONObject json = new JSONObject(line);
+            //数量按字符串取出，与CSV一样由 newRow 校验，非数字不会被当作0
+            return newRow(optString(json, GATEWAY_PRODUCT_KEY), optString(json, GATEWAY_DEVICE_NAME),
+                    optString(json, SUB_PRODUCT_KEY), optString(json, SUB_COUNT));
+        } catch (JSONException e) {
+            throw new ManifestFormatException("JSON格式错误 " + e.getMessage(), lineNumber);
+        }
+    }
+
+    private Row newRow(String gatewayProductKey, String gatewayDeviceName, String subProductKey, String subCount)
+            throws ManifestFormatException {
+        if (StringUtils.isEmpty(gatewayProductKey) || StringUtils.isEmpty(gatewayDeviceName)) {
+            throw new ManifestFormatException("网关productKey、deviceName不能为空", lineNumber);
+        }
+        int count = 0;
+        if (!StringUtils.isEmpty(subCount)) {
+            try {
+                count = Integer.parseInt(subCount);
+            } catch (NumberFormatException e) {
+                throw new ManifestFormatException("子设备数量格式错误 " + subCount, lineNumber);
+            }
+            if (count < 0) {
+                throw new ManifestFormatException("子设备数量不能小于0", lineNumber);
+            }
+        }
+        if (StringUtils.isEmpty(subProductKey)) {
+            subProductKey = null;
+            count = 0;
+        }
+        return new Row(lineNumber, gatewayProductKey, gatewayDeviceName, subProductKey, count);
+    }
+
+    /**
+     * 任意一列是已知的列名
+     */
+    private static boolean isHeader(String line) {
+        for (String field : line.split(",", -1)) {
+            for (String column : DEFAULT_COLUMNS) {
+                if (column.equalsIgnoreCase(field.trim())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 字段值转为字符串，不存在或为null时返回null
+     */
+    private static String optString(JSONObject json, String name) {
+        return json.isNull(name) ? null : json.optString(name, null).trim();
+    }
+}
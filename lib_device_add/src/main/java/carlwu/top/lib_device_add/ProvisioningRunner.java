@@ -0,0 +1,672 @@
+package carlwu.top.lib_device_add;
+
+import com.aliyun.iot.aep.sdk.framework.AApplication;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import carlwu.top.lib_device_add.exceptions.ManifestFormatException;
+
+/**
+ * 按清单批量配网：酒店、公寓等项目一次性绑定大量网关和子设备
+ * <p>
+ * 逐行读取 {@link ProvisioningManifest}，相邻的同一网关的行作为一个站点：
+ * 先用 {@link GatewayHelper.BindHelper} 绑定网关，再按行依次用 {@link NodeBatchHelper} 打开入网窗口绑定子设备。
+ * 同时进行的站点数量不超过 maxConcurrentSites，有空位时才继续读取清单。
+ * 同一网关的行不相邻时会读出多个站点，网关已有站点进行中时后面的站点等它结束后再执行。
+ * <p>
+ * 设置断点文件后每行结束追加一条记录，中断后用同一清单重新 start 时跳过已成功的行，
+ * 已绑定的网关直接使用记录的iotId；失败的行会重新执行。清单执行完后断点文件重写为每行一条最新记录。
+ */
+public class ProvisioningRunner {
+    private static final String TAG = "ProvisioningRunner";
+
+    public interface Listener {
+        /**
+         * 调用层返回是否已经处理了解绑操作，含义同 {@link NodeHelper.BindCallback#isUnbindRelation}
+         */
+        boolean isUnbindRelation(String subIotId, String subProductKey, String subDeviceName);
+
+        /**
+         * 一行结束（含清单格式错误的行）
+         */
+        void onRowFinish(RowResult result);
+
+        void onProgress(Progress progress);
+
+        /**
+         * 清单读取失败，已停止，进行中的站点不再回调
+         */
+        void onFailure(Exception e);
+
+        /**
+         * 清单全部执行完
+         */
+        void onFinish(Progress progress);
+    }
+
+    public static class RowResult {
+        public final int lineNumber;
+        public final ProvisioningManifest.Row row;//清单格式错误时为null
+        public final boolean success;
+        public final String gatewayIotId;
+        public final int subSuccessCount;
+        public final int subFailureCount;
+        public final Exception exception;
+
+        RowResult(int lineNumber, ProvisioningManifest.Row row, boolean success, String gatewayIotId,
+                  int subSuccessCount, int subFailureCount, Exception exception) {
+            this.lineNumber = lineNumber;
+            this.row = row;
+            this.success = success;
+            this.gatewayIotId = gatewayIotId;
+            this.subSuccessCount = subSuccessCount;
+            this.subFailureCount = subFailureCount;
+            this.exception = exception;
+        }
+
+        @Override
+        public String toString() {
+            return "RowResult{" + (row == null ? "#" + lineNumber : row) + ", success=" + success
+                    + ", gateway=" + gatewayIotId + ", sub=" + subSuccessCount + "/" + subFailureCount
+                    + (exception == null ? "" : ", error=" + exception.getMessage()) + "}";
+        }
+    }
+
+    public static class Progress {
+        public final int rowsRead;
+        public final int skippedCount;//断点记录中已成功而跳过的行
+        public final int successCount;
+        public final int failureCount;
+        public final int runningSites;
+        public final long elapsedMillis;
+
+        Progress(int rowsRead, int skippedCount, int successCount, int failureCount, int runningSites, long elapsedMillis) {
+            this.rowsRead = rowsRead;
+            this.skippedCount = skippedCount;
+            this.successCount = successCount;
+            this.failureCount = failureCount;
+            this.runningSites = runningSites;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * 每分钟完成的行数（不含跳过的行）
+         */
+        public double getRowsPerMinute() {
+            if (elapsedMillis <= 0) {
+                return 0;
+            }
+            return (successCount + failureCount) * 60000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Progress{read=" + rowsRead + ", skipped=" + skippedCount + ", success=" + successCount
+                    + ", failure=" + failureCount + ", running=" + runningSites + ", elapsed=" + elapsedMillis
+                    + "ms, " + getRowsPerMinute() + " rows/min}";
+        }
+    }
+
+    private final Object lock = new Object();
+    private final AApplication application;
+    private final BindScheduler scheduler;
+    private Listener listener;
+    private volatile boolean status;//工作状态
+    private BindScheduler.Flow runFlow;
+
+    private int maxConcurrentSites = 2;
+    private int maxConcurrentBinds = 4;
+    private int gatewayTimeoutSeconds = 60;
+    private int subWindowSeconds = 120;
+    private File checkpointFile;
+    private JsonLinesFile checkpoint;
+    private BindingRegistry bindingRegistry;
+
+    private String authCode;
+    private ProvisioningManifest manifest;
+    private boolean manifestDone;
+    private ProvisioningManifest.Row lookahead;//已读出、属于下一个站点的行
+    private final Map<Integer, String> completedRows = new HashMap<>();//断点记录：行号 → 行内容
+    private final Map<Integer, JSONObject> checkpointRecords = new TreeMap<>();//每行最新的断点记录，结束时重写断点文件
+    private final Map<String, String> gatewayIotIds = new HashMap<>();//网关 productKey/deviceName → iotId
+    private final Set<Site> runningSites = new LinkedHashSet<>();
+    private final ArrayDeque<Site> deferredSites = new ArrayDeque<>();//网关已有站点进行中，等它结束后执行
+    private final List<RowResult> formatErrors = new ArrayList<>();//读取清单时发现的格式错误，释放锁后回调
+    private long startTime;
+    private int rowsRead;
+    private int skippedCount;
+    private int successCount;
+    private int failureCount;
+    private boolean finished;
+
+    public ProvisioningRunner(AApplication application, Listener listener) {
+        this(application, listener, BindScheduler.getDefault());
+    }
+
+    /**
+     * @param scheduler 定时任务调度器，多个流程共享线程
+     */
+    public ProvisioningRunner(AApplication application, Listener listener, BindScheduler scheduler) {
+        this.application = application;
+        this.listener = listener;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 同时进行的站点（网关）数量，默认2
+     */
+    public void setMaxConcurrentSites(int maxConcurrentSites) {
+        if (maxConcurrentSites < 1) {
+            throw new RuntimeException("maxConcurrentSites 需要 >=1");
+        }
+        this.maxConcurrentSites = maxConcurrentSites;
+    }
+
+    /**
+     * 每个入网窗口内同时进行的子设备绑定请求数量，默认4
+     */
+    public void setMaxConcurrentBinds(int maxConcurrentBinds) {
+        if (maxConcurrentBinds < 1) {
+            throw new RuntimeException("maxConcurrentBinds 需要 >=1");
+        }
+        this.maxConcurrentBinds = maxConcurrentBinds;
+    }
+
+    /**
+     * 单个网关绑定的超时时间，默认60秒
+     */
+    public void setGatewayTimeoutSeconds(int gatewayTimeoutSeconds) {
+        this.gatewayTimeoutSeconds = gatewayTimeoutSeconds;
+    }
+
+    /**
+     * 每行子设备的入网窗口时间，默认120秒，范围同 {@link NodeBatchHelper#startBind}
+     */
+    public void setSubWindowSeconds(int subWindowSeconds) {
+        if (subWindowSeconds < 20 || subWindowSeconds > 200) {
+            throw new RuntimeException("subWindowSeconds 需要 >=20 <=200");
+        }
+        this.subWindowSeconds = subWindowSeconds;
+    }
+
+    /**
+     * 设置断点文件，默认不记录
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * 设置已绑定设备的记录，传给每个网关、子设备的绑定流程，重复执行清单时已绑定到同一账号的网关不再绑定。默认不使用
+     */
+    public void setBindingRegistry(BindingRegistry bindingRegistry) {
+        this.bindingRegistry = bindingRegistry;
+    }
+
+    /**
+     * 开始执行清单，结束或 {@link #stop()} 时关闭清单
+     *
+     * @param authCode 授权码
+     */
+    public void start(String authCode, ProvisioningManifest manifest) {
+        if (status) {
+            throw new RuntimeException("流程进行中，不可重复start。");
+        }
+        TraceLog.d(TAG, "start");
+        synchronized (lock) {
+            status = true;
+            this.authCode = authCode;
+            this.manifest = manifest;
+            manifestDone = false;
+            lookahead = null;
+            completedRows.clear();
+            checkpointRecords.clear();
+            gatewayIotIds.clear();
+            runningSites.clear();
+            deferredSites.clear();
+            formatErrors.clear();
+            startTime = SdkPorts.clock().elapsedRealtime();
+            rowsRead = 0;
+            skippedCount = 0;
+            successCount = 0;
+            failureCount = 0;
+            finished = false;
+            loadCheckpoint();
+        }
+        runFlow = scheduler.newFlow();
+        runFlow.execute(pumpRunnable);
+    }
+
+    /**
+     * 停止执行，进行中的站点取消，不再回调
+     */
+    public void stop() {
+        if (!status) {
+            return;
+        }
+        TraceLog.d(TAG, "stop");
+        status = false;
+        listener = null;
+        List<Site> sites;
+        synchronized (lock) {
+            sites = new ArrayList<>(runningSites);
+            runningSites.clear();
+            deferredSites.clear();
+        }
+        for (Site site : sites) {
+            site.cancel();
+        }
+        if (runFlow != null) {
+            runFlow.cancel();
+        }
+        JsonLinesFile.closeQuietly(manifest);
+    }
+
+    public Progress getProgress() {
+        synchronized (lock) {
+            return progress();
+        }
+    }
+
+    private final Runnable pumpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            pump();
+        }
+    };
+
+    /**
+     * 在并发上限内读取清单、启动新的站点
+     */
+    private void pump() {
+        while (status) {
+            Site site;
+            IOException readError = null;
+            synchronized (lock) {
+                if (runningSites.size() >= maxConcurrentSites) {
+                    break;
+                }
+                site = pollDeferredSite();
+                if (site == null) {
+                    //等待中的站点不超过并发上限，避免同一网关反复出现时把整个清单读入内存
+                    if (manifestDone || deferredSites.size() >= maxConcurrentSites) {
+                        break;
+                    }
+                    try {
+                        site = readSite();
+                    } catch (IOException e) {
+                        readError = e;
+                    }
+                    if (site != null && isGatewayRunning(site.gatewayKey)) {
+                        TraceLog.d(TAG, "defer site: {}", site.gatewayKey);
+                        deferredSites.add(site);
+                        site = null;
+                    }
+                }
+                if (site != null) {
+                    runningSites.add(site);
+                }
+            }
+            dispatchFormatErrors();
+            if (readError != null) {
+                handleFailure(readError);
+                return;
+            }
+            if (site != null) {
+                site.start();
+            }
+        }
+        checkFinish();
+    }
+
+    /**
+     * 取出网关已空闲的等待中站点。调用方持有lock
+     */
+    private Site pollDeferredSite() {
+        for (Iterator<Site> iterator = deferredSites.iterator(); iterator.hasNext(); ) {
+            Site site = iterator.next();
+            if (!isGatewayRunning(site.gatewayKey)) {
+                iterator.remove();
+                return site;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 同一网关同一时间只能打开一个入网窗口。调用方持有lock
+     */
+    private boolean isGatewayRunning(String gatewayKey) {
+        for (Site site : runningSites) {
+            if (site.gatewayKey.equals(gatewayKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读取下一个站点：相邻的同一网关的行，已成功的行跳过
+     *
+     * @return 清单已读完返回null
+     */
+    private Site readSite() throws IOException {
+        ProvisioningManifest.Row first = lookahead != null ? lookahead : readRow();
+        lookahead = null;
+        if (first == null) {
+            manifestDone = true;
+            return null;
+        }
+        Site site = new Site(first);
+        while (true) {
+            ProvisioningManifest.Row row = readRow();
+            if (row == null) {
+                manifestDone = true;
+                break;
+            }
+            if (!row.getGatewayKey().equals(site.gatewayKey)) {
+                lookahead = row;
+                break;
+            }
+            site.rows.add(row);
+        }
+        return site;
+    }
+
+    /**
+     * @return 下一个需要执行的行，已读完返回null
+     */
+    private ProvisioningManifest.Row readRow() throws IOException {
+        while (true) {
+            ProvisioningManifest.Row row;
+            try {
+                row = manifest.next();
+            } catch (ManifestFormatException e) {
+                rowsRead++;
+                failureCount++;
+                formatErrors.add(new RowResult(e.getLineNumber(), null, false, null, 0, 0, e));
+                continue;
+            }
+            if (row == null) {
+                return null;
+            }
+            rowsRead++;
+            if (row.getRowKey().equals(completedRows.get(row.lineNumber))) {
+                skippedCount++;
+                continue;
+            }
+            return row;
+        }
+    }
+
+    private void dispatchFormatErrors() {
+        List<RowResult> results;
+        synchronized (lock) {
+            if (formatErrors.isEmpty()) {
+                return;
+            }
+            results = new ArrayList<>(formatErrors);
+            formatErrors.clear();
+        }
+        for (RowResult result : results) {
+            TraceLog.d(TAG, "row format error: {}", result);
+            Listener listener = this.listener;
+            if (listener != null) {
+                listener.onRowFinish(result);
+            }
+        }
+    }
+
+    private void finishRow(Site site, ProvisioningManifest.Row row, int subSuccessCount, int subFailureCount, Exception e) {
+        RowResult result = new RowResult(row.lineNumber, row, e == null, site.gatewayIotId, subSuccessCount, subFailureCount, e);
+        TraceLog.d(TAG, "finishRow: {}", result);
+        Progress progress;
+        synchronized (lock) {
+            if (!status) {
+                return;
+            }
+            if (e == null) {
+                successCount++;
+            } else {
+                failureCount++;
+            }
+            appendCheckpoint(result, site.gatewayKey);
+            progress = progress();
+        }
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onRowFinish(result);
+            listener.onProgress(progress);
+        }
+    }
+
+    private void finishSite(Site site) {
+        synchronized (lock) {
+            if (!runningSites.remove(site)) {
+                return;
+            }
+        }
+        if (status) {
+            runFlow.execute(pumpRunnable);
+        }
+    }
+
+    private void checkFinish() {
+        Progress progress;
+        synchronized (lock) {
+            if (!status || finished || !manifestDone || !runningSites.isEmpty() || !deferredSites.isEmpty()) {
+                return;
+            }
+            finished = true;
+            progress = progress();
+            compactCheckpoint();
+        }
+        TraceLog.d(TAG, "finish: {}", progress);
+        Listener listener = this.listener;
+        stop();
+        if (listener != null) {
+            listener.onFinish(progress);
+        }
+    }
+
+    private void handleFailure(Exception e) {
+        Listener listener = this.listener;
+        stop();
+        TraceLog.onFailure(TAG, e);
+        if (listener != null) {
+            listener.onFailure(e);
+        }
+    }
+
+    private Progress progress() {
+        return new Progress(rowsRead, skippedCount, successCount, failureCount, runningSites.size(),
+                SdkPorts.clock().elapsedRealtime() - startTime);
+    }
+
+    /**
+     * 读取断点文件：已成功的行和已绑定的网关
+     */
+    private void loadCheckpoint() {
+        checkpoint = checkpointFile == null ? null : new JsonLinesFile(checkpointFile);
+        if (checkpoint == null) {
+            return;
+        }
+        checkpoint.load(new JsonLinesFile.LineHandler() {
+            @Override
+            public void onLine(JSONObject json) throws JSONException {
+                int line = json.getInt("line");
+                String row = json.getString("row");
+                if (json.optBoolean("success")) {
+                    completedRows.put(line, row);
+                } else if (row.equals(completedRows.get(line))) {
+                    completedRows.remove(line);//同一行后来又失败了
+                }
+                String gatewayIotId = json.optString("gatewayIotId", null);
+                if (gatewayIotId != null) {
+                    gatewayIotIds.put(json.getString("gateway"), gatewayIotId);
+                }
+                checkpointRecords.put(line, json);
+            }
+        });
+        TraceLog.d(TAG, "checkpoint: {} rows, {} gateways", completedRows.size(), gatewayIotIds.size());
+    }
+
+    /**
+     * 在 {@link JsonLinesFile} 的后台线程追加一行。调用方持有lock
+     */
+    private void appendCheckpoint(RowResult result, String gatewayKey) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject()
+                    .put("line", result.lineNumber)
+                    .put("row", result.row.getRowKey())
+                    .put("success", result.success)
+                    .put("gateway", gatewayKey);
+            if (result.gatewayIotId != null) {
+                json.put("gatewayIotId", result.gatewayIotId);
+            }
+            checkpointRecords.put(result.lineNumber, json);
+            checkpoint.append(json);
+        } catch (JSONException e) {
+            TraceLog.e(TAG, "checkpoint append failed: {}", checkpointFile, e);
+        }
+    }
+
+    /**
+     * 断点文件重写为每行一条最新记录，重复执行清单时文件不会一直增长。调用方持有lock
+     */
+    private void compactCheckpoint() {
+        if (checkpoint == null) {
+            return;
+        }
+        checkpoint.rewrite(new ArrayList<>(checkpointRecords.values()), null);
+    }
+
+    /**
+     * 一个网关及其下各行子设备，行按顺序执行（同一网关同一时间只能打开一个入网窗口）
+     */
+    private class Site {
+        final String gatewayKey;
+        final String gatewayProductKey;
+        final String gatewayDeviceName;
+        final ArrayDeque<ProvisioningManifest.Row> rows = new ArrayDeque<>();
+        volatile String gatewayIotId;
+        private volatile GatewayHelper.BindHelper bindHelper;
+        private volatile NodeBatchHelper nodeBatchHelper;
+
+        Site(ProvisioningManifest.Row first) {
+            gatewayKey = first.getGatewayKey();
+            gatewayProductKey = first.gatewayProductKey;
+            gatewayDeviceName = first.gatewayDeviceName;
+            rows.add(first);
+        }
+
+        void start() {
+            synchronized (lock) {
+                gatewayIotId = gatewayIotIds.get(gatewayKey);
+            }
+            if (gatewayIotId != null) {
+                TraceLog.d(TAG, "gateway already bound: {} {}", gatewayKey, gatewayIotId);
+                nextRow();
+                return;
+            }
+            bindHelper = new GatewayHelper.BindHelper(application, new GatewayHelper.BindCallback() {
+                @Override
+                public void onFailure(Exception e) {
+                    ProvisioningManifest.Row row;
+                    while ((row = rows.poll()) != null) {
+                        finishRow(Site.this, row, 0, 0, e);
+                    }
+                    finishSite(Site.this);
+                }
+
+                @Override
+                public void onBindSuccess(String iotId, String productKey, String deviceName) {
+                    gatewayIotId = iotId;
+                    synchronized (lock) {
+                        gatewayIotIds.put(gatewayKey, iotId);
+                    }
+                    nextRow();
+                }
+            }, scheduler);
+            bindHelper.setBindingRegistry(bindingRegistry);
+            bindHelper.startBind(authCode, gatewayProductKey, gatewayDeviceName, gatewayTimeoutSeconds);
+        }
+
+        /**
+         * 执行下一行，只绑定网关的行直接成功
+         */
+        void nextRow() {
+            ProvisioningManifest.Row row;
+            while ((row = rows.poll()) != null && row.subProductKey == null) {
+                finishRow(this, row, 0, 0, null);
+            }
+            if (row == null || !status) {
+                finishSite(this);
+                return;
+            }
+            final ProvisioningManifest.Row current = row;
+            nodeBatchHelper = new NodeBatchHelper(new NodeBatchHelper.BatchCallback() {
+                @Override
+                public boolean isUnbindRelation(String subIotId, String subProductKey, String subDeviceName) {
+                    Listener listener = ProvisioningRunner.this.listener;
+                    return listener != null && listener.isUnbindRelation(subIotId, subProductKey, subDeviceName);
+                }
+
+                @Override
+                public void onDeviceBound(String subIotId, String subProductKey, String subDeviceName) {
+                }
+
+                @Override
+                public void onDeviceFailure(String subProductKey, String subDeviceName, Exception e) {
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    finishRow(Site.this, current, 0, 0, e);
+                    nextRow();
+                }
+
+                @Override
+                public void onFinish(int successCount, int failureCount) {
+                    Exception e = null;
+                    if (failureCount > 0) {
+                        e = new Exception(failureCount + "个子设备绑定失败");
+                    } else if (successCount < current.subCount) {
+                        e = new Exception("期望绑定" + current.subCount + "个子设备，实际绑定" + successCount + "个");
+                    }
+                    finishRow(Site.this, current, successCount, failureCount, e);
+                    nextRow();
+                }
+            }, maxConcurrentBinds, scheduler);
+            nodeBatchHelper.setBindingRegistry(bindingRegistry);
+            nodeBatchHelper.startBind(authCode, gatewayIotId, current.subProductKey, subWindowSeconds);
+        }
+
+        void cancel() {
+            GatewayHelper.BindHelper bindHelper = this.bindHelper;
+            if (bindHelper != null) {
+                bindHelper.stopBind();
+            }
+            NodeBatchHelper nodeBatchHelper = this.nodeBatchHelper;
+            if (nodeBatchHelper != null) {
+                nodeBatchHelper.stopBind();
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package carlwu.top.lib_device_add;
+
+/**
+ * 重试预算：时间窗口内允许的重试次数上限，防止大量流程同时重试压垮云端接口
+ * <p>
+ * 默认全局预算 {@link #getGlobal()} 被所有流程共享，也可以为不同业务单独创建。
+ */
+public class RetryBudget {
+    private static final RetryBudget GLOBAL = new RetryBudget(300, 60 * 1000);
+
+    private final int maxRetries;
+    private final long windowMillis;
+    private long windowStart;
+    private int used;
+    private int rejected;
+
+    /**
+     * 全局共享的重试预算，默认每分钟300次
+     */
+    public static RetryBudget getGlobal() {
+        return GLOBAL;
+    }
+
+    /**
+     * @param maxRetries   窗口内允许的重试次数
+     * @param windowMillis 窗口长度
+     */
+    public RetryBudget(int maxRetries, long windowMillis) {
+        if (maxRetries < 0 || windowMillis <= 0) {
+            throw new RuntimeException("maxRetries 需要 >=0，windowMillis 需要 >0");
+        }
+        this.maxRetries = maxRetries;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * 申请一次重试
+     *
+     * @return false:预算已用完，不应再重试
+     */
+    public synchronized boolean tryAcquire() {
+        long now = SdkPorts.clock().elapsedRealtime();
+        if (now - windowStart >= windowMillis) {
+            windowStart = now;
+            used = 0;
+        }
+        if (used >= maxRetries) {
+            rejected++;
+            return false;
+        }
+        used++;
+        return true;
+    }
+
+    /**
+     * 当前窗口剩余的重试次数
+     */
+    public synchronized int getRemaining() {
+        if (SdkPorts.clock().elapsedRealtime() - windowStart >= windowMillis) {
+            return maxRetries;
+        }
+        return maxRetries - used;
+    }
+
+    /**
+     * 因预算不足被拒绝的重试次数
+     */
+    public synchronized int getRejectedCount() {
+        return rejected;
+    }
+}
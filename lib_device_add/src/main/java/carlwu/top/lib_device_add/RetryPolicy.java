@@ -0,0 +1,241 @@
+package carlwu.top.lib_device_add;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 绑定请求的重试策略
+ * <p>
+ * 按错误码配置是否重试、最多重试次数和退避时间，退避按指数增长并加随机抖动，
+ * 避免大量流程在同一时刻重试。每个流程通过 {@link #newTracker(String)} 记录自己的重试，
+ * 同时受单流程重试上限和 {@link RetryBudget} 全局预算的限制。
+ */
+public class RetryPolicy {
+    private static final String TAG = "RetryPolicy";
+
+    /**
+     * 网络请求失败（IoTCallback.onFailure），没有拿到云端响应码
+     */
+    public static final int CODE_NETWORK_FAILURE = -1;
+    /**
+     * 设备不在线，请检查设备运行状态
+     */
+    public static final int CODE_DEVICE_OFFLINE = 6221;
+    /**
+     * 请求过于频繁，被限流
+     */
+    public static final int CODE_RATE_LIMIT = 429;
+
+    private static final Random RANDOM = new Random();
+
+    public interface RetryListener {
+        /**
+         * 即将重试
+         *
+         * @param name        流程名称，通常是API路径
+         * @param code        触发重试的错误码
+         * @param retry       第几次重试
+         * @param delayMillis 退避时间
+         */
+        void onRetry(String name, int code, int retry, long delayMillis);
+
+        /**
+         * 流程结束
+         *
+         * @param attempts      请求总次数（含首次）
+         * @param backoffMillis 退避等待的总时长
+         */
+        void onFinish(String name, int attempts, long backoffMillis, boolean success);
+    }
+
+    private final Map<Integer, Rule> rules = new HashMap<>();
+    private int maxRetriesPerFlow = 20;
+    private RetryBudget budget = RetryBudget.getGlobal();
+    private RetryListener retryListener;
+
+    /**
+     * 子设备绑定（/awss/time/window/user/bind）的默认策略：设备不在线时持续重试，网络失败和限流少量重试
+     */
+    public static RetryPolicy forSubDeviceBind() {
+        return new RetryPolicy()
+                .retryOn(CODE_DEVICE_OFFLINE, 20, 1000, 5000)
+                .retryOn(CODE_NETWORK_FAILURE, 3, 500, 4000)
+                .retryOn(CODE_RATE_LIMIT, 5, 2000, 16000);
+    }
+
+    /**
+     * 网关token绑定（/awss/token/user/bind）的默认策略：只对限流重试
+     * <p>
+     * token只能使用一次，网络失败时无法确定请求是否已到达云端：已绑定成功但响应丢失时，重试只会得到 6608 token not found，
+     * 所以网络失败不重试，直接按失败处理
+     */
+    public static RetryPolicy forTokenBind() {
+        return new RetryPolicy()
+                .retryOn(CODE_RATE_LIMIT, 3, 2000, 8000);
+    }
+
+    /**
+     * 配置错误码的重试规则
+     *
+     * @param code            错误码，网络失败为 {@link #CODE_NETWORK_FAILURE}
+     * @param maxRetries      该错误码最多重试次数
+     * @param baseDelayMillis 第一次重试的退避时间
+     * @param maxDelayMillis  退避时间上限
+     */
+    public RetryPolicy retryOn(int code, int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        if (maxRetries < 0 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new RuntimeException("重试规则参数错误");
+        }
+        rules.put(code, new Rule(maxRetries, baseDelayMillis, maxDelayMillis));
+        return this;
+    }
+
+    /**
+     * 单个流程所有错误码合计的重试上限
+     */
+    public RetryPolicy setMaxRetriesPerFlow(int maxRetriesPerFlow) {
+        this.maxRetriesPerFlow = maxRetriesPerFlow;
+        return this;
+    }
+
+    /**
+     * 多个流程共享的重试预算，默认 {@link RetryBudget#getGlobal()}
+     */
+    public RetryPolicy setBudget(RetryBudget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    public RetryPolicy setRetryListener(RetryListener retryListener) {
+        this.retryListener = retryListener;
+        return this;
+    }
+
+    /**
+     * 开始一个流程的重试记录
+     *
+     * @param name 流程名称，通常是API路径
+     */
+    public Tracker newTracker(String name) {
+        return new Tracker(name);
+    }
+
+    private static class Rule {
+        final int maxRetries;
+        final long baseDelayMillis;
+        final long maxDelayMillis;
+
+        Rule(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+            this.maxRetries = maxRetries;
+            this.baseDelayMillis = baseDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+        }
+
+        /**
+         * 指数退避加抖动：取 [d/2, d] 之间的随机值，d = min(max, base * 2^(retry-1))
+         */
+        long delay(int retry) {
+            long delay = baseDelayMillis;
+            for (int i = 1; i < retry && delay < maxDelayMillis; i++) {
+                delay *= 2;
+            }
+            delay = Math.min(delay, maxDelayMillis);
+            long half = delay / 2;
+            return half + (half > 0 ? (long) (RANDOM.nextDouble() * (delay - half)) : 0);
+        }
+    }
+
+    /**
+     * 单个流程的重试记录
+     */
+    public class Tracker {
+        private final String name;
+        private final Map<Integer, Integer> retriesByCode = new HashMap<>();
+        private int attempts;
+        private int retries;
+        private long backoffMillis;
+        private boolean finished;
+
+        private Tracker(String name) {
+            this.name = name;
+        }
+
+        /**
+         * 每次发出请求时调用
+         */
+        public synchronized void onAttempt() {
+            attempts++;
+        }
+
+        /**
+         * 请求失败，计算下一次重试的退避时间
+         *
+         * @param code 错误码，网络失败为 {@link #CODE_NETWORK_FAILURE}
+         * @return 退避时间；-1 表示不应重试
+         */
+        public long nextDelay(int code) {
+            long delay;
+            int retry;
+            synchronized (this) {
+                Rule rule = rules.get(code);
+                if (finished || rule == null) {
+                    return -1;
+                }
+                Integer count = retriesByCode.get(code);
+                retry = (count == null ? 0 : count) + 1;
+                if (retry > rule.maxRetries || retries >= maxRetriesPerFlow) {
+                    TraceLog.d(TAG, "{} retry exhausted: code={}", name, code);
+                    return -1;
+                }
+                if (budget != null && !budget.tryAcquire()) {
+                    TraceLog.d(TAG, "{} retry budget exhausted: code={}", name, code);
+                    return -1;
+                }
+                retriesByCode.put(code, retry);
+                retries++;
+                delay = rule.delay(retry);
+                backoffMillis += delay;
+            }
+            if (retryListener != null) {
+                retryListener.onRetry(name, code, retry, delay);
+            }
+            return delay;
+        }
+
+        /**
+         * 流程结束，只回调一次
+         */
+        public void finish(boolean success) {
+            int attempts;
+            long backoffMillis;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                attempts = this.attempts;
+                backoffMillis = this.backoffMillis;
+            }
+            if (attempts > 0) {
+                TraceLog.d(TAG, success ? "{} finish success: attempts={} backoff={}ms" : "{} finish failure: attempts={} backoff={}ms",
+                        name, attempts, backoffMillis);
+                if (retryListener != null) {
+                    retryListener.onFinish(name, attempts, backoffMillis, success);
+                }
+            }
+        }
+
+        public synchronized int getAttempts() {
+            return attempts;
+        }
+
+        public synchronized int getRetries() {
+            return retries;
+        }
+
+        public synchronized long getBackoffMillis() {
+            return backoffMillis;
+        }
+    }
+}
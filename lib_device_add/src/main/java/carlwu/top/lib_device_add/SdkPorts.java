@@ -0,0 +1,198 @@
+package carlwu.top.lib_device_add;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.aliyun.alink.business.devicecenter.api.discovery.DiscoveryType;
+import com.aliyun.alink.business.devicecenter.api.discovery.IDeviceDiscoveryListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileConnectListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileDownstreamListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileRequestListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.MobileConnectState;
+import com.aliyun.iot.aep.sdk.login.ILoginCallback;
+import com.aliyun.iot.aep.sdk.login.ILogoutCallback;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * 阿里云SDK的访问接口
+ * <p>
+ * 库内不再直接调用 LoginBusiness、MobileChannel、LocalDeviceMgr、IoTAPIClientFactory，
+ * 而是通过这里的四个接口，默认实现转发给SDK。测试或压测时可以用 {@link #install} 替换为模拟实现。
+ * <p>
+ * 库内的耗时、超时统计通过 {@link #clock()} 取时间，JVM单元测试中 android.jar 的 SystemClock 总是返回0，
+ * 需要同时替换 {@link ClockPort}。
+ */
+public final class SdkPorts {
+
+    /**
+     * 账号登录，对应 LoginBusiness 和 IoTCredentialManageImpl
+     */
+    public interface LoginPort {
+        void authCodeLogin(String authCode, ILoginCallback callback);
+
+        void logout(ILogoutCallback callback);
+
+        boolean isLogin();
+
+        /**
+         * 当前账号的iotToken，未登录时为空
+         */
+        String getIoTToken();
+    }
+
+    /**
+     * 长连接通道，对应 MobileChannel
+     */
+    public interface ChannelPort {
+        MobileConnectState getMobileConnectState();
+
+        void registerConnectListener(IMobileConnectListener listener);
+
+        void unRegisterConnectListener(IMobileConnectListener listener);
+
+        void registerDownstreamListener(IMobileDownstreamListener listener);
+
+        void unRegisterDownstreamListener(IMobileDownstreamListener listener);
+
+        void bindAccount(String iotToken, IMobileRequestListener listener);
+
+        void unBindAccount(IMobileRequestListener listener);
+    }
+
+    /**
+     * 本地发现和设备token，对应 LocalDeviceMgr
+     */
+    public interface DiscoveryPort {
+        void startDiscovery(Context context, EnumSet<DiscoveryType> types, IDeviceDiscoveryListener listener);
+
+        void stopDiscovery();
+
+        void getDeviceToken(Context context, String productKey, String deviceName, TokenListener listener);
+
+        void stopGetDeviceToken();
+    }
+
+    public interface TokenListener {
+        void onSuccess(String token);
+
+        void onFail(String reason);
+    }
+
+    /**
+     * 云端接口，对应 IoTAPIClient，认证方式为 iotAuth
+     */
+    public interface ApiPort {
+        void send(String path, String apiVersion, Map<String, Object> params, ApiListener listener);
+    }
+
+    public interface ApiListener {
+        /**
+         * @param data 云端返回的data，通常为 JSONObject
+         */
+        void onResponse(int code, String localizedMsg, Object data);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * 单调时钟，对应 SystemClock.elapsedRealtime
+     */
+    public interface ClockPort {
+        long elapsedRealtime();
+    }
+
+    private static final ClockPort SYSTEM_CLOCK = new ClockPort() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    private static volatile LoginPort loginPort;
+    private static volatile ChannelPort channelPort;
+    private static volatile DiscoveryPort discoveryPort;
+    private static volatile ApiPort apiPort;
+    private static volatile ClockPort clockPort;
+
+    private SdkPorts() {
+    }
+
+    /**
+     * 替换SDK实现，为null的接口保持不变，需要在开始任何流程之前调用
+     */
+    public static synchronized void install(LoginPort login, ChannelPort channel, DiscoveryPort discovery, ApiPort api) {
+        install(login, channel, discovery, api, null);
+    }
+
+    /**
+     * 替换SDK实现和时钟，为null的接口保持不变，需要在开始任何流程之前调用
+     */
+    public static synchronized void install(LoginPort login, ChannelPort channel, DiscoveryPort discovery, ApiPort api,
+                                            ClockPort clock) {
+        if (clock != null) {
+            clockPort = clock;
+        }
+        if (login != null) {
+            loginPort = login;
+        }
+        if (channel != null) {
+            channelPort = channel;
+        }
+        if (discovery != null) {
+            discoveryPort = discovery;
+        }
+        if (api != null) {
+            apiPort = api;
+        }
+    }
+
+    /**
+     * 恢复为SDK实现
+     */
+    public static synchronized void reset() {
+        loginPort = null;
+        channelPort = null;
+        discoveryPort = null;
+        apiPort = null;
+        clockPort = null;
+    }
+
+    /**
+     * 初始化SDK实现中按需创建的对象，已替换为模拟实现的接口不处理
+     */
+    static void prepare() {
+        if (apiPort == null) {
+            AliyunSdkPorts.prepareApi();
+        }
+        if (discoveryPort == null) {
+            AliyunSdkPorts.prepareDiscovery();
+        }
+    }
+
+    public static LoginPort login() {
+        LoginPort port = loginPort;
+        return port != null ? port : AliyunSdkPorts.LOGIN;
+    }
+
+    public static ChannelPort channel() {
+        ChannelPort port = channelPort;
+        return port != null ? port : AliyunSdkPorts.CHANNEL;
+    }
+
+    public static DiscoveryPort discovery() {
+        DiscoveryPort port = discoveryPort;
+        return port != null ? port : AliyunSdkPorts.DISCOVERY;
+    }
+
+    public static ApiPort api() {
+        ApiPort port = apiPort;
+        return port != null ? port : AliyunSdkPorts.API;
+    }
+
+    public static ClockPort clock() {
+        ClockPort port = clockPort;
+        return port != null ? port : SYSTEM_CLOCK;
+    }
+}
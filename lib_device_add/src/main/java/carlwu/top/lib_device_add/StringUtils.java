@@ -0,0 +1,16 @@
+package carlwu.top.lib_device_add;
+
+/**
+ * 与 android.text.TextUtils 相同的判断，不依赖 android.jar
+ * <p>
+ * JVM单元测试使用 returnDefaultValues 的 android.jar，TextUtils.isEmpty 总是返回false，空值判断会被跳过
+ */
+final class StringUtils {
+
+    private StringUtils() {
+    }
+
+    static boolean isEmpty(CharSequence value) {
+        return value == null || value.length() == 0;
+    }
+}
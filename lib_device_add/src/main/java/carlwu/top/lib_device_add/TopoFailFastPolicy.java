@@ -0,0 +1,101 @@
+package carlwu.top.lib_device_add;
+
+/**
+ * 子设备入网结果为 status 1（已被其它网关绑定）或 status 2（注册失败）时的处理策略
+ * <p>
+ * 默认收到后等待一小段宽限时间，期间仍未收到 status 0 则立即结束流程，不再等到整个超时时间。
+ * 也可以配置为重新打开入网窗口（REARM），或保持原来的行为等到超时（WAIT_TIMEOUT）。
+ */
+public class TopoFailFastPolicy {
+    public static final long DEFAULT_GRACE_MILLIS = 3000;
+
+    public enum Action {
+        /**
+         * 忽略，等到流程超时
+         */
+        WAIT_TIMEOUT,
+        /**
+         * 宽限时间后结束流程，回调具体原因
+         */
+        FAIL,
+        /**
+         * 宽限时间后重新通知网关打开入网窗口，次数用完后结束流程
+         */
+        REARM
+    }
+
+    private Action status1Action = Action.FAIL;
+    private Action status2Action = Action.FAIL;
+    private long graceMillis = DEFAULT_GRACE_MILLIS;
+    private int maxRearms = 1;
+
+    /**
+     * 默认策略：status 1、2 宽限3秒后结束流程
+     */
+    public static TopoFailFastPolicy defaults() {
+        return new TopoFailFastPolicy();
+    }
+
+    /**
+     * 原来的行为：status 1 等到超时回调 AlreadyBoundException，status 2 忽略
+     */
+    public static TopoFailFastPolicy waitForTimeout() {
+        return new TopoFailFastPolicy()
+                .onStatus1(Action.WAIT_TIMEOUT)
+                .onStatus2(Action.WAIT_TIMEOUT);
+    }
+
+    public TopoFailFastPolicy onStatus1(Action action) {
+        status1Action = action;
+        return this;
+    }
+
+    public TopoFailFastPolicy onStatus2(Action action) {
+        status2Action = action;
+        return this;
+    }
+
+    /**
+     * 收到 status 1、2 后等待 status 0 的宽限时间，0 表示立即处理
+     */
+    public TopoFailFastPolicy setGraceMillis(long graceMillis) {
+        if (graceMillis < 0) {
+            throw new RuntimeException("graceMillis 需要 >=0");
+        }
+        this.graceMillis = graceMillis;
+        return this;
+    }
+
+    /**
+     * REARM 最多重新打开入网窗口的次数
+     */
+    public TopoFailFastPolicy setMaxRearms(int maxRearms) {
+        if (maxRearms < 0) {
+            throw new RuntimeException("maxRearms 需要 >=0");
+        }
+        this.maxRearms = maxRearms;
+        return this;
+    }
+
+    /**
+     * @param status 子设备入网结果
+     */
+    public Action getAction(int status) {
+        switch (status) {
+            case TopoStatus.STATUS_BOUND_BY_OTHER_GATEWAY:
+                return status1Action;
+            case TopoStatus.STATUS_FAILURE:
+                return status2Action;
+            default:
+                return Action.WAIT_TIMEOUT;
+        }
+    }
+
+    public long getGraceMillis() {
+        return graceMillis;
+    }
+
+    public int getMaxRearms() {
+        return maxRearms;
+    }
+}
@@ -0,0 +1,46 @@
+package carlwu.top.lib_device_add;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 子设备入网结果（/thing/topo/add/status），由 {@link TopoStatusRouter} 解析后分发
+ * status表示子设备的注册结果，可取值包括，
+ * 0：添加成功，
+ * 1：子设备注册成功，但设备已被其它网关绑定，
+ * 2：子设备注册失败。
+ */
+public class TopoStatus {
+    public static final int STATUS_SUCCESS = 0;
+    public static final int STATUS_BOUND_BY_OTHER_GATEWAY = 1;
+    public static final int STATUS_FAILURE = 2;
+
+    public final int status;
+    public final String gatewayIotId;
+    public final String subIotId;
+    public final String subProductKey;
+    public final String subDeviceName;
+
+    private TopoStatus(int status, String gatewayIotId, String subIotId, String subProductKey, String subDeviceName) {
+        this.status = status;
+        this.gatewayIotId = gatewayIotId;
+        this.subIotId = subIotId;
+        this.subProductKey = subProductKey;
+        this.subDeviceName = subDeviceName;
+    }
+
+    static TopoStatus parse(String payload) throws JSONException {
+        JSONObject jsonObject = new JSONObject(payload);
+        return new TopoStatus(jsonObject.optInt("status", -1),
+                jsonObject.optString("gwIotId", null),
+                jsonObject.getString("subIotId"),
+                jsonObject.getString("subProductKey"),
+                jsonObject.getString("subDeviceName"));
+    }
+
+    @Override
+    public String toString() {
+        return "TopoStatus{status=" + status + ", gateway=" + gatewayIotId + ", sub="
+                + subProductKey + "/" + subDeviceName + "}";
+    }
+}
@@ -0,0 +1,227 @@
+package carlwu.top.lib_device_add;
+
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileDownstreamListener;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 子设备入网结果（/thing/topo/add/status）的下行分发，进程内单例
+ * <p>
+ * 只向 MobileChannel 注册一个下行监听，每条消息只解析一次，
+ * 按网关iotId（消息中没有网关iotId时按子设备productKey）查找订阅者分发，
+ * 没有订阅者时不注册监听。
+ */
+public class TopoStatusRouter {
+    private static final String TAG = "TopoStatusRouter";
+    public static final String TOPIC = "/thing/topo/add/status";
+    private static final TopoStatusRouter INSTANCE = new TopoStatusRouter();
+
+    public interface TopoStatusListener {
+        void onTopoStatus(TopoStatus topoStatus);
+    }
+
+    private final Object lock = new Object();
+    private final Object registerLock = new Object();//注册、反注册按顺序执行，不与 route 共用锁
+    private final Map<String, List<Subscription>> byGateway = new HashMap<>();
+    private final Map<String, List<Subscription>> bySubProductKey = new HashMap<>();
+    private int subscriptionCount;
+    private boolean registered;//已向 MobileChannel 注册，由 registerLock 保护
+    private int routedCount;
+    private int droppedCount;
+
+    private final IMobileDownstreamListener downstreamListener = new IMobileDownstreamListener() {
+        @Override
+        public void onCommand(String s, String s1) {
+            route(s1);
+        }
+
+        @Override
+        public boolean shouldHandle(String s) {
+            return TOPIC.equals(s);
+        }
+    };
+
+    public static TopoStatusRouter getInstance() {
+        return INSTANCE;
+    }
+
+    private TopoStatusRouter() {
+    }
+
+    /**
+     * 订阅网关下子设备的入网结果
+     *
+     * @param gatewayIotId  网关iotId
+     * @param subProductKey 子设备productKey，消息中没有网关iotId时按它匹配
+     * @return 订阅句柄，不再需要时调用 {@link Subscription#cancel()}
+     */
+    public Subscription subscribe(String gatewayIotId, String subProductKey, TopoStatusListener listener) {
+        if (StringUtils.isEmpty(gatewayIotId) && StringUtils.isEmpty(subProductKey)) {
+            throw new RuntimeException("gatewayIotId 和 subProductKey 不能同时为空");
+        }
+        Subscription subscription = new Subscription(gatewayIotId, subProductKey, listener);
+        synchronized (lock) {
+            add(byGateway, gatewayIotId, subscription);
+            add(bySubProductKey, subProductKey, subscription);
+            subscriptionCount++;
+        }
+        updateRegistration();
+        return subscription;
+    }
+
+    /**
+     * 分发给至少一个订阅者的消息数
+     */
+    public int getRoutedCount() {
+        synchronized (lock) {
+            return routedCount;
+        }
+    }
+
+    /**
+     * 没有订阅者或解析失败而丢弃的消息数
+     */
+    public int getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    private void route(String payload) {
+        TopoStatus topoStatus;
+        try {
+            topoStatus = TopoStatus.parse(payload);
+        } catch (JSONException e) {
+            TraceLog.e(TAG, "route parse failed: {}", payload, e);
+            synchronized (lock) {
+                droppedCount++;
+            }
+            return;
+        }
+        Set<Subscription> targets = new LinkedHashSet<>();
+        synchronized (lock) {
+            if (!StringUtils.isEmpty(topoStatus.gatewayIotId)) {
+                collect(byGateway.get(topoStatus.gatewayIotId), targets, topoStatus);
+            } else {
+                collect(bySubProductKey.get(topoStatus.subProductKey), targets, topoStatus);
+            }
+            if (targets.isEmpty()) {
+                droppedCount++;
+            } else {
+                routedCount++;
+            }
+        }
+        if (targets.isEmpty()) {
+            TraceLog.d(TAG, "route dropped: {}", topoStatus);
+            return;
+        }
+        for (Subscription subscription : targets) {
+            if (!subscription.cancelled) {
+                subscription.listener.onTopoStatus(topoStatus);
+            }
+        }
+    }
+
+    private static void collect(List<Subscription> candidates, Set<Subscription> targets, TopoStatus topoStatus) {
+        if (candidates == null) {
+            return;
+        }
+        for (Subscription subscription : candidates) {
+            //同时指定了网关和productKey的订阅，两者都要匹配
+            if (StringUtils.isEmpty(subscription.subProductKey) || StringUtils.isEmpty(topoStatus.subProductKey)
+                    || subscription.subProductKey.equals(topoStatus.subProductKey)) {
+                targets.add(subscription);
+            }
+        }
+    }
+
+    private static void add(Map<String, List<Subscription>> index, String key, Subscription subscription) {
+        if (StringUtils.isEmpty(key)) {
+            return;
+        }
+        List<Subscription> list = index.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            index.put(key, list);
+        }
+        list.add(subscription);
+    }
+
+    private static void remove(Map<String, List<Subscription>> index, String key, Subscription subscription) {
+        if (StringUtils.isEmpty(key)) {
+            return;
+        }
+        List<Subscription> list = index.get(key);
+        if (list != null && list.remove(subscription) && list.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        synchronized (lock) {
+            remove(byGateway, subscription.gatewayIotId, subscription);
+            remove(bySubProductKey, subscription.subProductKey, subscription);
+            subscriptionCount--;
+        }
+        updateRegistration();
+    }
+
+    /**
+     * 按当前订阅数量注册或反注册下行监听
+     * <p>
+     * 在 registerLock 内读取订阅数量并调用SDK，并发的订阅、取消中最后执行的一次看到最终的数量，
+     * 不会出现有订阅但监听已被反注册。SDK调用不在 lock 内，SDK分发线程调用 route 时不会死锁。
+     */
+    private void updateRegistration() {
+        synchronized (registerLock) {
+            boolean register;
+            synchronized (lock) {
+                register = subscriptionCount > 0;
+            }
+            if (register == registered) {
+                return;
+            }
+            registered = register;
+            if (register) {
+                TraceLog.d(TAG, "registerDownstreamListener");
+                SdkPorts.channel().registerDownstreamListener(downstreamListener);
+            } else {
+                TraceLog.d(TAG, "unRegisterDownstreamListener");
+                SdkPorts.channel().unRegisterDownstreamListener(downstreamListener);
+            }
+        }
+    }
+
+    public class Subscription {
+        private final String gatewayIotId;
+        private final String subProductKey;
+        private final TopoStatusListener listener;
+        private volatile boolean cancelled;
+
+        private Subscription(String gatewayIotId, String subProductKey, TopoStatusListener listener) {
+            this.gatewayIotId = gatewayIotId;
+            this.subProductKey = subProductKey;
+            this.listener = listener;
+        }
+
+        /**
+         * 取消订阅，之后不再回调，可重复调用
+         */
+        public void cancel() {
+            synchronized (lock) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+            }
+            unsubscribe(this);
+        }
+    }
+}
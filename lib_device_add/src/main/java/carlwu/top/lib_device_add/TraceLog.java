@@ -0,0 +1,288 @@
+package carlwu.top.lib_device_add;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 库内统一的日志，进程内共享
+ * <p>
+ * 1.调用方传入消息模板和参数，不在调用处拼接字符串，消息中的 {} 依次替换为参数（多余的参数追加在末尾）；
+ * 低于输出级别时直接返回，不拼接也不输出到 logcat。默认 logcat 只输出 {@link Log#INFO} 及以上，
+ * 调试时 {@link #setLogcatLevel(int)} 设置为 {@link Log#DEBUG}
+ * <p>
+ * 2.{@link #setTraceLevel(int)} 及以上的事件写入固定大小的环形缓冲区，只保存模板和参数引用，
+ * 到 {@link #dump()} 时才格式化，参数的 toString 也在那时调用，所以参数应当是不可变的值（String、数字、枚举、结果对象）。
+ * 基本类型参数会装箱，只在登录、超时等低频事件中使用
+ * <p>
+ * 3.绑定流程失败回调 onFailure 前会把缓冲区内容交给 {@link #setFailureListener(FailureListener)} 设置的监听，
+ * 现场配网失败时不依赖 logcat 也能拿到完整的过程
+ */
+public final class TraceLog {
+    private static final int DEFAULT_CAPACITY = 256;
+
+    public interface FailureListener {
+        /**
+         * 在失败流程所在的线程回调，不要做耗时操作
+         *
+         * @param tag   失败的流程，例如 NodeHelper
+         * @param cause 失败原因
+         * @param trace 缓冲区中的事件，最早的在前，已包含本次失败
+         */
+        void onFailureTrace(String tag, Exception cause, List<String> trace);
+    }
+
+    private static final Object lock = new Object();
+    private static volatile int logcatLevel = Log.INFO;
+    private static volatile int traceLevel = Log.DEBUG;
+    private static volatile FailureListener failureListener;
+    private static Entry[] entries = newEntries(DEFAULT_CAPACITY);
+    private static long sequence;//已写入的事件总数
+
+    private TraceLog() {
+    }
+
+    /**
+     * 设置输出到 logcat 的最低级别，默认 {@link Log#INFO}
+     *
+     * @param level {@link Log#VERBOSE} 至 {@link Log#ASSERT}，{@link Integer#MAX_VALUE} 表示不输出
+     */
+    public static void setLogcatLevel(int level) {
+        logcatLevel = level;
+    }
+
+    /**
+     * 设置写入缓冲区的最低级别，默认 {@link Log#DEBUG}
+     *
+     * @param level {@link Integer#MAX_VALUE} 表示不记录
+     */
+    public static void setTraceLevel(int level) {
+        traceLevel = level;
+    }
+
+    /**
+     * 设置缓冲区保存的事件数量，默认256，已保存的事件会被清空
+     */
+    public static void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new RuntimeException("capacity 需要 >=1");
+        }
+        synchronized (lock) {
+            entries = newEntries(capacity);
+            sequence = 0;
+        }
+    }
+
+    public static void setFailureListener(FailureListener listener) {
+        failureListener = listener;
+    }
+
+    /**
+     * 该级别的日志是否会输出或记录，需要额外计算参数时先判断
+     */
+    public static boolean isEnabled(int level) {
+        return level >= logcatLevel || level >= traceLevel;
+    }
+
+    public static void d(String tag, String message) {
+        log(Log.DEBUG, tag, message, null, null, null, 0, null);
+    }
+
+    public static void d(String tag, String message, Object a) {
+        log(Log.DEBUG, tag, message, a, null, null, 1, null);
+    }
+
+    public static void d(String tag, String message, Object a, Object b) {
+        log(Log.DEBUG, tag, message, a, b, null, 2, null);
+    }
+
+    public static void d(String tag, String message, Object a, Object b, Object c) {
+        log(Log.DEBUG, tag, message, a, b, c, 3, null);
+    }
+
+    public static void i(String tag, String message, Object a) {
+        log(Log.INFO, tag, message, a, null, null, 1, null);
+    }
+
+    public static void w(String tag, String message, Object a) {
+        log(Log.WARN, tag, message, a, null, null, 1, null);
+    }
+
+    public static void e(String tag, String message, Object a) {
+        log(Log.ERROR, tag, message, a, null, null, 1, null);
+    }
+
+    public static void e(String tag, String message, Throwable t) {
+        log(Log.ERROR, tag, message, null, null, null, 0, t);
+    }
+
+    public static void e(String tag, String message, Object a, Throwable t) {
+        log(Log.ERROR, tag, message, a, null, null, 1, t);
+    }
+
+    /**
+     * 记录流程失败，并把缓冲区内容交给 {@link FailureListener}
+     */
+    static void onFailure(String tag, Exception e) {
+        e(tag, "onFailure: {}", e.getMessage(), e);
+        FailureListener listener = failureListener;
+        if (listener != null) {
+            listener.onFailureTrace(tag, e, dump());
+        }
+    }
+
+    /**
+     * 缓冲区中的事件，最早的在前
+     */
+    public static List<String> dump() {
+        Entry[] snapshot;
+        synchronized (lock) {
+            int count = (int) Math.min(sequence, entries.length);
+            snapshot = new Entry[count];
+            for (int i = 0; i < count; i++) {
+                Entry entry = entries[(int) ((sequence - count + i) % entries.length)];
+                snapshot[i] = entry.copy();
+            }
+        }
+        List<String> lines = new ArrayList<>(snapshot.length);
+        for (Entry entry : snapshot) {
+            lines.add(entry.toString());
+        }
+        return lines;
+    }
+
+    public static void clear() {
+        synchronized (lock) {
+            for (Entry entry : entries) {
+                entry.set(0, 0, null, null, null, null, null, null, 0, null);
+            }
+            sequence = 0;
+        }
+    }
+
+    private static void log(int level, String tag, String message, Object a, Object b, Object c,
+                            int argCount, Throwable t) {
+        boolean logcat = level >= logcatLevel;
+        boolean trace = level >= traceLevel;
+        if (!logcat && !trace) {
+            return;
+        }
+        if (trace) {
+            long time = SdkPorts.clock().elapsedRealtime();
+            String thread = Thread.currentThread().getName();
+            synchronized (lock) {
+                entries[(int) (sequence % entries.length)].set(time, level, thread, tag, message, a, b, c, argCount, t);
+                sequence++;
+            }
+        }
+        if (logcat) {
+            String text = format(message, a, b, c, argCount);
+            if (t != null) {
+                text = text + '\n' + Log.getStackTraceString(t);
+            }
+            Log.println(level, tag, text);
+        }
+    }
+
+    private static String format(String message, Object a, Object b, Object c, int argCount) {
+        StringBuilder builder = new StringBuilder(message.length() + 32);
+        int used = 0;
+        int start = 0;
+        int index;
+        while (used < argCount && (index = message.indexOf("{}", start)) >= 0) {
+            builder.append(message, start, index);
+            appendArg(builder, used++, a, b, c);
+            start = index + 2;
+        }
+        builder.append(message, start, message.length());
+        for (; used < argCount; used++) {
+            appendArg(builder.append(' '), used, a, b, c);
+        }
+        return builder.toString();
+    }
+
+    private static void appendArg(StringBuilder builder, int index, Object a, Object b, Object c) {
+        if (index == 0) {
+            builder.append(a);
+        } else if (index == 1) {
+            builder.append(b);
+        } else {
+            builder.append(c);
+        }
+    }
+
+    private static Entry[] newEntries(int capacity) {
+        Entry[] entries = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new Entry();
+        }
+        return entries;
+    }
+
+    private static char levelChar(int level) {
+        switch (level) {
+            case Log.VERBOSE:
+                return 'V';
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            case Log.ERROR:
+                return 'E';
+            default:
+                return 'A';
+        }
+    }
+
+    /**
+     * 缓冲区中的一个事件，槽位复用，写入时不分配对象
+     */
+    private static class Entry {
+        long time;
+        int level;
+        String thread;
+        String tag;
+        String message;
+        Object a;
+        Object b;
+        Object c;
+        int argCount;
+        Throwable t;
+
+        void set(long time, int level, String thread, String tag, String message, Object a, Object b, Object c,
+                 int argCount, Throwable t) {
+            this.time = time;
+            this.level = level;
+            this.thread = thread;
+            this.tag = tag;
+            this.message = message;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.argCount = argCount;
+            this.t = t;
+        }
+
+        Entry copy() {
+            Entry copy = new Entry();
+            copy.set(time, level, thread, tag, message, a, b, c, argCount, t);
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder()
+                    .append(time).append(' ')
+                    .append(levelChar(level)).append('/').append(tag)
+                    .append(" [").append(thread).append("] ")
+                    .append(format(message, a, b, c, argCount));
+            if (t != null) {
+                builder.append(" | ").append(t);
+            }
+            return builder.toString();
+        }
+    }
+}
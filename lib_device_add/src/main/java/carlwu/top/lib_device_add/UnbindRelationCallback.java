@@ -0,0 +1,13 @@
+package carlwu.top.lib_device_add;
+
+/**
+ * 异步解绑绑定关系的完成回调，见 {@link NodeHelper.AsyncBindCallback}、{@link NodeBatchHelper.AsyncBatchCallback}
+ * <p>
+ * 可以在任意线程回调，只有第一次回调生效
+ */
+public interface UnbindRelationCallback {
+    /**
+     * @param unbound true:已解除设备上所有绑定关系，继续绑定；false:未解除，回调 NeedUnbindFirstException
+     */
+    void onComplete(boolean unbound);
+}
@@ -4,7 +4,43 @@ package carlwu.top.lib_device_add.exceptions;
  * 设备已被绑定异常
  */
 public class AlreadyBoundException extends Exception {
+    private String productKey;
+    private String deviceName;
+
     public AlreadyBoundException(String message) {
         super(message);
     }
-}
\ No newline at end of file
+
+    /**
+     * @param productKey 已被绑定的设备productKey
+     * @param deviceName 已被绑定的设备deviceName
+     */
+    public AlreadyBoundException(String message, String productKey, String deviceName) {
+        super(message);
+        this.productKey = productKey;
+        this.deviceName = deviceName;
+    }
+
+    /**
+     * @param cause 无法确认是否绑定在当前账号下的原因，例如查询绑定关系失败
+     */
+    public AlreadyBoundException(String message, String productKey, String deviceName, Throwable cause) {
+        super(message, cause);
+        this.productKey = productKey;
+        this.deviceName = deviceName;
+    }
+
+    /**
+     * 已被绑定的设备productKey，未知时为null
+     */
+    public String getProductKey() {
+        return productKey;
+    }
+
+    /**
+     * 已被绑定的设备deviceName，未知时为null
+     */
+    public String getDeviceName() {
+        return deviceName;
+    }
+}
@@ -0,0 +1,17 @@
+package carlwu.top.lib_device_add.exceptions;
+
+/**
+ * 批量配网清单中无法解析的行
+ */
+public class ManifestFormatException extends Exception {
+    private final int lineNumber;
+
+    public ManifestFormatException(String message, int lineNumber) {
+        super("第" + lineNumber + "行：" + message);
+        this.lineNumber = lineNumber;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+}
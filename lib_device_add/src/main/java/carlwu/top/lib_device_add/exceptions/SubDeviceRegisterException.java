@@ -0,0 +1,23 @@
+package carlwu.top.lib_device_add.exceptions;
+
+/**
+ * 子设备注册失败异常（/thing/topo/add/status 上报 status = 2）
+ */
+public class SubDeviceRegisterException extends Exception {
+    private final String productKey;
+    private final String deviceName;
+
+    public SubDeviceRegisterException(String message, String productKey, String deviceName) {
+        super(message);
+        this.productKey = productKey;
+        this.deviceName = deviceName;
+    }
+
+    public String getProductKey() {
+        return productKey;
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+}
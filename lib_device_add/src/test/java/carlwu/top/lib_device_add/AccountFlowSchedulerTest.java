@@ -0,0 +1,147 @@
+package carlwu.top.lib_device_add;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link AccountFlowScheduler}：不同账号的流程不重叠、同一账号的并发上限、每轮的流程数量上限
+ */
+public class AccountFlowSchedulerTest {
+    private static final int ACCOUNTS = 3;
+    private static final int FLOWS_PER_ACCOUNT = 30;
+    private static final int MAX_CONCURRENCY = 4;
+    private static final int MAX_FLOWS_PER_TURN = 20;
+
+    private BindScheduler scheduler;
+    private ScheduledExecutorService io;
+
+    @Before
+    public void setUp() {
+        scheduler = new BindScheduler(2);
+        io = Executors.newScheduledThreadPool(MAX_CONCURRENCY);
+    }
+
+    @After
+    public void tearDown() {
+        io.shutdownNow();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void flowsGroupedByAccount() throws InterruptedException {
+        AccountFlowScheduler flows = new AccountFlowScheduler(MAX_CONCURRENCY, scheduler);
+        flows.setMaxFlowsPerTurn(MAX_FLOWS_PER_TURN);
+        final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        final List<String> startOrder = new CopyOnWriteArrayList<>();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(ACCOUNTS * FLOWS_PER_ACCOUNT);
+        final Random random = new Random(1);
+        for (int i = 0; i < ACCOUNTS * FLOWS_PER_ACCOUNT; i++) {
+            final String account = "account" + (i % ACCOUNTS);
+            running.put(account, new AtomicInteger());
+            flows.submit(account, new AccountFlowScheduler.FlowTask() {
+                @Override
+                public void start(final AccountFlowScheduler.FlowDone done) {
+                    startOrder.add(account);
+                    int count = running.get(account).incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), count));
+                    }
+                    for (Map.Entry<String, AtomicInteger> entry : running.entrySet()) {
+                        if (!entry.getKey().equals(account) && entry.getValue().get() > 0) {
+                            overlaps.incrementAndGet();
+                        }
+                    }
+                    io.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                //全部排队后才结束，轮次与提交速度无关
+                                submitted.await();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                            running.get(account).decrementAndGet();
+                            done.onFlowFinish();
+                            done.onFlowFinish();//重复调用忽略
+                            finished.countDown();
+                        }
+                    }, 1 + random.nextInt(5), TimeUnit.MILLISECONDS);
+                }
+            });
+        }
+        submitted.countDown();
+        assertTrue("流程未全部结束", finished.await(20, TimeUnit.SECONDS));
+
+        assertEquals(0, overlaps.get());
+        assertTrue("同一账号并发 " + maxRunning.get(), maxRunning.get() <= MAX_CONCURRENCY);
+        //每个账号30个流程，每轮最多20个：a0 20, a1 20, a2 20, a0 10, a1 10, a2 10
+        assertEquals(5, flows.getSwitchCount());
+        int turnLength = 0;
+        for (int i = 0; i < startOrder.size(); i++) {
+            turnLength = i > 0 && startOrder.get(i).equals(startOrder.get(i - 1)) ? turnLength + 1 : 1;
+            assertTrue("一轮执行了 " + turnLength + " 个流程", turnLength <= MAX_FLOWS_PER_TURN);
+        }
+        assertEquals(ACCOUNTS * FLOWS_PER_ACCOUNT, startOrder.size());
+        assertEquals(0, flows.getQueuedCount());
+        assertEquals(0, flows.getRunningCount());
+    }
+
+    @Test
+    public void flowTimeout_releasesAccount() throws InterruptedException {
+        AccountFlowScheduler flows = new AccountFlowScheduler(1, scheduler);
+        flows.setFlowTimeoutMillis(100);
+        final CountDownLatch nextStarted = new CountDownLatch(1);
+        flows.submit("account0", new AccountFlowScheduler.FlowTask() {
+            @Override
+            public void start(AccountFlowScheduler.FlowDone done) {
+                //漏掉 onFlowFinish
+            }
+        });
+        flows.submit("account1", new AccountFlowScheduler.FlowTask() {
+            @Override
+            public void start(AccountFlowScheduler.FlowDone done) {
+                nextStarted.countDown();
+                done.onFlowFinish();
+            }
+        });
+        assertTrue("超时后未切换账号", nextStarted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, flows.getTimeoutCount());
+        assertEquals(1, flows.getSwitchCount());
+    }
+
+    @Test
+    public void flowTimeout_cancelledWhenFlowFinishes() throws InterruptedException {
+        AccountFlowScheduler flows = new AccountFlowScheduler(1, scheduler);
+        flows.setFlowTimeoutMillis(50);
+        final CountDownLatch started = new CountDownLatch(1);
+        flows.submit("account0", new AccountFlowScheduler.FlowTask() {
+            @Override
+            public void start(AccountFlowScheduler.FlowDone done) {
+                done.onFlowFinish();
+                started.countDown();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(150);
+        assertEquals(0, flows.getTimeoutCount());
+        assertEquals(0, flows.getRunningCount());
+    }
+}
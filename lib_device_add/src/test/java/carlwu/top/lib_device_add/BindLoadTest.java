@@ -0,0 +1,122 @@
+package carlwu.top.lib_device_add;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 使用 {@link SimulatedAliyun} 并发运行大量节点绑定流程，吞吐量、p99耗时和线程数记入 {@link TraceLog}
+ */
+public class BindLoadTest {
+    private static final String TAG = "BindLoadTest";
+    private static final long TIMEOUT_SECONDS = 60;
+    private static final int SESSIONS = 2000;
+
+    private SimulatedAliyun simulator;
+
+    @Before
+    public void setUp() {
+        simulator = new SimulatedAliyun(4)
+                .latency(5, 50)
+                .topoDelay(100)
+                .deviceOfflineRate(0.2)
+                .alreadyBoundRate(0.01);
+        simulator.install();
+    }
+
+    @After
+    public void tearDown() {
+        simulator.shutdown();
+    }
+
+    @Test
+    public void nodeBind_concurrentSessions() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(SESSIONS);
+        final AtomicInteger successCount = new AtomicInteger();
+        final AtomicInteger failureCount = new AtomicInteger();
+        final AtomicInteger duplicateCallbacks = new AtomicInteger();
+        final long[] latencies = new long[SESSIONS];
+        //单独的预算，不与其他测试共用全局预算；SimulatedAliyun 提供时钟，预算窗口按实际时间计算
+        final RetryBudget budget = new RetryBudget(SESSIONS, 60 * 1000);
+        final RetryPolicy retryPolicy = new RetryPolicy()
+                .retryOn(RetryPolicy.CODE_DEVICE_OFFLINE, 5, 10, 50)
+                .setBudget(budget);
+        int baseThreads = Thread.activeCount();
+        int peakThreads = baseThreads;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SESSIONS; i++) {
+            final int index = i;
+            final long sessionStart = System.nanoTime();
+            final AtomicInteger callbacks = new AtomicInteger();
+            NodeHelper helper = new NodeHelper(new NodeHelper.BindCallback() {
+                @Override
+                public boolean isUnbindRelation(String subIotId, String subProductKey, String subDeviceName) {
+                    return true;
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    finish(failureCount);
+                }
+
+                @Override
+                public void onSuccess(String subIotId, String subProductKey, String subDeviceName) {
+                    finish(successCount);
+                }
+
+                private void finish(AtomicInteger counter) {
+                    if (callbacks.incrementAndGet() > 1) {
+                        duplicateCallbacks.incrementAndGet();
+                        return;
+                    }
+                    latencies[index] = System.nanoTime() - sessionStart;
+                    counter.incrementAndGet();
+                    latch.countDown();
+                }
+            });
+            helper.setRetryPolicy(retryPolicy);
+            helper.startBind("sim-auth-code", "gateway-" + i, "subProductKey", 20);
+            peakThreads = Math.max(peakThreads, Thread.activeCount());
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!latch.await(100, TimeUnit.MILLISECONDS)) {
+            peakThreads = Math.max(peakThreads, Thread.activeCount());
+            if (System.nanoTime() - deadline > 0) {
+                fail(TIMEOUT_SECONDS + "秒内未全部结束，剩余 " + latch.getCount() + " 个流程");
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        long p50 = TimeUnit.NANOSECONDS.toMillis(latencies[SESSIONS / 2]);
+        long p99 = TimeUnit.NANOSECONDS.toMillis(latencies[(int) (SESSIONS * 0.99) - 1]);
+        double throughput = SESSIONS * 1e9 / elapsedNanos;
+        TraceLog.i(TAG, "load: {}", "sessions=" + SESSIONS
+                + " success=" + successCount.get()
+                + " failure=" + failureCount.get()
+                + " elapsed=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms"
+                + " throughput=" + String.format("%.1f", throughput) + "/s"
+                + " p50=" + p50 + "ms p99=" + p99 + "ms"
+                + " threads=" + baseThreads + "->" + peakThreads
+                + " bindRequests=" + simulator.getRequestCount("/awss/time/window/user/bind")
+                + " routed=" + TopoStatusRouter.getInstance().getRoutedCount()
+                + " budgetRejected=" + budget.getRejectedCount());
+
+        assertEquals(0, duplicateCallbacks.get());
+        assertEquals(SESSIONS, successCount.get() + failureCount.get());
+        assertTrue(successCount.get() > SESSIONS / 2);
+        assertTrue(budget.getRemaining() < SESSIONS);
+        //共享调度器，线程数不随流程数量增长
+        assertTrue(peakThreads - baseThreads < 50);
+    }
+}
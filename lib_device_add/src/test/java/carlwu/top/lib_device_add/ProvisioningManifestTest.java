@@ -0,0 +1,92 @@
+package carlwu.top.lib_device_add;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import carlwu.top.lib_device_add.exceptions.ManifestFormatException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ProvisioningManifest} 的CSV、JSON Lines解析
+ */
+public class ProvisioningManifestTest {
+
+    @Test
+    public void csv_withoutHeader() throws Exception {
+        ProvisioningManifest manifest = ProvisioningManifest.csv(new StringReader(
+                "pk,gw1,sub,2\n\n# comment\npk, gw2 ,,\n"));
+        ProvisioningManifest.Row row = manifest.next();
+        assertEquals(1, row.lineNumber);
+        assertEquals("pk/gw1", row.getGatewayKey());
+        assertEquals("sub", row.subProductKey);
+        assertEquals(2, row.subCount);
+        row = manifest.next();
+        assertEquals(4, row.lineNumber);
+        assertEquals("gw2", row.gatewayDeviceName);
+        assertNull(row.subProductKey);
+        assertEquals(0, row.subCount);
+        assertNull(manifest.next());
+    }
+
+    @Test
+    public void csv_headerInAnyOrder() throws Exception {
+        ProvisioningManifest manifest = ProvisioningManifest.csv(new StringReader(
+                "SubCount,gatewayDeviceName,note,gatewayProductKey,subProductKey\n3,gw1,room 101,pk,sub\n"));
+        ProvisioningManifest.Row row = manifest.next();
+        assertEquals(2, row.lineNumber);
+        assertEquals("pk", row.gatewayProductKey);
+        assertEquals("gw1", row.gatewayDeviceName);
+        assertEquals("sub", row.subProductKey);
+        assertEquals(3, row.subCount);
+        assertNull(manifest.next());
+    }
+
+    @Test
+    public void csv_badRowDoesNotStopReading() throws Exception {
+        ProvisioningManifest manifest = ProvisioningManifest.csv(new StringReader(
+                "pk,gw1,sub,abc\npk,,sub,1\npk,gw3,sub,1\n"));
+        assertFormatError(manifest, 1);
+        assertFormatError(manifest, 2);
+        assertEquals("pk/gw3", manifest.next().getGatewayKey());
+    }
+
+    @Test
+    public void jsonLines_fields() throws Exception {
+        ProvisioningManifest manifest = ProvisioningManifest.jsonLines(new StringReader(
+                "{\"gatewayProductKey\":\"pk\",\"gatewayDeviceName\":\"gw1\",\"subProductKey\":\"sub\",\"subCount\":4}\n"
+                        + "{\"gatewayProductKey\":\"pk\",\"gatewayDeviceName\":\"gw2\",\"subCount\":null}\n"));
+        ProvisioningManifest.Row row = manifest.next();
+        assertEquals("sub", row.subProductKey);
+        assertEquals(4, row.subCount);
+        row = manifest.next();
+        assertNull(row.subProductKey);
+        assertEquals(0, row.subCount);
+        assertNull(manifest.next());
+    }
+
+    @Test
+    public void jsonLines_subCountValidatedLikeCsv() throws Exception {
+        ProvisioningManifest manifest = ProvisioningManifest.jsonLines(new StringReader(
+                "{\"gatewayProductKey\":\"pk\",\"gatewayDeviceName\":\"gw1\",\"subProductKey\":\"sub\",\"subCount\":\"abc\"}\n"
+                        + "{\"gatewayProductKey\":\"pk\",\"gatewayDeviceName\":\"gw2\",\"subProductKey\":\"sub\",\"subCount\":-1}\n"
+                        + "{\"gatewayProductKey\":\"pk\",\"gatewayDeviceName\":\"gw3\"\n"
+                        + "{\"gatewayProductKey\":\"pk\",\"gatewayDeviceName\":\"gw4\",\"subProductKey\":\"sub\",\"subCount\":\"2\"}\n"));
+        assertFormatError(manifest, 1);
+        assertFormatError(manifest, 2);
+        assertFormatError(manifest, 3);
+        assertEquals(2, manifest.next().subCount);
+    }
+
+    private static void assertFormatError(ProvisioningManifest manifest, int lineNumber) throws Exception {
+        try {
+            manifest.next();
+            fail("第" + lineNumber + "行应该格式错误");
+        } catch (ManifestFormatException e) {
+            assertEquals(lineNumber, e.getLineNumber());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package carlwu.top.lib_device_add;
+
+import com.aliyun.iot.aep.sdk.framework.AApplication;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ProvisioningRunner} 的断点记录：跳过已成功的行，失败的行重新执行并使用记录的网关iotId；
+ * 同一网关不相邻的行不会同时执行
+ * <p>
+ * 清单只包含只绑定网关的行，除同一网关的用例外网关都在断点中有iotId，不会发起绑定请求
+ */
+public class ProvisioningRunnerTest {
+    private SimulatedAliyun simulator;
+    private File checkpoint;
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new SimulatedAliyun(2).latency(1, 5);
+        simulator.install();
+        checkpoint = File.createTempFile("provisioning", ".checkpoint");
+    }
+
+    @After
+    public void tearDown() {
+        simulator.shutdown();
+        checkpoint.delete();
+    }
+
+    @Test
+    public void resume_skipsSucceededRowsAndRerunsFailedRows() throws Exception {
+        write(checkpoint, "{\"line\":1,\"row\":\"pk/gw1/\",\"success\":true,\"gateway\":\"pk/gw1\",\"gatewayIotId\":\"iot-gw1\"}\n"
+                + "{\"line\":2,\"row\":\"pk/gw2/\",\"success\":false,\"gateway\":\"pk/gw2\",\"gatewayIotId\":\"iot-gw2\"}\n"
+                + "{\"line\":3,\"row\":\"pk/gw3/");//进程在写入中途被杀
+        String csv = "pk,gw1\npk,gw2\n";
+
+        RecordingListener first = run(csv);
+        assertEquals(1, first.progress.skippedCount);
+        assertEquals(1, first.progress.successCount);
+        assertEquals(0, first.progress.failureCount);
+        assertEquals(1, first.results.size());
+        ProvisioningRunner.RowResult result = first.results.get(0);
+        assertEquals(2, result.lineNumber);
+        assertTrue(result.success);
+        assertEquals("iot-gw2", result.gatewayIotId);
+
+        //第二次执行两行都已成功
+        RecordingListener second = run(csv);
+        assertEquals(2, second.progress.skippedCount);
+        assertEquals(0, second.progress.successCount);
+        assertEquals(0, second.results.size());
+        assertEquals(0, simulator.getRequestCount("/awss/token/user/bind"));
+    }
+
+    @Test
+    public void resume_changedRowIsNotSkipped() throws Exception {
+        //第1行在断点中是另一个网关，清单改过后需要重新执行
+        write(checkpoint, "{\"line\":1,\"row\":\"pk/old/\",\"success\":true,\"gateway\":\"pk/old\",\"gatewayIotId\":\"iot-old\"}\n"
+                + "{\"line\":5,\"row\":\"pk/gw1/\",\"success\":false,\"gateway\":\"pk/gw1\",\"gatewayIotId\":\"iot-gw1\"}\n");
+
+        RecordingListener listener = run("pk,gw1\n");
+        assertEquals(0, listener.progress.skippedCount);
+        assertEquals(1, listener.progress.successCount);
+        assertEquals("iot-gw1", listener.results.get(0).gatewayIotId);
+    }
+
+    @Test
+    public void sameGatewayRowsNotAdjacent_siteDeferredUntilGatewayFree() throws Exception {
+        //gw1 的两行不相邻，读出两个站点；第二个等第一个结束后执行，使用已绑定的iotId
+        RecordingListener listener = run("pk,gw1\npk,gw2\npk,gw1\n", new AApplication(), 3);
+        assertEquals(3, listener.progress.successCount);
+        assertEquals(2, simulator.getRequestCount("/awss/token/user/bind"));
+        for (ProvisioningRunner.RowResult result : listener.results) {
+            if (result.lineNumber == 3) {
+                assertEquals("iot-gw1", result.gatewayIotId);
+            }
+        }
+    }
+
+    @Test
+    public void finish_compactsCheckpoint() throws Exception {
+        write(checkpoint, "{\"line\":1,\"row\":\"pk/gw1/\",\"success\":false,\"gateway\":\"pk/gw1\",\"gatewayIotId\":\"iot-gw1\"}\n"
+                + "{\"line\":1,\"row\":\"pk/gw1/\",\"success\":false,\"gateway\":\"pk/gw1\",\"gatewayIotId\":\"iot-gw1\"}\n"
+                + "{\"line\":2,\"row\":\"pk/gw2/\",\"success\":true,\"gateway\":\"pk/gw2\",\"gatewayIotId\":\"iot-gw2\"}\n"
+                + "{\"line\":3,\"row\":\"pk/gw3/");
+        run("pk,gw1\npk,gw2\n");
+        JsonLinesFile.awaitWrites();
+
+        final List<String> lines = new ArrayList<>();
+        new JsonLinesFile(checkpoint).load(new JsonLinesFile.LineHandler() {
+            @Override
+            public void onLine(JSONObject json) throws JSONException {
+                lines.add(json.getInt("line") + ":" + json.optBoolean("success"));
+            }
+        });
+        assertEquals(Arrays.asList("1:true", "2:true"), lines);
+    }
+
+    private RecordingListener run(String csv) throws InterruptedException {
+        return run(csv, null, 2);
+    }
+
+    private RecordingListener run(String csv, AApplication application, int maxConcurrentSites) throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        ProvisioningRunner runner = new ProvisioningRunner(application, listener);
+        runner.setMaxConcurrentSites(maxConcurrentSites);
+        runner.setCheckpointFile(checkpoint);
+        runner.start("authCode", ProvisioningManifest.csv(new StringReader(csv)));
+        assertTrue("清单未执行完", listener.finish.await(10, TimeUnit.SECONDS));
+        return listener;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file, false);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class RecordingListener implements ProvisioningRunner.Listener {
+        final List<ProvisioningRunner.RowResult> results = new CopyOnWriteArrayList<>();
+        final CountDownLatch finish = new CountDownLatch(1);
+        volatile ProvisioningRunner.Progress progress;
+
+        @Override
+        public boolean isUnbindRelation(String subIotId, String subProductKey, String subDeviceName) {
+            return true;
+        }
+
+        @Override
+        public void onRowFinish(ProvisioningRunner.RowResult result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onProgress(ProvisioningRunner.Progress progress) {
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            finish.countDown();
+        }
+
+        @Override
+        public void onFinish(ProvisioningRunner.Progress progress) {
+            this.progress = progress;
+            finish.countDown();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package carlwu.top.lib_device_add;
+
+import android.content.Context;
+
+import com.aliyun.alink.business.devicecenter.api.discovery.DiscoveryType;
+import com.aliyun.alink.business.devicecenter.api.discovery.IDeviceDiscoveryListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileConnectListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileDownstreamListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.IMobileRequestListener;
+import com.aliyun.alink.linksdk.channel.mobile.api.MobileConnectState;
+import com.aliyun.iot.aep.sdk.login.ILoginCallback;
+import com.aliyun.iot.aep.sdk.login.ILogoutCallback;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内存中的阿里云SDK模拟，实现 {@link SdkPorts} 的四个接口，
+ * 同时提供时钟（单元测试中 android.jar 的 SystemClock 总是返回0，耗时统计、重试预算窗口都依赖时钟）
+ * <p>
+ * 所有回调在模拟的IO线程上延时执行，可以注入接口错误码（6221、2064、6608）；
+ * /thing/gateway/permit 成功后由模拟网关上报 /thing/topo/add/status。
+ */
+class SimulatedAliyun implements SdkPorts.LoginPort, SdkPorts.ChannelPort, SdkPorts.DiscoveryPort, SdkPorts.ApiPort,
+        SdkPorts.ClockPort {
+    private final ScheduledExecutorService io;
+    private final Random random = new Random(42);
+    private final CopyOnWriteArrayList<IMobileDownstreamListener> downstreamListeners = new CopyOnWriteArrayList<>();
+    private final List<IMobileConnectListener> connectListeners = new CopyOnWriteArrayList<>();
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger tokenSeq = new AtomicInteger();
+    private volatile boolean login;
+
+    private long minLatencyMillis = 5;
+    private long maxLatencyMillis = 50;
+    private long topoDelayMillis = 100;
+    private volatile Runnable beforeUnregister;
+    private double deviceOfflineRate;
+    private double alreadyBoundRate;
+    private double tokenNotFoundRate;
+    private int topoStatus = TopoStatus.STATUS_SUCCESS;
+
+    SimulatedAliyun(int ioThreads) {
+        io = Executors.newScheduledThreadPool(ioThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SimulatedAliyun-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    SimulatedAliyun latency(long minMillis, long maxMillis) {
+        minLatencyMillis = minMillis;
+        maxLatencyMillis = maxMillis;
+        return this;
+    }
+
+    /**
+     * 网关上报子设备入网结果的延时
+     */
+    SimulatedAliyun topoDelay(long millis) {
+        topoDelayMillis = millis;
+        return this;
+    }
+
+    /**
+     * 反注册下行监听前在调用线程执行，用于构造与反注册并发的操作
+     */
+    SimulatedAliyun beforeUnregister(Runnable runnable) {
+        beforeUnregister = runnable;
+        return this;
+    }
+
+    /**
+     * 子设备绑定返回6221的概率
+     */
+    SimulatedAliyun deviceOfflineRate(double rate) {
+        deviceOfflineRate = rate;
+        return this;
+    }
+
+    /**
+     * 绑定返回2064的概率
+     */
+    SimulatedAliyun alreadyBoundRate(double rate) {
+        alreadyBoundRate = rate;
+        return this;
+    }
+
+    /**
+     * 网关绑定返回6608的概率
+     */
+    SimulatedAliyun tokenNotFoundRate(double rate) {
+        tokenNotFoundRate = rate;
+        return this;
+    }
+
+    /**
+     * 网关上报的入网结果，默认0
+     */
+    SimulatedAliyun topoStatus(int status) {
+        topoStatus = status;
+        return this;
+    }
+
+    void install() {
+        SdkPorts.install(this, this, this, this, this);
+    }
+
+    void shutdown() {
+        SdkPorts.reset();
+        io.shutdownNow();
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * 已注册的下行监听数量
+     */
+    int getDownstreamListenerCount() {
+        return downstreamListeners.size();
+    }
+
+    int getRequestCount(String path) {
+        AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * 直接下发一条下行消息
+     */
+    void emitDownstream(String topic, String payload) {
+        for (IMobileDownstreamListener listener : downstreamListeners) {
+            if (listener.shouldHandle(topic)) {
+                listener.onCommand(topic, payload);
+            }
+        }
+    }
+
+    private void later(Runnable runnable) {
+        long latency = minLatencyMillis;
+        if (maxLatencyMillis > minLatencyMillis) {
+            synchronized (random) {
+                latency += random.nextInt((int) (maxLatencyMillis - minLatencyMillis));
+            }
+        }
+        io.schedule(runnable, latency, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean chance(double rate) {
+        synchronized (random) {
+            return rate > 0 && random.nextDouble() < rate;
+        }
+    }
+
+    //---------------- LoginPort
+
+    @Override
+    public void authCodeLogin(String authCode, final ILoginCallback callback) {
+        later(new Runnable() {
+            @Override
+            public void run() {
+                login = true;
+                callback.onLoginSuccess();
+            }
+        });
+    }
+
+    @Override
+    public void logout(final ILogoutCallback callback) {
+        later(new Runnable() {
+            @Override
+            public void run() {
+                login = false;
+                callback.onLogoutSuccess();
+            }
+        });
+    }
+
+    @Override
+    public boolean isLogin() {
+        return login;
+    }
+
+    @Override
+    public String getIoTToken() {
+        return login ? "sim-iot-token" : null;
+    }
+
+    //---------------- ChannelPort
+
+    @Override
+    public MobileConnectState getMobileConnectState() {
+        return MobileConnectState.CONNECTED;
+    }
+
+    @Override
+    public void registerConnectListener(IMobileConnectListener listener) {
+        connectListeners.add(listener);
+    }
+
+    @Override
+    public void unRegisterConnectListener(IMobileConnectListener listener) {
+        connectListeners.remove(listener);
+    }
+
+    @Override
+    public void registerDownstreamListener(IMobileDownstreamListener listener) {
+        downstreamListeners.addIfAbsent(listener);//与SDK一样，同一监听只注册一次
+    }
+
+    @Override
+    public void unRegisterDownstreamListener(IMobileDownstreamListener listener) {
+        Runnable hook = beforeUnregister;
+        if (hook != null) {
+            hook.run();
+        }
+        downstreamListeners.remove(listener);
+    }
+
+    @Override
+    public void bindAccount(String iotToken, final IMobileRequestListener listener) {
+        later(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSuccess("ok");
+            }
+        });
+    }
+
+    @Override
+    public void unBindAccount(final IMobileRequestListener listener) {
+        later(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSuccess("ok");
+            }
+        });
+    }
+
+    //---------------- DiscoveryPort
+
+    @Override
+    public void startDiscovery(Context context, EnumSet<DiscoveryType> types, IDeviceDiscoveryListener listener) {
+    }
+
+    @Override
+    public void stopDiscovery() {
+    }
+
+    @Override
+    public void getDeviceToken(Context context, final String productKey, final String deviceName, final SdkPorts.TokenListener listener) {
+        later(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSuccess("token-" + productKey + "-" + deviceName + "-" + tokenSeq.incrementAndGet());
+            }
+        });
+    }
+
+    @Override
+    public void stopGetDeviceToken() {
+    }
+
+    //---------------- ApiPort
+
+    @Override
+    public void send(final String path, String apiVersion, final Map<String, Object> params, final SdkPorts.ApiListener listener) {
+        AtomicInteger count = requestCounts.get(path);
+        if (count == null) {
+            requestCounts.putIfAbsent(path, new AtomicInteger());
+            count = requestCounts.get(path);
+        }
+        count.incrementAndGet();
+        later(new Runnable() {
+            @Override
+            public void run() {
+                respond(path, params, listener);
+            }
+        });
+    }
+
+    private void respond(String path, Map<String, Object> params, SdkPorts.ApiListener listener) {
+        if ("/thing/gateway/permit".equals(path)) {
+            listener.onResponse(200, "success", null);
+            final String gatewayIotId = String.valueOf(params.get("iotId"));
+            final String subProductKey = String.valueOf(params.get("productKey"));
+            io.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    emitDownstream(TopoStatusRouter.TOPIC, topoPayload(gatewayIotId, subProductKey));
+                }
+            }, topoDelayMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        boolean subDeviceBind = "/awss/time/window/user/bind".equals(path);
+        boolean tokenBind = "/awss/token/user/bind".equals(path);
+        if (subDeviceBind && chance(deviceOfflineRate)) {
+            listener.onResponse(RetryPolicy.CODE_DEVICE_OFFLINE, "设备不在线", null);
+        } else if ((subDeviceBind || tokenBind) && chance(alreadyBoundRate)) {
+            listener.onResponse(IoTResult.CODE_ALREADY_BOUND, "设备已被绑定", null);
+        } else if (tokenBind && chance(tokenNotFoundRate)) {
+            listener.onResponse(IoTResult.CODE_TOKEN_NOT_FOUND, "token not found", null);
+        } else if (subDeviceBind || tokenBind) {
+            try {
+                listener.onResponse(200, "success", new JSONObject().put("iotId", "iot-" + params.get("deviceName")));
+            } catch (JSONException e) {
+                listener.onFailure(e);
+            }
+        } else {
+            listener.onResponse(200, "success", null);
+        }
+    }
+
+    String topoPayload(String gatewayIotId, String subProductKey) {
+        try {
+            return new JSONObject()
+                    .put("gwIotId", gatewayIotId)
+                    .put("subIotId", "sub-iot-" + gatewayIotId)
+                    .put("subProductKey", subProductKey)
+                    .put("subDeviceName", "sub-" + gatewayIotId)
+                    .put("status", topoStatus)
+                    .toString();
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package carlwu.top.lib_device_add;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link TopoStatusRouter} 并发订阅、取消时下行监听的注册状态
+ */
+public class TopoStatusRouterTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 2000;
+
+    private SimulatedAliyun simulator;
+
+    @Before
+    public void setUp() {
+        simulator = new SimulatedAliyun(1);
+        simulator.install();
+    }
+
+    @After
+    public void tearDown() {
+        simulator.shutdown();
+    }
+
+    @Test
+    public void concurrentSubscribeCancel_keepsListenerRegistered() throws InterruptedException {
+        final TopoStatusRouter router = TopoStatusRouter.getInstance();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(THREADS);
+        final AtomicInteger errors = new AtomicInteger();
+        for (int t = 0; t < THREADS; t++) {
+            final String gatewayIotId = "gw-iot-" + t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < ROUNDS; i++) {
+                            router.subscribe(gatewayIotId, "subProductKey", new RecordingListener()).cancel();
+                        }
+                    } catch (Throwable e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue("订阅线程未结束", finished.await(30, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+        assertEquals(0, simulator.getDownstreamListenerCount());
+
+        //全部取消后重新订阅，监听必须已注册并且只注册一次
+        RecordingListener listener = new RecordingListener();
+        TopoStatusRouter.Subscription subscription = router.subscribe("gw-iot-final", "subProductKey", listener);
+        assertEquals(1, simulator.getDownstreamListenerCount());
+        simulator.emitDownstream(TopoStatusRouter.TOPIC, simulator.topoPayload("gw-iot-final", "subProductKey"));
+        assertEquals(1, listener.count.get());
+        subscription.cancel();
+        assertEquals(0, simulator.getDownstreamListenerCount());
+    }
+
+    @Test
+    public void subscribeDuringLastUnregister_listenerStaysRegistered() throws InterruptedException {
+        final TopoStatusRouter router = TopoStatusRouter.getInstance();
+        final RecordingListener listener = new RecordingListener();
+        final TopoStatusRouter.Subscription[] current = new TopoStatusRouter.Subscription[1];
+        final Thread subscriber = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                current[0] = router.subscribe("gw-iot-new", "subProductKey", listener);
+            }
+        });
+        //最后一个订阅取消、SDK反注册还未完成时，另一个线程订阅
+        simulator.beforeUnregister(new Runnable() {
+            @Override
+            public void run() {
+                simulator.beforeUnregister(null);
+                subscriber.start();
+                try {
+                    subscriber.join(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        router.subscribe("gw-iot-old", "subProductKey", new RecordingListener()).cancel();
+        subscriber.join();
+
+        assertEquals(1, simulator.getDownstreamListenerCount());
+        simulator.emitDownstream(TopoStatusRouter.TOPIC, simulator.topoPayload("gw-iot-new", "subProductKey"));
+        assertEquals(1, listener.count.get());
+        current[0].cancel();
+        assertEquals(0, simulator.getDownstreamListenerCount());
+    }
+
+    private static class RecordingListener implements TopoStatusRouter.TopoStatusListener {
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void onTopoStatus(TopoStatus topoStatus) {
+            count.incrementAndGet();
+        }
+    }
+}